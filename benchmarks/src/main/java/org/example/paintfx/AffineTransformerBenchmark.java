@@ -0,0 +1,62 @@
+package org.example.paintfx;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.geom.AffineTransform;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a free rotation of the canvas with {@link AffineTransformer} at each quality, and the
+ * preview rendered for every step of a drag, which has to fit in a frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AffineTransformerBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"NEAREST", "BILINEAR", "BICUBIC"})
+    public AffineTransformer.Quality quality;
+
+    private int width;
+    private int height;
+    private int[] pixels;
+    private AffineTransform matrix;
+    private AffineTransformer.Preview preview;
+
+    @Setup
+    public void setUp() {
+        FxBenchmarkSupport.startToolkit();
+        int[] dimensions = FxBenchmarkSupport.parseSize(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        pixels = PixelConverter.toArgb(FxBenchmarkSupport.paintedSnapshot(width, height));
+        matrix = AffineTransform.getRotateInstance(Math.toRadians(17), width / 2.0, height / 2.0);
+        preview = new AffineTransformer.Preview(pixels, width, height, 1 << 19);
+    }
+
+    @Benchmark
+    public AffineTransformer.Result rotate() {
+        return AffineTransformer.transform(pixels, width, height, matrix, quality);
+    }
+
+    @Benchmark
+    public AffineTransformer.Result preview() {
+        return preview.render(matrix);
+    }
+}
@@ -0,0 +1,130 @@
+package org.example.paintfx;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.control.ToggleButton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rotating and mirroring the whole canvas with {@link CanvasRotator} and then applying
+ * the {@link PendingOrientation}, including the snapshot before and the redraw after, as happens
+ * when the canvas is next drawn on. Each of those benchmarks waits for the JavaFX Application
+ * Thread to finish. The {@code pixels} benchmarks measure the kernels alone, on the pixels of
+ * the same canvas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanvasRotatorBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160", "8000x6000"})
+    public String size;
+
+    private Logger logger;
+    private CanvasRotator rotator;
+    private Canvas canvas;
+    private MoveSelectionTool moveSelectionTool;
+    private int width;
+    private int height;
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        FxBenchmarkSupport.startToolkit();
+        int[] dimensions = FxBenchmarkSupport.parseSize(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        pixels = PixelConverter.toArgb(FxBenchmarkSupport.paintedSnapshot(width, height));
+        logger = new Logger();
+        rotator = new CanvasRotator(logger);
+        FxBenchmarkSupport.onFxThread(() -> {
+            canvas = new Canvas(dimensions[0], dimensions[1]);
+            FxBenchmarkSupport.paint(canvas);
+            Canvas overlay = new Canvas(dimensions[0], dimensions[1]);
+            moveSelectionTool = new MoveSelectionTool(canvas.getGraphicsContext2D(),
+                    overlay.getGraphicsContext2D(), overlay, logger, new ToggleButton());
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.shutdown();
+    }
+
+    @Benchmark
+    public void rotateRight() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            rotator.rotateRight(canvas, moveSelectionTool);
+            PendingOrientation.of(canvas).apply();
+        });
+    }
+
+    @Benchmark
+    public void rotateLeft() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            rotator.rotateLeft(canvas, moveSelectionTool);
+            PendingOrientation.of(canvas).apply();
+        });
+    }
+
+    @Benchmark
+    public void mirrorHorizontally() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            rotator.mirrorHorizontally(canvas, moveSelectionTool);
+            PendingOrientation.of(canvas).apply();
+        });
+    }
+
+    @Benchmark
+    public void mirrorVertically() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            rotator.mirrorVertically(canvas, moveSelectionTool);
+            PendingOrientation.of(canvas).apply();
+        });
+    }
+
+    @Benchmark
+    public void fourRotationsThenApply() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            for (int i = 0; i < 4; i++) {
+                rotator.rotateRight(canvas, moveSelectionTool);
+            }
+            PendingOrientation.of(canvas).apply();
+        });
+    }
+
+    @Benchmark
+    public int[] pixelsRotateRight() {
+        return CanvasRotator.rotatePixelsRight(pixels, width, height);
+    }
+
+    @Benchmark
+    public int[] pixelsRotateLeft() {
+        return CanvasRotator.rotatePixelsLeft(pixels, width, height);
+    }
+
+    @Benchmark
+    public int[] pixelsMirrorHorizontally() {
+        return CanvasRotator.mirrorPixelsHorizontally(pixels, width, height);
+    }
+
+    @Benchmark
+    public int[] pixelsMirrorVertically() {
+        return CanvasRotator.mirrorPixelsVertically(pixels, width, height);
+    }
+}
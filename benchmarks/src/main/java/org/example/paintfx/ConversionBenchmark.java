@@ -0,0 +1,78 @@
+package org.example.paintfx;
+
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting a canvas snapshot into a {@link BufferedImage}: with {@link PixelConverter},
+ * and a pixel at a time with {@code getColor} and {@code setRGB} as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private WritableImage snapshot;
+
+    @Setup
+    public void setUp() {
+        FxBenchmarkSupport.startToolkit();
+        int[] dimensions = FxBenchmarkSupport.parseSize(size);
+        snapshot = FxBenchmarkSupport.paintedSnapshot(dimensions[0], dimensions[1]);
+    }
+
+    @Benchmark
+    public BufferedImage bulk() {
+        return PixelConverter.toBufferedImage(snapshot, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Benchmark
+    public BufferedImage bulkFlattened() {
+        return PixelConverter.toBufferedImage(snapshot, BufferedImage.TYPE_INT_ARGB, true);
+    }
+
+    @Benchmark
+    public int[] argb() {
+        return PixelConverter.toArgb(snapshot);
+    }
+
+    @Benchmark
+    public BufferedImage pixelByPixel() {
+        int width = (int) snapshot.getWidth();
+        int height = (int) snapshot.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        PixelReader reader = snapshot.getPixelReader();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                Color color = reader.getColor(x, y);
+                int argb = (int) (color.getOpacity() * 255) << 24 |
+                        (int) (color.getRed() * 255) << 16 |
+                        (int) (color.getGreen() * 255) << 8 |
+                        (int) (color.getBlue() * 255);
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+}
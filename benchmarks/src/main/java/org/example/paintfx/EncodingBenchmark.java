@@ -0,0 +1,123 @@
+package org.example.paintfx;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding a canvas snapshot the ways it is saved and served: PNG with
+ * {@link PngEncoder} and with ImageIO, PNG again after a small edit with
+ * {@link IncrementalPngEncoder}, and JPEG and BMP with ImageIO. Each benchmark returns the size of
+ * the encoded image, which also shows up in the results when comparing compression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private int width;
+    private int height;
+    private int[] pixels;
+    private int[] edited;
+    private BufferedImage argbImage;
+    private BufferedImage rgbImage;
+    private PngEncoder pngEncoder;
+    private IncrementalPngEncoder incrementalEncoder;
+    private boolean showEdit;
+
+    @Setup
+    public void setUp() {
+        FxBenchmarkSupport.startToolkit();
+        int[] dimensions = FxBenchmarkSupport.parseSize(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        pixels = PixelConverter.toArgb(FxBenchmarkSupport.paintedSnapshot(width, height));
+
+        // A brush stroke's worth of change in the middle of the canvas
+        edited = pixels.clone();
+        for (int y = height / 2; y < height / 2 + 16; y++) {
+            for (int x = width / 4; x < width * 3 / 4; x++) {
+                edited[y * width + x] = 0xFF000000;
+            }
+        }
+
+        argbImage = toImage(pixels, BufferedImage.TYPE_INT_ARGB);
+        rgbImage = toImage(pixels, BufferedImage.TYPE_INT_RGB);
+        pngEncoder = new PngEncoder();
+        incrementalEncoder = new IncrementalPngEncoder(pngEncoder);
+        incrementalEncoder.encode(pixels, width, height);
+    }
+
+    private BufferedImage toImage(int[] argb, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        System.arraycopy(argb, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, argb.length);
+        return image;
+    }
+
+    @Benchmark
+    public int png() {
+        return pngEncoder.encode(pixels, width, height).length;
+    }
+
+    @Benchmark
+    public int pngIncremental() {
+        // Alternate between the two versions, so every call has one edit to re-encode
+        showEdit = !showEdit;
+        return incrementalEncoder.encode(showEdit ? edited : pixels, width, height).length;
+    }
+
+    @Benchmark
+    public int pngImageIO() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(argbImage, "png", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int jpeg() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.85f);
+            writer.write(null, new IIOImage(rgbImage, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int bmp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(rgbImage, "bmp", out);
+        return out.size();
+    }
+}
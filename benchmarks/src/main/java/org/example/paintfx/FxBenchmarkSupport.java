@@ -0,0 +1,139 @@
+package org.example.paintfx;
+
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Starts the JavaFX toolkit for the benchmarks and runs work on its thread.
+ *
+ * <p>The toolkit is started headless with Monocle and the software pipeline, so the benchmarks run
+ * the same on a build machine without a display as on a desktop. The properties are set here
+ * rather than on the command line so that every forked JVM picks them up.
+ */
+final class FxBenchmarkSupport {
+
+    private static boolean started;
+
+    private FxBenchmarkSupport() {
+    }
+
+    /**
+     * Starts the toolkit unless it is already running.
+     */
+    static synchronized void startToolkit() {
+        if (started) {
+            return;
+        }
+        setDefault("glass.platform", "Monocle");
+        setDefault("monocle.platform", "Headless");
+        setDefault("prism.order", "sw");
+        setDefault("java.awt.headless", "true");
+        try {
+            Platform.startup(() -> {
+                // Do nothing, just initialize the JavaFX toolkit
+            });
+        } catch (IllegalStateException e) {
+            // Toolkit already started
+        }
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Runs a task on the JavaFX Application Thread and waits for its result.
+     *
+     * @param task The task to run.
+     * @return The result of the task.
+     */
+    static <T> T onFxThread(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs a task on the JavaFX Application Thread and waits for it to finish.
+     *
+     * @param task The task to run.
+     */
+    static void onFxThread(Runnable task) {
+        onFxThread(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Parses a canvas size parameter such as {@code "1920x1080"}.
+     *
+     * @param size The size.
+     * @return The width and the height.
+     */
+    static int[] parseSize(String size) {
+        int x = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+    }
+
+    /**
+     * Fills a canvas with a white background and overlapping translucent ovals, so that the
+     * encoders and the undo stack see something closer to a drawing than a flat color.
+     * Must be called on the JavaFX Application Thread.
+     *
+     * @param canvas The canvas to draw on.
+     */
+    static void paint(Canvas canvas) {
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, width, height);
+        for (int i = 0; i < 50; i++) {
+            gc.setFill(Color.hsb(i * 7.2, 1, 1, 0.5));
+            gc.fillOval(i * width / 55, i * height / 55, width / 10, height / 7);
+        }
+    }
+
+    /**
+     * Paints a canvas of the given size and takes a snapshot of it.
+     *
+     * @param width  The width of the canvas.
+     * @param height The height of the canvas.
+     * @return The snapshot.
+     */
+    static WritableImage paintedSnapshot(int width, int height) {
+        return onFxThread(() -> {
+            Canvas canvas = new Canvas(width, height);
+            paint(canvas);
+            SnapshotParameters params = new SnapshotParameters();
+            params.setFill(Color.WHITE);
+            return canvas.snapshot(params, new WritableImage(width, height));
+        });
+    }
+}
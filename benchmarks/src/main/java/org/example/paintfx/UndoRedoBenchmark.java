@@ -0,0 +1,95 @@
+package org.example.paintfx;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures 10 consecutive undos on a 4K canvas. With {@code readBack} the canvas is marked as
+ * changed ahead of every undo, which makes each one read back and diff the whole canvas the way
+ * every undo did before {@link UndoRedo} tracked a canvas version; without it consecutive undos
+ * skip the read back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UndoRedoBenchmark {
+
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+    private static final int UNDOS = 10;
+
+    @Param({"false", "true"})
+    public boolean readBack;
+
+    private Logger logger;
+    private Canvas canvas;
+    private UndoRedo undoRedo;
+
+    @Setup
+    public void setUp() {
+        FxBenchmarkSupport.startToolkit();
+        logger = new Logger();
+        FxBenchmarkSupport.onFxThread(() -> {
+            canvas = new Canvas(WIDTH, HEIGHT);
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            gc.setFill(Color.WHITE);
+            gc.fillRect(0, 0, WIDTH, HEIGHT);
+            undoRedo = new UndoRedo(canvas, logger, gc);
+
+            // One small shape per action, spread over the canvas like a user working on it
+            for (int i = 0; i < UNDOS; i++) {
+                undoRedo.pushToUndoStack();
+                gc.setFill(Color.hsb(i * 36, 1, 1));
+                gc.fillRect(100 + i * 350, 100 + i * 180, 120, 80);
+                DirtyTileTracker.of(canvas).markDirty(100 + i * 350, 100 + i * 180, 120, 80);
+            }
+        });
+    }
+
+    /** Redoes every action, so each invocation starts from the finished drawing. */
+    @Setup(Level.Invocation)
+    public void redoAll() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            while (undoRedo.canRedo()) {
+                undoRedo.redo();
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        FxBenchmarkSupport.onFxThread(() -> undoRedo.dispose());
+        logger.shutdown();
+    }
+
+    @Benchmark
+    public void tenConsecutiveUndos() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            for (int i = 0; i < UNDOS; i++) {
+                if (readBack) {
+                    undoRedo.markChanged();
+                }
+                undoRedo.undo();
+            }
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.paintfx;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the undo stack of {@link UndoRedo}: pushing before a stroke and undoing it, and undoing
+ * and redoing an existing stroke. The strokes cover a small part of the canvas, as most do, so the
+ * results show how the cost of a push and an undo grows with the canvas rather than the stroke.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UndoRedoStackBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    private Logger logger;
+    private Canvas canvas;
+    private GraphicsContext gc;
+    private UndoRedo undoRedo;
+    private int stroke;
+
+    @Setup
+    public void setUp() {
+        FxBenchmarkSupport.startToolkit();
+        int[] dimensions = FxBenchmarkSupport.parseSize(size);
+        logger = new Logger();
+        FxBenchmarkSupport.onFxThread(() -> {
+            canvas = new Canvas(dimensions[0], dimensions[1]);
+            gc = canvas.getGraphicsContext2D();
+            FxBenchmarkSupport.paint(canvas);
+            undoRedo = new UndoRedo(canvas, logger, gc);
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        FxBenchmarkSupport.onFxThread(() -> undoRedo.dispose());
+        logger.shutdown();
+    }
+
+    /** Draws a 64x64 square somewhere new on the canvas and reports it, as the drawing tools do. */
+    private void drawStroke() {
+        stroke++;
+        double x = (stroke * 97L) % Math.max(1, (long) canvas.getWidth() - 64);
+        double y = (stroke * 61L) % Math.max(1, (long) canvas.getHeight() - 64);
+        gc.setFill(Color.hsb(stroke % 360, 1, 1));
+        gc.fillRect(x, y, 64, 64);
+        DirtyTileTracker.of(canvas).markDirty(x, y, 64, 64);
+    }
+
+    @Benchmark
+    public void pushAndUndo() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            undoRedo.pushToUndoStack();
+            drawStroke();
+            undoRedo.undo();
+        });
+    }
+
+    @Benchmark
+    public void undoAndRedo() {
+        FxBenchmarkSupport.onFxThread(() -> {
+            if (!undoRedo.canUndo()) {
+                undoRedo.pushToUndoStack();
+                drawStroke();
+            }
+            undoRedo.undo();
+            undoRedo.redo();
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.paintfx;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing the vertices of polygons and stars, which happens on every mouse drag while
+ * one is drawn. The shape spans the canvas, though only the number of vertices changes the cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertexBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"5", "12", "100"})
+    public int points;
+
+    private double centerX;
+    private double centerY;
+    private double radius;
+    private double[] xPoints;
+    private double[] yPoints;
+
+    @Setup
+    public void setUp() {
+        int[] dimensions = FxBenchmarkSupport.parseSize(size);
+        centerX = dimensions[0] / 2.0;
+        centerY = dimensions[1] / 2.0;
+        radius = Math.min(centerX, centerY);
+        xPoints = new double[points * 2];
+        yPoints = new double[points * 2];
+    }
+
+    @Benchmark
+    public void polygon(Blackhole blackhole) {
+        PolygonTool.computePolygonVertices(centerX, centerY, radius, points, xPoints, yPoints);
+        blackhole.consume(xPoints);
+        blackhole.consume(yPoints);
+    }
+
+    @Benchmark
+    public void star(Blackhole blackhole) {
+        VarStarTool.computeStarVertices(centerX, centerY, radius, radius / 2, points, xPoints, yPoints);
+        blackhole.consume(xPoints);
+        blackhole.consume(yPoints);
+    }
+}
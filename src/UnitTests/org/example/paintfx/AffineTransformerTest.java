@@ -0,0 +1,92 @@
+package org.example.paintfx;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.geom.AffineTransform;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AffineTransformerTest {
+
+    @Test
+    void testIdentityCopiesTheImageAtEveryQuality() {
+        int[] pixels = TestImages.createPixels(37, 23, false);
+        for (AffineTransformer.Quality quality : AffineTransformer.Quality.values()) {
+            AffineTransformer.Result result = AffineTransformer.transform(pixels, 37, 23, new AffineTransform(), quality);
+            assertEquals(37, result.width());
+            assertEquals(23, result.height());
+            assertEquals(0, result.x());
+            assertEquals(0, result.y());
+            assertArrayEquals(pixels, result.pixels());
+        }
+    }
+
+    @Test
+    void testQuarterTurnMatchesTheRotationKernel() {
+        int width = 150, height = 90;
+        int[] pixels = TestImages.createPixels(width, height, false);
+        int[] expected = CanvasRotator.rotatePixelsRight(pixels, width, height);
+
+        // A clockwise quarter turn that moves the image back to the origin
+        AffineTransform matrix = AffineTransform.getTranslateInstance(height, 0);
+        matrix.quadrantRotate(1);
+        for (AffineTransformer.Quality quality : AffineTransformer.Quality.values()) {
+            AffineTransformer.Result result = AffineTransformer.transform(pixels, width, height, matrix, quality);
+            assertEquals(height, result.width());
+            assertEquals(width, result.height());
+            assertArrayEquals(expected, result.pixels());
+        }
+    }
+
+    @Test
+    void testScalingUpAFlatImageKeepsItsColor() {
+        int[] pixels = new int[16 * 16];
+        java.util.Arrays.fill(pixels, 0xFF336699);
+        AffineTransformer.Result result = AffineTransformer.transform(pixels, 16, 16,
+                AffineTransform.getScaleInstance(3, 3), AffineTransformer.Quality.BICUBIC);
+        assertEquals(48, result.width());
+        assertEquals(48, result.height());
+
+        // Away from the edges, which fade into the transparent surroundings
+        for (int y = 4; y < 44; y++) {
+            for (int x = 4; x < 44; x++) {
+                assertEquals(0xFF336699, result.pixels()[y * 48 + x]);
+            }
+        }
+    }
+
+    @Test
+    void testRotationEnlargesTheBoundsAndLeavesCornersTransparent() {
+        int[] pixels = TestImages.createPixels(100, 100, false);
+        AffineTransform matrix = AffineTransform.getRotateInstance(Math.PI / 4, 50, 50);
+        AffineTransformer.Result result = AffineTransformer.transform(pixels, 100, 100, matrix, AffineTransformer.Quality.BILINEAR);
+        assertTrue(result.width() >= 141 && result.width() <= 143);
+        assertEquals(result.width(), result.height());
+        assertTrue(result.x() < 0 && result.y() < 0);
+        assertEquals(0, result.pixels()[0]);
+        assertEquals(0xFF, result.pixels()[result.height() / 2 * result.width() + result.width() / 2] >>> 24);
+    }
+
+    @Test
+    void testSingularTransformIsRejected() {
+        int[] pixels = TestImages.createPixels(10, 10, false);
+        assertThrows(IllegalArgumentException.class, () -> AffineTransformer.transform(pixels, 10, 10,
+                AffineTransform.getScaleInstance(0, 1), AffineTransformer.Quality.NEAREST));
+    }
+
+    @Test
+    void testPreviewRendersAShrunkCopy() {
+        int[] pixels = TestImages.createPixels(2000, 1000, false);
+        AffineTransformer.Preview preview = new AffineTransformer.Preview(pixels, 2000, 1000, 20000);
+        assertTrue(preview.getScale() < 0.11);
+
+        AffineTransformer.Result result = preview.render(AffineTransform.getQuadrantRotateInstance(1));
+        assertTrue((long) result.width() * result.height() <= 20000);
+        assertEquals(1000, result.width() / preview.getScale(), 20);
+        assertEquals(2000, result.height() / preview.getScale(), 20);
+        assertEquals(-1000, result.x() / preview.getScale(), 20);
+    }
+}
@@ -0,0 +1,247 @@
+package org.example.paintfx;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CanvasOpsServerTest {
+
+    private CanvasOpsServer server;
+
+    @BeforeEach
+    void setUp() {
+        try {
+            Platform.startup(() -> {
+                // The tools need the toolkit, but nothing is drawn
+            });
+        } catch (IllegalStateException e) {
+            // Toolkit already started by an earlier test
+        }
+        server = new CanvasOpsServer(new Canvas(100, 100), null, new Logger(), 8);
+    }
+
+    private static Object parse(String json) {
+        return new CanvasOpsServer.JsonParser(json).parseDocument();
+    }
+
+    @Test
+    public void testParsesBatches() {
+        Object root = parse(" {\"ops\": [{\"type\": \"rect\", \"x1\": 1.5, \"y1\": -2e1, \"dashes\": [], \"on\": true, \"off\": null}]} ");
+        List<?> ops = (List<?>) ((Map<?, ?>) root).get("ops");
+        Map<?, ?> op = (Map<?, ?>) ops.get(0);
+        assertEquals("rect", op.get("type"));
+        assertEquals(1.5, op.get("x1"));
+        assertEquals(-20.0, op.get("y1"));
+        assertEquals(List.of(), op.get("dashes"));
+        assertEquals(Boolean.TRUE, op.get("on"));
+        assertNull(op.get("off"));
+    }
+
+    @Test
+    public void testUnescapesStrings() {
+        assertEquals("a\"b\\c\ndé/", parse("\"a\\\"b\\\\c\\nd\\u00e9\\/\""));
+    }
+
+    @Test
+    public void testRejectsMalformedJson() {
+        for (String json : new String[]{"", "[1,", "{\"a\" 1}", "[1] 2", "\"open", "[01x]", "{1: 2}", "\"\\u+041\"",
+                "\"\\u-001\"", "\"\\u12\"", "[" .repeat(100)}) {
+            assertThrows(IllegalArgumentException.class, () -> parse(json), json);
+        }
+    }
+
+    @Test
+    public void testParsesBinaryBatches() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(2);  // Polygon
+        writeFloats(out, 10, 20, 30, 40);
+        out.writeInt(0x80FF0000);
+        out.writeInt(0xFF000000);
+        out.writeFloat(3);
+        out.write(6);
+        out.write(4);  // Line
+        out.writeInt(0xFF0000FF);
+        out.writeFloat(2);
+        out.writeShort(2);
+        writeFloats(out, 1, 2, 3, 4);
+        out.write(5);  // Text
+        writeFloats(out, 5, 60);
+        out.writeInt(0xFF00FF00);
+        out.writeInt(0);
+        out.writeFloat(1);
+        out.writeFloat(24);
+        out.writeUTF("Hé");
+
+        List<DrawOperation> operations = server.parseBinary(bytes.toByteArray());
+        assertEquals(3, operations.size());
+
+        DrawOperation polygon = operations.get(0);
+        assertInstanceOf(PolygonTool.class, polygon.getTool());
+        assertEquals(6, polygon.getVertexCount());
+        assertEquals(30, polygon.getEndX());
+        assertEquals(3, polygon.getBorderWidth());
+        assertEquals(Color.rgb(255, 0, 0, 0x80 / 255.0), polygon.getFillColor());
+
+        DrawOperation line = operations.get(1);
+        assertNull(line.getTool());
+        assertArrayEquals(new double[]{1, 2, 3, 4}, line.getPoints());
+
+        DrawOperation text = operations.get(2);
+        assertInstanceOf(TextTool.class, text.getTool());
+        assertEquals("Hé", text.getText());
+        assertEquals(24, text.getFontSize());
+        assertEquals(60, text.getStartY());
+    }
+
+    @Test
+    public void testRejectsTruncatedBinary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(0);  // Rectangle
+        writeFloats(out, 0, 0, 10, 10);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeFloat(1);
+        out.write(5);  // Text
+        writeFloats(out, 5, 5);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeFloat(1);
+        out.writeFloat(12);
+        out.writeUTF("text");
+        byte[] batch = bytes.toByteArray();
+        int rectangleLength = 1 + 4 * 4 + 4 + 4 + 4;
+        assertEquals(2, server.parseBinary(batch).size());
+
+        // Cut anywhere but between the operations, the batch names the operation that is incomplete
+        for (int length = 1; length < batch.length; length++) {
+            if (length == rectangleLength) {
+                continue;
+            }
+            byte[] truncated = Arrays.copyOf(batch, length);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> server.parseBinary(truncated));
+            assertEquals("Operation " + (length < rectangleLength ? 0 : 1) + " is cut off", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidBinaryOperations() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> server.parseBinary(new byte[]{9}));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(4);  // Line without points
+        out.writeInt(0);
+        out.writeFloat(1);
+        out.writeShort(0);
+        assertThrows(IllegalArgumentException.class, () -> server.parseBinary(bytes.toByteArray()));
+
+        bytes.reset();
+        out.write(3);  // Star with a single point
+        writeFloats(out, 0, 0, 10, 10);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeFloat(1);
+        out.write(1);
+        assertThrows(IllegalArgumentException.class, () -> server.parseBinary(bytes.toByteArray()));
+
+        bytes.reset();
+        out.write(0);  // Rectangle with an infinite corner
+        writeFloats(out, 0, 0, Float.POSITIVE_INFINITY, 10);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeFloat(1);
+        assertThrows(IllegalArgumentException.class, () -> server.parseBinary(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testConvertsJsonOperations() {
+        List<DrawOperation> operations = server.parseJson("{\"ops\": ["
+                + "{\"type\": \"star\", \"x1\": 0, \"y1\": 0, \"x2\": 10, \"y2\": 10, \"points\": 7, \"dashes\": [2, 1]},"
+                + "{\"type\": \"line\", \"points\": [0, 0, 5, 5, 10, 0], \"borderWidth\": 4},"
+                + "{\"type\": \"text\", \"x\": 1, \"y\": 2, \"text\": \"Hi\"}]}");
+        assertEquals(7, operations.get(0).getVertexCount());
+        assertArrayEquals(new double[]{2, 1}, operations.get(0).getLineDashes());
+        assertEquals(1, operations.get(0).getBorderWidth());
+        assertArrayEquals(new double[]{0, 0, 5, 5, 10, 0}, operations.get(1).getPoints());
+        assertEquals(4, operations.get(1).getBorderWidth());
+        assertEquals(50, operations.get(2).getFontSize());
+    }
+
+    @Test
+    public void testRejectsInvalidJsonOperations() {
+        String rect = "\"type\": \"rect\", \"x1\": 0, \"y1\": 0, \"x2\": 10, \"y2\": 10";
+        String[] invalid = {
+                "{\"type\": \"polygon\", \"x1\": 0, \"y1\": 0, \"x2\": 10, \"y2\": 10, \"sides\": 2}",
+                "{\"type\": \"polygon\", \"x1\": 0, \"y1\": 0, \"x2\": 10, \"y2\": 10, \"sides\": 4.5}",
+                "{\"type\": \"star\", \"x1\": 0, \"y1\": 0, \"x2\": 10, \"y2\": 10, \"points\": 256}",
+                "{" + rect + ", \"borderWidth\": -1}",
+                "{" + rect + ", \"borderWidth\": 1001}",
+                "{" + rect + ", \"fill\": \"not a color\"}",
+                "{" + rect + ", \"dashes\": [-1]}",
+                "{\"type\": \"rect\", \"x1\": 0, \"y1\": 0, \"x2\": 10}",
+                "{\"type\": \"line\", \"points\": [0, 0, 5]}",
+                "{\"type\": \"line\", \"points\": [0]}",
+                "{\"type\": \"text\", \"x\": 0, \"y\": 0, \"text\": \"a\", \"size\": 0}",
+                "{\"type\": \"text\", \"x\": 0, \"y\": 0, \"text\": \"a\", \"size\": 1001}",
+                "{\"type\": \"text\", \"x\": 0, \"y\": 0}",
+                "{\"type\": \"circle\"}",
+                "{}",
+                "1",
+        };
+        for (String op : invalid) {
+            // The operation's index leads the reason
+            String json = "[{" + rect + "}, " + op + "]";
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> server.parseJson(json), op);
+            assertTrue(e.getMessage().startsWith("Operation 1"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLimitsOperationsPerBatch() throws IOException {
+        String op = "{\"type\": \"line\", \"points\": [0, 0]}";
+        String json = "[" + (op + ",").repeat(CanvasOpsServer.MAX_OPERATIONS) + op + "]";
+        assertThrows(IllegalArgumentException.class, () -> server.parseJson(json));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < CanvasOpsServer.MAX_OPERATIONS; i++) {
+            out.write(4);
+            out.writeInt(0);
+            out.writeFloat(1);
+            out.writeShort(1);
+            writeFloats(out, i, i);
+        }
+        assertEquals(CanvasOpsServer.MAX_OPERATIONS, server.parseBinary(bytes.toByteArray()).size());
+
+        out.write(4);
+        out.writeInt(0);
+        out.writeFloat(1);
+        out.writeShort(1);
+        writeFloats(out, 0, 0);
+        assertThrows(IllegalArgumentException.class, () -> server.parseBinary(bytes.toByteArray()));
+    }
+
+    private static void writeFloats(DataOutputStream out, float... values) throws IOException {
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.paintfx;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class CanvasRotatorTest {
+
+    // Sizes below, at and across band and stripe boundaries, including single rows and columns
+    private static final int[][] SIZES = {{1, 1}, {1, 7}, {7, 1}, {63, 65}, {64, 64}, {130, 3}, {301, 517}, {1200, 900}};
+
+    @Test
+    void testRotateRightMatchesPixelByPixel() {
+        for (int[] size : SIZES) {
+            int width = size[0], height = size[1];
+            int[] pixels = TestImages.createPixels(width, height, true);
+            int[] expected = new int[pixels.length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    expected[x * height + height - 1 - y] = pixels[y * width + x];
+                }
+            }
+            assertArrayEquals(expected, CanvasRotator.rotatePixelsRight(pixels, width, height));
+        }
+    }
+
+    @Test
+    void testRotateLeftMatchesPixelByPixel() {
+        for (int[] size : SIZES) {
+            int width = size[0], height = size[1];
+            int[] pixels = TestImages.createPixels(width, height, true);
+            int[] expected = new int[pixels.length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    expected[(width - 1 - x) * height + y] = pixels[y * width + x];
+                }
+            }
+            assertArrayEquals(expected, CanvasRotator.rotatePixelsLeft(pixels, width, height));
+        }
+    }
+
+    @Test
+    void testMirrorsMatchPixelByPixel() {
+        for (int[] size : SIZES) {
+            int width = size[0], height = size[1];
+            int[] pixels = TestImages.createPixels(width, height, true);
+            int[] horizontal = new int[pixels.length];
+            int[] vertical = new int[pixels.length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    horizontal[y * width + width - 1 - x] = pixels[y * width + x];
+                    vertical[(height - 1 - y) * width + x] = pixels[y * width + x];
+                }
+            }
+            assertArrayEquals(horizontal, CanvasRotator.mirrorPixelsHorizontally(pixels, width, height));
+            assertArrayEquals(vertical, CanvasRotator.mirrorPixelsVertically(pixels, width, height));
+        }
+    }
+
+    @Test
+    void testFourRotationsRestoreTheImage() {
+        int width = 301, height = 517;
+        int[] pixels = TestImages.createPixels(width, height, true);
+        int[] rotated = CanvasRotator.rotatePixelsRight(pixels, width, height);
+        rotated = CanvasRotator.rotatePixelsRight(rotated, height, width);
+        rotated = CanvasRotator.rotatePixelsRight(rotated, width, height);
+        rotated = CanvasRotator.rotatePixelsRight(rotated, height, width);
+        assertArrayEquals(pixels, rotated);
+        assertArrayEquals(pixels, CanvasRotator.rotatePixelsLeft(CanvasRotator.rotatePixelsRight(pixels, width, height), height, width));
+    }
+}
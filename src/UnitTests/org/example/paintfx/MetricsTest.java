@@ -0,0 +1,47 @@
+package org.example.paintfx;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @Test
+    public void testHistogramBucketsAreCumulative() {
+        Metrics.Histogram histogram = Metrics.timer("test_histogram_seconds", "A test histogram.", "endpoint", "/test");
+        histogram.observe(1_000_000);       // Exactly on the 1 ms bound
+        histogram.observe(3_000_000);
+        histogram.observe(20_000_000_000L); // Above every bound
+
+        String text = Metrics.scrape();
+        assertTrue(text.contains("# TYPE test_histogram_seconds histogram\n"));
+        assertTrue(text.contains("test_histogram_seconds_bucket{endpoint=\"/test\",le=\"0.001\"} 1\n"));
+        assertTrue(text.contains("test_histogram_seconds_bucket{endpoint=\"/test\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("test_histogram_seconds_bucket{endpoint=\"/test\",le=\"0.005\"} 2\n"));
+        assertTrue(text.contains("test_histogram_seconds_bucket{endpoint=\"/test\",le=\"10\"} 2\n"));
+        assertTrue(text.contains("test_histogram_seconds_bucket{endpoint=\"/test\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("test_histogram_seconds_sum{endpoint=\"/test\"} 20.004\n"));
+        assertTrue(text.contains("test_histogram_seconds_count{endpoint=\"/test\"} 3\n"));
+    }
+
+    @Test
+    public void testCountersAreSharedByLabels() {
+        Metrics.Counter counter = Metrics.counter("test_requests_total", "A test counter.", "path", "a\"b");
+        assertSame(counter, Metrics.counter("test_requests_total", "A test counter.", "path", "a\"b"));
+        counter.add(2);
+        counter.increment();
+        assertEquals(3, counter.get());
+        assertTrue(Metrics.scrape().contains("test_requests_total{path=\"a\\\"b\"} 3\n"));
+    }
+
+    @Test
+    public void testRemovedGaugesAreNotWritten() {
+        Metrics.gauge("test_gauge_bytes", "A test gauge.", () -> 1.5, "tab", "1");
+        assertTrue(Metrics.scrape().contains("test_gauge_bytes{tab=\"1\"} 1.5\n"));
+        Metrics.remove("test_gauge_bytes", "tab", "1");
+        assertFalse(Metrics.scrape().contains("test_gauge_bytes"));
+    }
+}
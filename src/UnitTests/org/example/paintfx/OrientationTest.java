@@ -0,0 +1,76 @@
+package org.example.paintfx;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrientationTest {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 4;
+
+    private static int widthAfter(Orientation orientation) {
+        return orientation.swapsDimensions() ? HEIGHT : WIDTH;
+    }
+
+    @Test
+    void testComposingMatchesApplyingOneAfterTheOther() {
+        int[] pixels = TestImages.createPixels(WIDTH, HEIGHT, true, 42);
+        for (Orientation first : Orientation.values()) {
+            int[] once = first.apply(pixels, WIDTH, HEIGHT);
+            int width = widthAfter(first);
+            int height = WIDTH * HEIGHT / width;
+            for (Orientation second : Orientation.values()) {
+                int[] twice = second.apply(once, width, height);
+                assertArrayEquals(twice, first.then(second).apply(pixels, WIDTH, HEIGHT),
+                        first + " then " + second + " gave " + first.then(second));
+            }
+        }
+    }
+
+    @Test
+    void testFourRotationsLeaveNothingPending() {
+        Orientation orientation = Orientation.IDENTITY;
+        for (int i = 0; i < 4; i++) {
+            orientation = orientation.then(Orientation.ROTATE_RIGHT);
+        }
+        assertSame(Orientation.IDENTITY, orientation);
+        assertSame(Orientation.IDENTITY, Orientation.MIRROR_VERTICAL.then(Orientation.MIRROR_VERTICAL));
+        assertSame(Orientation.ROTATE_180, Orientation.MIRROR_HORIZONTAL.then(Orientation.MIRROR_VERTICAL));
+        assertSame(Orientation.IDENTITY, Orientation.ROTATE_LEFT.then(Orientation.ROTATE_RIGHT));
+    }
+
+    @Test
+    void testDisplayTransformMatchesThePixels() {
+        int[] pixels = TestImages.createPixels(WIDTH, HEIGHT, true, 42);
+        for (Orientation orientation : Orientation.values()) {
+            int[] moved = orientation.apply(pixels, WIDTH, HEIGHT);
+            int width = widthAfter(orientation);
+            AffineTransform transform = orientation.toTransform(WIDTH, HEIGHT);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    // Follow the center of each pixel
+                    Point2D center = transform.transform(new Point2D.Double(x + 0.5, y + 0.5), null);
+                    int targetX = (int) Math.floor(center.getX());
+                    int targetY = (int) Math.floor(center.getY());
+                    assertEquals(pixels[y * WIDTH + x], moved[targetY * width + targetX]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testOnlyOddTurnsSwapDimensions() {
+        assertFalse(Orientation.IDENTITY.swapsDimensions());
+        assertTrue(Orientation.ROTATE_RIGHT.swapsDimensions());
+        assertFalse(Orientation.MIRROR_VERTICAL.swapsDimensions());
+        assertTrue(Orientation.TRANSPOSE.swapsDimensions());
+    }
+}
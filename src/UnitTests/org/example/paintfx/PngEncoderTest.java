@@ -0,0 +1,104 @@
+package org.example.paintfx;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class PngEncoderTest {
+
+    private static int[] decode(byte[] png, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image, "ImageIO could not read the PNG");
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    @Test
+    public void testRoundTripThroughImageIO() throws IOException {
+        int[][] sizes = {{1, 1}, {7, 3}, {100, 57}, {333, 400}};
+        for (int[] size : sizes) {
+            for (int level : new int[]{0, 1, 6, 9}) {
+                for (boolean alpha : new boolean[]{false, true}) {
+                    int[] pixels = TestImages.createDrawing(size[0], size[1], alpha, level);  // Every filter type gets picked
+                    byte[] png = new PngEncoder(level).encode(pixels, size[0], size[1]);
+                    assertArrayEquals(pixels, decode(png, size[0], size[1]),
+                            size[0] + "x" + size[1] + " at level " + level + (alpha ? " with alpha" : ""));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripWithManyStripes() throws IOException {
+        // One and five rows per stripe, so every stripe boundary and the row filters across them are exercised
+        for (int stripeRows : new int[]{1, 5}) {
+            int[] pixels = TestImages.createDrawing(64, 97, true, stripeRows);
+            byte[] png = new PngEncoder(6, ForkJoinPool.commonPool(), stripeRows).encode(pixels, 64, 97);
+            assertArrayEquals(pixels, decode(png, 64, 97), stripeRows + " rows per stripe");
+        }
+    }
+
+    @Test
+    public void testEncodesBufferedImages() throws IOException {
+        int[] pixels = TestImages.createDrawing(50, 40, false, 1);
+        BufferedImage image = new BufferedImage(50, 40, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 50, 40, pixels, 0, 50);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngEncoder(1).encode(image, out);
+        assertArrayEquals(pixels, decode(out.toByteArray(), 50, 40));
+    }
+
+    @Test
+    public void testIncrementalEncodingReusesUnchangedStripes() throws IOException {
+        PngEncoder encoder = new PngEncoder(6, ForkJoinPool.commonPool(), 10);
+        IncrementalPngEncoder incremental = new IncrementalPngEncoder(encoder);
+        int[] pixels = TestImages.createDrawing(80, 100, false, 3);
+        incremental.encode(pixels, 80, 100);
+        assertEquals(10, incremental.getEncodedStripes());
+
+        // An edit inside stripe 4 leaves the other nine as they were
+        pixels[45 * 80 + 10] = 0xFF123456;
+        byte[] png = incremental.encode(pixels, 80, 100);
+        assertEquals(1, incremental.getEncodedStripes());
+        assertEquals(9, incremental.getReusedStripes());
+        assertArrayEquals(pixels, decode(png, 80, 100));
+
+        // Stitched from reused stripes, the file is exactly what a full encode produces
+        assertArrayEquals(encoder.encode(pixels, 80, 100), png);
+
+        pixels[49 * 80] = 0xFF654321;  // The last row of stripe 4 is read by the filters of stripe 5
+        png = incremental.encode(pixels, 80, 100);
+        assertEquals(2, incremental.getEncodedStripes());
+        assertArrayEquals(pixels, decode(png, 80, 100));
+    }
+
+    @Test
+    public void testCombinedAdlerMatchesWholeStream() {
+        byte[] data = new byte[200000];
+        new Random(7).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+
+        long combined = 1;
+        for (int start = 0; start < data.length; start += 70001) {
+            int length = Math.min(70001, data.length - start);
+            Adler32 part = new Adler32();
+            part.update(data, start, length);
+            combined = PngEncoder.combineAdler(combined, part.getValue(), length);
+        }
+        assertEquals(whole.getValue(), combined);
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.paintfx;
+
+import java.util.Random;
+
+/**
+ * Creates the packed ARGB images the pixel kernel tests work on. Every image is random but
+ * reproducible, so a failing test fails the same way every time.
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Creates an image of random pixels, seeded by its size.
+     *
+     * @param alpha Whether the pixels have random alpha; otherwise they are opaque.
+     */
+    static int[] createPixels(int width, int height, boolean alpha) {
+        return createPixels(width, height, alpha, width * 31L + height);
+    }
+
+    /**
+     * Creates an image of random pixels.
+     *
+     * @param alpha Whether the pixels have random alpha; otherwise they are opaque.
+     */
+    static int[] createPixels(int width, int height, boolean alpha, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = alpha ? random.nextInt() : random.nextInt() | 0xFF000000;
+        }
+        return pixels;
+    }
+
+    /**
+     * Creates an image that compresses like a drawing: random pixels mixed with runs of white and
+     * repeats of the pixel before.
+     *
+     * @param alpha Whether the random pixels have random alpha; otherwise they are opaque.
+     */
+    static int[] createDrawing(int width, int height, boolean alpha, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> pixels[i] = i > 0 ? pixels[i - 1] : 0xFFFFFFFF;
+                case 1 -> pixels[i] = 0xFFFFFFFF;
+                default -> pixels[i] = alpha ? random.nextInt() : random.nextInt() | 0xFF000000;
+            }
+        }
+        return pixels;
+    }
+}
@@ -3,8 +3,10 @@ package org.example.paintfx;
 import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
 import org.junit.Before;
 import org.junit.Test;
+import java.io.File;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -15,7 +17,7 @@ public class UndoRedoTest {
     private Canvas canvas;
     private GraphicsContext gc;
     private UndoRedo undoRedoManager;
-    private Logger logger;
+    private Logger logger = new Logger();
 
     @Before
     public void setUp() throws Exception {
@@ -23,9 +25,13 @@ public class UndoRedoTest {
         CountDownLatch latch = new CountDownLatch(1);
 
         // Initialize the JavaFX toolkit if it's not already started
-        Platform.startup(() -> {
-            // Do nothing, just initialize the JavaFX toolkit
-        });
+        try {
+            Platform.startup(() -> {
+                // Do nothing, just initialize the JavaFX toolkit
+            });
+        } catch (IllegalStateException e) {
+            // Toolkit already started by an earlier test
+        }
 
         Platform.runLater(() -> {
             canvas = new Canvas(200, 200);
@@ -59,4 +65,145 @@ public class UndoRedoTest {
         // Wait for the JavaFX thread to finish
         latch.await(5, TimeUnit.SECONDS);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUndoRedoRestoresChangedTiles() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        final int[] argb = new int[3];
+
+        Platform.runLater(() -> {
+            gc.setFill(Color.WHITE);
+            gc.fillRect(0, 0, 200, 200);
+            undoRedoManager.pushToUndoStack();
+
+            // Draw in a single tile, reporting it like the drawing tools do, then undo and redo it
+            gc.setFill(Color.RED);
+            gc.fillRect(10, 10, 20, 20);
+            DirtyTileTracker.of(canvas).markDirty(10, 10, 20, 20);
+            argb[0] = canvas.snapshot(null, null).getPixelReader().getArgb(15, 15);
+
+            undoRedoManager.undo();
+            argb[1] = canvas.snapshot(null, null).getPixelReader().getArgb(15, 15);
+
+            undoRedoManager.redo();
+            argb[2] = canvas.snapshot(null, null).getPixelReader().getArgb(15, 15);
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0xFFFF0000, argb[0]);
+        assertEquals(0xFFFFFFFF, argb[1]);
+        assertEquals(0xFFFF0000, argb[2]);
+        assertEquals(1, undoRedoManager.getUndoStack().peek().getTileIndices().length);
+    }
+
+    @Test
+    public void testCommandLogReplaysOperations() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        final int[] argb = new int[4];
+
+        Platform.runLater(() -> {
+            undoRedoManager.setCommandLogMode(2);
+            gc.setFill(Color.WHITE);
+            gc.fillRect(0, 0, 200, 200);
+
+            // Draw three recorded strokes, one row each, pushing before every stroke like the canvas handlers
+            for (int i = 0; i < 3; i++) {
+                undoRedoManager.pushToUndoStack();
+                DrawOperation stroke = DrawOperation.stroke(new double[]{10, 20 + i * 40, 190, 20 + i * 40}, Color.RED, 10, null);
+                stroke.replay(gc);
+                undoRedoManager.recordOperation(stroke);
+            }
+
+            // Undo twice, which replays the first stroke on top of a keyframe, then redo once
+            undoRedoManager.undo();
+            undoRedoManager.undo();
+            argb[0] = canvas.snapshot(null, null).getPixelReader().getArgb(100, 20);
+            argb[1] = canvas.snapshot(null, null).getPixelReader().getArgb(100, 60);
+            undoRedoManager.redo();
+            argb[2] = canvas.snapshot(null, null).getPixelReader().getArgb(100, 60);
+            argb[3] = canvas.snapshot(null, null).getPixelReader().getArgb(100, 100);
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0xFFFF0000, argb[0]);
+        assertEquals(0xFFFFFFFF, argb[1]);
+        assertEquals(0xFFFF0000, argb[2]);
+        assertEquals(0xFFFFFFFF, argb[3]);
+        assertTrue(undoRedoManager.isCommandLogMode());
+    }
+
+    @Test
+    public void testJournalRecoversCanvasAndHistory() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        final int[] argb = new int[3];
+        File file = File.createTempFile("undo", ".journal");
+        file.deleteOnExit();
+
+        Platform.runLater(() -> {
+            try {
+                undoRedoManager.setJournal(new UndoJournal(file));
+                gc.setFill(Color.WHITE);
+                gc.fillRect(0, 0, 200, 200);
+                undoRedoManager.pushToUndoStack();
+                gc.setFill(Color.RED);
+                gc.fillRect(10, 10, 20, 20);
+                DirtyTileTracker.of(canvas).markDirty(10, 10, 20, 20);
+                undoRedoManager.pushToUndoStack();
+
+                // Close without deleting, as if the session had ended here, then recover onto a blank canvas
+                undoRedoManager.getJournal().close(false);
+                Canvas recovered = new Canvas(200, 200);
+                UndoRedo recoveredUndoRedo = new UndoRedo(recovered, logger, recovered.getGraphicsContext2D());
+                recoveredUndoRedo.recover(new UndoJournal(file));
+                argb[0] = recovered.snapshot(null, null).getPixelReader().getArgb(15, 15);
+                // The second push stored the red square itself, so it takes two undos to get back to white
+                recoveredUndoRedo.undo();
+                recoveredUndoRedo.undo();
+                argb[1] = recovered.snapshot(null, null).getPixelReader().getArgb(15, 15);
+                recoveredUndoRedo.redo();
+                recoveredUndoRedo.redo();
+                argb[2] = recovered.snapshot(null, null).getPixelReader().getArgb(15, 15);
+                recoveredUndoRedo.dispose();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0xFFFF0000, argb[0]);
+        assertEquals(0xFFFFFFFF, argb[1]);
+        assertEquals(0xFFFF0000, argb[2]);
+    }
+
+    @Test
+    public void testSharedBudgetStoresIdenticalTilesOnce() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        final long[] bytes = new long[2];
+
+        Platform.runLater(() -> {
+            // Two tabs sharing a budget, both resized from the same white canvas
+            UndoMemoryBudget budget = new UndoMemoryBudget(Long.MAX_VALUE);
+            for (int i = 0; i < 2; i++) {
+                Canvas tab = new Canvas(256, 256);
+                GraphicsContext tabGc = tab.getGraphicsContext2D();
+                tabGc.setFill(Color.WHITE);
+                tabGc.fillRect(0, 0, 256, 256);
+                UndoRedo tabUndoRedo = new UndoRedo(tab, logger, tabGc, budget);
+                tabUndoRedo.pushToUndoStack();
+                tab.setWidth(128);
+                tabUndoRedo.pushToUndoStack();
+            }
+            bytes[0] = budget.getTileStore().getStoredBytes();
+            bytes[1] = budget.getTileStore().getReferencedBytes();
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // Each history holds all 16 tiles of the 256x256 white state, which are stored as one tile
+        assertEquals(2 * 256 * 256 * 4, bytes[1]);
+        assertEquals(64 * 64 * 4, bytes[0]);
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.paintfx;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UndoSpillStoreTest {
+
+    private UndoSpillStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new UndoSpillStore(1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private static ByteBuffer record(int length, int value) {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            data.put((byte) value);
+        }
+        data.flip();
+        return data;
+    }
+
+    @Test
+    void testReleasedSpaceIsReused() throws IOException {
+        long first = store.write(record(100, 1));
+        long second = store.write(record(100, 2));
+        store.release(first, 100);
+
+        // A smaller record goes into the released extent, and the next one into what is left of it
+        assertEquals(first, store.write(record(60, 3)));
+        assertEquals(first + 60, store.write(record(40, 4)));
+        assertEquals(200, store.getFileSize());
+        assertEquals(2, store.read(second, 100).get(0));
+        assertEquals(4, store.read(first + 60, 40).get(0));
+    }
+
+    @Test
+    void testInterleavedReleasesKeepTheFileBounded() throws IOException {
+        long[] offsets = new long[5];
+        for (int round = 0; round < 100; round++) {
+            // Keep every other record live while the rest come and go
+            for (int i = 0; i < offsets.length; i++) {
+                if (round == 0 || i % 2 == 1) {
+                    offsets[i] = store.write(record(100, i));
+                }
+            }
+            for (int i = 1; i < offsets.length; i += 2) {
+                store.release(offsets[i], 100);
+            }
+        }
+        assertTrue(store.getFileSize() <= 500, "File grew to " + store.getFileSize());
+        assertEquals(300, store.getLiveBytes());
+    }
+
+    @Test
+    void testReleasingTheEndTruncatesTheFile() throws IOException {
+        long first = store.write(record(100, 1));
+        long second = store.write(record(100, 2));
+        long third = store.write(record(100, 3));
+        store.release(second, 100);
+        assertEquals(300, store.getFileSize());
+
+        // The last record merges with the released one before it, and both are cut off
+        store.release(third, 100);
+        assertEquals(100, store.getFileSize());
+        store.release(first, 100);
+        assertEquals(0, store.getFileSize());
+    }
+
+    @Test
+    void testFileLengthIsLimited() throws IOException {
+        long first = store.write(record(600, 1));
+        assertEquals(-1, store.write(record(600, 2)));
+        assertEquals(600, store.getFileSize());
+
+        store.release(first, 600);
+        assertTrue(store.write(record(600, 2)) >= 0);
+    }
+}
@@ -0,0 +1,308 @@
+package org.example.paintfx;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * The {@code AffineTransformer} class applies an arbitrary affine transform, such as a free
+ * rotation, a scale or a shear, to packed ARGB images.
+ *
+ * <p>The result is computed by inverse mapping: the center of every target pixel is mapped back
+ * through the inverse transform into the source, which is sampled there with the chosen
+ * {@link Quality}. Every target pixel is written exactly once, so there are no holes, and stripes
+ * of target rows are computed in parallel. Bilinear and bicubic sampling interpolate
+ * premultiplied colors, so transparent pixels do not bleed their color into the edges, and treat
+ * everything outside the source as transparent, which smooths the edges of the result as well.
+ *
+ * <p>{@link Preview} renders the same transform cheaply for interactive dragging: nearest
+ * sampling of a downscaled copy of the source.
+ */
+public final class AffineTransformer {
+
+    /** The largest result, in pixels, that will be allocated. */
+    private static final long MAX_PIXELS = 1L << 28;
+
+    /**
+     * How the source is sampled between its pixel centers.
+     */
+    public enum Quality {
+        /** The pixel the point falls in; fast and blocky. */
+        NEAREST("Nearest"),
+        /** A weighted average of the four nearest pixels. */
+        BILINEAR("Bilinear"),
+        /** A Catmull-Rom spline through the sixteen nearest pixels; the sharpest. */
+        BICUBIC("Bicubic");
+
+        private final String label;
+
+        Quality(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * A transformed image.
+     *
+     * @param pixels The pixels, row by row; transparent where nothing of the source lands.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param x      Where the left edge of the image lies in the coordinates of the source.
+     * @param y      Where the top edge of the image lies in the coordinates of the source.
+     */
+    public record Result(int[] pixels, int width, int height, int x, int y) {
+    }
+
+    private AffineTransformer() {
+    }
+
+    /**
+     * Transforms an image. The result is just large enough to hold the whole transformed source.
+     *
+     * @param pixels  The source pixels, row by row.
+     * @param width   The width of the source.
+     * @param height  The height of the source.
+     * @param matrix  The transform, from source to target coordinates.
+     * @param quality How the source is sampled.
+     * @return The transformed image.
+     * @throws IllegalArgumentException If the transform cannot be inverted or the result would be too large.
+     */
+    public static Result transform(int[] pixels, int width, int height, AffineTransform matrix, Quality quality) {
+        Rectangle2D bounds = matrix.createTransformedShape(new Rectangle2D.Double(0, 0, width, height)).getBounds2D();
+        int left = (int) Math.floor(bounds.getMinX());
+        int top = (int) Math.floor(bounds.getMinY());
+        int newWidth = Math.max(1, (int) Math.ceil(bounds.getMaxX()) - left);
+        int newHeight = Math.max(1, (int) Math.ceil(bounds.getMaxY()) - top);
+        if ((long) newWidth * newHeight > MAX_PIXELS) {
+            throw new IllegalArgumentException("The transformed image would be " + newWidth + "x" + newHeight + " pixels");
+        }
+
+        int[] result = new int[newWidth * newHeight];
+        transform(pixels, width, height, matrix, quality, result, left, top, newWidth, newHeight);
+        return new Result(result, newWidth, newHeight, left, top);
+    }
+
+    /**
+     * Transforms an image into a given window of the target coordinates.
+     *
+     * @param pixels    The source pixels, row by row.
+     * @param width     The width of the source.
+     * @param height    The height of the source.
+     * @param matrix    The transform, from source to target coordinates.
+     * @param quality   How the source is sampled.
+     * @param target    Receives the pixels of the window, row by row.
+     * @param left      The left edge of the window in target coordinates.
+     * @param top       The top edge of the window in target coordinates.
+     * @param newWidth  The width of the window.
+     * @param newHeight The height of the window.
+     * @throws IllegalArgumentException If the transform cannot be inverted.
+     */
+    static void transform(int[] pixels, int width, int height, AffineTransform matrix, Quality quality,
+                          int[] target, int left, int top, int newWidth, int newHeight) {
+        double[] inverse = new double[6];
+        try {
+            // m00, m10, m01, m11, m02, m12
+            matrix.createInverse().getMatrix(inverse);
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalArgumentException("The transform cannot be inverted", e);
+        }
+
+        int[] source = quality == Quality.NEAREST ? pixels : premultiply(pixels);
+        RowStripes.forEach(newWidth, newHeight, (first, bottom) -> {
+            double[] weights = new double[8];
+            for (int y = first; y < bottom; y++) {
+                // The center of the first pixel of the row, mapped into the source, minus the
+                // half pixel that puts the source pixel centers on whole numbers
+                double targetX = left + 0.5;
+                double targetY = top + y + 0.5;
+                double sourceX = inverse[0] * targetX + inverse[2] * targetY + inverse[4] - 0.5;
+                double sourceY = inverse[1] * targetX + inverse[3] * targetY + inverse[5] - 0.5;
+                int offset = y * newWidth;
+                for (int x = 0; x < newWidth; x++) {
+                    target[offset + x] = switch (quality) {
+                        case NEAREST -> nearest(source, width, height, sourceX, sourceY);
+                        case BILINEAR -> bilinear(source, width, height, sourceX, sourceY);
+                        case BICUBIC -> bicubic(source, width, height, sourceX, sourceY, weights);
+                    };
+                    sourceX += inverse[0];
+                    sourceY += inverse[1];
+                }
+            }
+        });
+    }
+
+    private static int nearest(int[] pixels, int width, int height, double x, double y) {
+        int column = (int) Math.floor(x + 0.5);
+        int row = (int) Math.floor(y + 0.5);
+        return column < 0 || row < 0 || column >= width || row >= height ? 0 : pixels[row * width + column];
+    }
+
+    private static int bilinear(int[] pixels, int width, int height, double x, double y) {
+        int column = (int) Math.floor(x);
+        int row = (int) Math.floor(y);
+        if (column < -1 || row < -1 || column >= width || row >= height) {
+            return 0;
+        }
+        int topLeft, topRight, bottomLeft, bottomRight;
+        if (column >= 0 && row >= 0 && column + 1 < width && row + 1 < height) {
+            int offset = row * width + column;
+            topLeft = pixels[offset];
+            topRight = pixels[offset + 1];
+            bottomLeft = pixels[offset + width];
+            bottomRight = pixels[offset + width + 1];
+        } else {
+            topLeft = pixelAt(pixels, width, height, column, row);
+            topRight = pixelAt(pixels, width, height, column + 1, row);
+            bottomLeft = pixelAt(pixels, width, height, column, row + 1);
+            bottomRight = pixelAt(pixels, width, height, column + 1, row + 1);
+        }
+        double fx = x - column;
+        double fy = y - row;
+        double w00 = (1 - fx) * (1 - fy), w10 = fx * (1 - fy), w01 = (1 - fx) * fy, w11 = fx * fy;
+        return unpremultiply(
+                w00 * (topLeft >>> 24) + w10 * (topRight >>> 24) + w01 * (bottomLeft >>> 24) + w11 * (bottomRight >>> 24),
+                w00 * (topLeft >> 16 & 0xFF) + w10 * (topRight >> 16 & 0xFF) + w01 * (bottomLeft >> 16 & 0xFF) + w11 * (bottomRight >> 16 & 0xFF),
+                w00 * (topLeft >> 8 & 0xFF) + w10 * (topRight >> 8 & 0xFF) + w01 * (bottomLeft >> 8 & 0xFF) + w11 * (bottomRight >> 8 & 0xFF),
+                w00 * (topLeft & 0xFF) + w10 * (topRight & 0xFF) + w01 * (bottomLeft & 0xFF) + w11 * (bottomRight & 0xFF));
+    }
+
+    private static int bicubic(int[] pixels, int width, int height, double x, double y, double[] weights) {
+        int column = (int) Math.floor(x);
+        int row = (int) Math.floor(y);
+        if (column < -2 || row < -2 || column > width || row > height) {
+            return 0;
+        }
+        catmullRom(x - column, weights, 0);
+        catmullRom(y - row, weights, 4);
+        boolean inside = column >= 1 && row >= 1 && column + 2 < width && row + 2 < height;
+        double a = 0, r = 0, g = 0, b = 0;
+        for (int j = 0; j < 4; j++) {
+            double rowA = 0, rowR = 0, rowG = 0, rowB = 0;
+            int offset = (row - 1 + j) * width + column - 1;
+            for (int i = 0; i < 4; i++) {
+                int argb = inside ? pixels[offset + i] : pixelAt(pixels, width, height, column - 1 + i, row - 1 + j);
+                double weight = weights[i];
+                rowA += weight * (argb >>> 24);
+                rowR += weight * (argb >> 16 & 0xFF);
+                rowG += weight * (argb >> 8 & 0xFF);
+                rowB += weight * (argb & 0xFF);
+            }
+            double weight = weights[4 + j];
+            a += weight * rowA;
+            r += weight * rowR;
+            g += weight * rowG;
+            b += weight * rowB;
+        }
+        return unpremultiply(a, r, g, b);
+    }
+
+    // Catmull-Rom weights of the four pixels around a point, a fraction t past the second of them
+    private static void catmullRom(double t, double[] weights, int offset) {
+        double t2 = t * t;
+        double t3 = t2 * t;
+        weights[offset] = -0.5 * t3 + t2 - 0.5 * t;
+        weights[offset + 1] = 1.5 * t3 - 2.5 * t2 + 1;
+        weights[offset + 2] = -1.5 * t3 + 2 * t2 + 0.5 * t;
+        weights[offset + 3] = 0.5 * t3 - 0.5 * t2;
+    }
+
+    private static int pixelAt(int[] pixels, int width, int height, int x, int y) {
+        return x < 0 || y < 0 || x >= width || y >= height ? 0 : pixels[y * width + x];
+    }
+
+    private static int[] premultiply(int[] pixels) {
+        int[] premultiplied = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int argb = pixels[i];
+            int a = argb >>> 24;
+            if (a == 0xFF) {
+                premultiplied[i] = argb;
+            } else if (a != 0) {
+                int r = ((argb >> 16 & 0xFF) * a + 127) / 255;
+                int g = ((argb >> 8 & 0xFF) * a + 127) / 255;
+                int b = ((argb & 0xFF) * a + 127) / 255;
+                premultiplied[i] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return premultiplied;
+    }
+
+    // Rounds and clamps interpolated premultiplied channels, which bicubic sampling can overshoot,
+    // and divides the alpha back out
+    private static int unpremultiply(double alpha, double red, double green, double blue) {
+        int a = clamp(alpha, 255);
+        if (a == 0) {
+            return 0;
+        }
+        int r = clamp(red, a);
+        int g = clamp(green, a);
+        int b = clamp(blue, a);
+        if (a < 0xFF) {
+            r = (r * 255 + a / 2) / a;
+            g = (g * 255 + a / 2) / a;
+            b = (b * 255 + a / 2) / a;
+        }
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int clamp(double value, int max) {
+        int rounded = (int) (value + 0.5);
+        return value < 0 ? 0 : Math.min(max, rounded);
+    }
+
+    /**
+     * Renders previews of transforms of one image, from a copy of it shrunk to at most a given
+     * number of pixels and sampled with {@link Quality#NEAREST}. That keeps each preview to a few
+     * milliseconds however large the image, so a preview can follow every step of a drag.
+     */
+    public static final class Preview {
+        private final int[] proxy;
+        private final int proxyWidth;
+        private final int proxyHeight;
+        private final double scale;
+
+        /**
+         * Prepares previews of an image.
+         *
+         * @param pixels    The pixels of the image, row by row.
+         * @param width     The width of the image.
+         * @param height    The height of the image.
+         * @param maxPixels The most pixels the shrunk copy may have.
+         */
+        public Preview(int[] pixels, int width, int height, int maxPixels) {
+            double shrink = Math.min(1, Math.sqrt((double) maxPixels / ((long) width * height)));
+            proxyWidth = Math.max(1, (int) (width * shrink));
+            proxyHeight = Math.max(1, (int) (height * shrink));
+            proxy = ImageScaler.downscale(pixels, width, height, proxyWidth, proxyHeight);
+            scale = (double) proxyWidth / width;
+        }
+
+        /**
+         * Renders a preview of a transform.
+         *
+         * @param matrix The transform, in the coordinates of the full-size image.
+         * @return The transformed copy. Its size and position are in the coordinates of the copy;
+         * divide them by {@link #getScale()} to draw it over the full-size image.
+         */
+        public Result render(AffineTransform matrix) {
+            AffineTransform scaled = AffineTransform.getScaleInstance(scale, scale);
+            scaled.concatenate(matrix);
+            scaled.scale(1 / scale, 1 / scale);
+            return transform(proxy, proxyWidth, proxyHeight, scaled, Quality.NEAREST);
+        }
+
+        /**
+         * Returns the size of the shrunk copy relative to the image.
+         *
+         * @return The scale, at most 1.
+         */
+        public double getScale() {
+            return scale;
+        }
+    }
+}
@@ -7,22 +7,29 @@ import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
-import javafx.scene.image.PixelReader;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.util.Duration;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Timer;
 import java.util.TimerTask;
 
 public class AutosaveManager {
 
+    private static final Metrics.Histogram AUTOSAVE_TIME = Metrics.timer("paintfx_autosave_seconds",
+            "Time to snapshot, encode and write an autosave.");
+    private static final Metrics.Histogram AUTOSAVE_SIZE = Metrics.histogram("paintfx_autosave_bytes",
+            "Size of the autosaved file.", Metrics.SIZE_BUCKETS, 1);
+    private static final Metrics.Counter AUTOSAVE_FAILURES = Metrics.counter("paintfx_autosave_failures_total",
+            "Autosaves that could not be written.");
+
     private final Canvas canvas;
     private final Label countdownLabel;
     private final CheckBox displayCountdownCheckBox, enableNotificationsCheckBox;
@@ -31,6 +38,8 @@ public class AutosaveManager {
     private int countdown;
 
     private final AutosaveNotifier notifier;
+    // Fast level, since autosaves are overwritten often; only the stripes changed since the last autosave are compressed again
+    private final IncrementalPngEncoder pngEncoder = new IncrementalPngEncoder(new PngEncoder(Integer.getInteger("paintfx.autosavePngLevel", 1)));
 
     public AutosaveManager(Canvas canvas, Label countdownLabel, CheckBox displayCountdownCheckBox, CheckBox enableNotificationsCheckBox) {
         this.canvas = canvas;
@@ -79,7 +88,10 @@ public class AutosaveManager {
     void autosaveCanvas() {
         File autosaveFile = new File("autosave.png");
         try {
+            long start = System.nanoTime();
             saveImageToFile(autosaveFile);
+            AUTOSAVE_TIME.observeSince(start);
+            AUTOSAVE_SIZE.observe(autosaveFile.length());
             System.out.println("Canvas autosaved to: " + autosaveFile.getAbsolutePath());
 
 
@@ -88,50 +100,34 @@ public class AutosaveManager {
             }
 
         } catch (IOException e) {
+            AUTOSAVE_FAILURES.increment();
             e.printStackTrace();
         }
     }
 
     // Save canvas content to file (used for both manual save and autosave)
     public void saveImageToFile(File file) throws IOException {
+        PendingOrientation pending = PendingOrientation.of(canvas);
         WritableImage writableImage = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
         SnapshotParameters params = new SnapshotParameters();
         params.setFill(Color.WHITE);
-        canvas.snapshot(params, writableImage);
-
-        BufferedImage bufferedImage = convertWritableImageToBufferedImage(writableImage);
-
-        // Save as PNG
-        ImageIO.write(bufferedImage, "png", file);
+        pending.snapshot(params, writableImage);
+
+        // Read the pixels in bulk and save them as PNG, at a fast compression level so autosaving large canvases stays quick.
+        // A pending rotation is applied to the saved copy only, so autosaving never changes the document or its undo history
+        Orientation orientation = pending.getOrientation();
+        int drawnWidth = (int) writableImage.getWidth();
+        int drawnHeight = (int) writableImage.getHeight();
+        int[] pixels = orientation.apply(PixelConverter.toArgb(writableImage), drawnWidth, drawnHeight);
+        int width = orientation.swapsDimensions() ? drawnHeight : drawnWidth;
+        int height = orientation.swapsDimensions() ? drawnWidth : drawnHeight;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            pngEncoder.encode(pixels, width, height, out);
+        }
     }
 
     // Reset the timer (useful if the user manually saves)
     public void resetTimer() {
         countdown = autosaveIntervalSeconds;
     }
-
-    // Add your method for converting WritableImage to BufferedImage (from the previous example)
-    private BufferedImage convertWritableImageToBufferedImage(WritableImage writableImage) {
-        int width = (int) writableImage.getWidth();
-        int height = (int) writableImage.getHeight();
-
-        // Create a BufferedImage to hold the pixels from the WritableImage
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-        // Extract pixel data from WritableImage
-        PixelReader pixelReader = writableImage.getPixelReader();
-
-        // Write each pixel to the BufferedImage
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = pixelReader.getColor(x, y);
-                int argb = (int) (color.getOpacity() * 255) << 24 |
-                        (int) (color.getRed() * 255) << 16 |
-                        (int) (color.getGreen() * 255) << 8 |
-                        (int) (color.getBlue() * 255);
-                bufferedImage.setRGB(x, y, argb);
-            }
-        }
-        return bufferedImage;
-    }
 }
@@ -0,0 +1,376 @@
+package org.example.paintfx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * The {@code CanvasEventServer} class implements an HTTP handler that sends the changes to the
+ * canvas as Server-Sent Events, so a web viewer only downloads the tiles that were drawn on.
+ *
+ * <p>The canvas is divided into the tile grid of its {@link DirtyTileTracker}. Two kinds of events
+ * are sent, each with a single line of JSON as its data:
+ * <ul>
+ *     <li>{@code keyframe} - the whole canvas: {@code {"version","width","height","image"}}. Sent
+ *     when a client connects, when the canvas is resized, and when a client fell behind.</li>
+ *     <li>{@code tiles} - the changed tiles: {@code {"version","tiles":[{"x","y","width","height","image"}]}},
+ *     to be drawn over the last keyframe at the given coordinates.</li>
+ * </ul>
+ * Images are base64-encoded PNGs, or QOI images for clients connecting with {@code ?format=qoi},
+ * which are larger but much faster to encode.
+ *
+ * <p>While at least one client is connected, a single worker thread checks the tracker up to
+ * {@code maxFps} times a second. When tiles were marked, it takes a snapshot on the JavaFX thread,
+ * compares the marked tiles with its copy of the canvas and encodes only those that really
+ * changed. Every client has a bounded queue of events written by a thread of its own; a client
+ * whose queue overflows loses the queued events and is sent a keyframe instead.
+ */
+public class CanvasEventServer implements HttpHandler {
+
+    /** Number of events queued for a client before it is considered to have fallen behind. */
+    private static final int QUEUE_CAPACITY = 32;
+
+    /** Time after which an idle connection is sent a comment, so proxies do not close it, in seconds. */
+    private static final long KEEPALIVE_INTERVAL = 15;
+
+    /**
+     * A connected client.
+     */
+    private static final class Client {
+        final BlockingQueue<byte[]> events = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        /** Set when the client connects or its queue overflows; cleared once a keyframe is queued. */
+        volatile boolean needsKeyframe = true;
+
+        /** Whether the client asked for QOI images instead of PNGs. */
+        final boolean qoi;
+
+        Client(boolean qoi) {
+            this.qoi = qoi;
+        }
+    }
+
+    /** The canvas being sent. */
+    private final Canvas canvas;
+
+    /** Tells which tiles of the canvas were drawn on. */
+    private final DirtyTileTracker tracker;
+
+    /** Minimum time between two events, in milliseconds. */
+    private final long eventInterval;
+
+    /** Takes the snapshots and encodes the events. */
+    private final ScheduledExecutorService producer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "canvas-event-producer");
+        thread.setDaemon(true);  // Never keep the application alive
+        return thread;
+    });
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    /** The periodic event task, running only while clients are connected. Guarded by {@code this}. */
+    private ScheduledFuture<?> producing;
+
+    // The following fields are only touched on the producer thread
+
+    /** The canvas as last sent, or {@code null} until the first snapshot. */
+    private int[] mirror;
+    private int mirrorWidth;
+    private int mirrorHeight;
+
+    /** The tracker generation the mirror is up to date with. */
+    private long mirrorGeneration;
+
+    /** Reused for every snapshot; only touched on the JavaFX Application Thread and the producer thread. */
+    private WritableImage snapshot;
+
+    /**
+     * Constructs an event stream of the given canvas.
+     *
+     * @param canvas The canvas to send. Must be called on the JavaFX Application Thread, which
+     *               owns the canvas's tracker.
+     * @param maxFps The maximum number of events sent per second.
+     */
+    public CanvasEventServer(Canvas canvas, int maxFps) {
+        this.canvas = canvas;
+        this.tracker = DirtyTileTracker.of(canvas);
+        this.eventInterval = Math.max(1, 1000 / Math.max(1, maxFps));
+    }
+
+    /**
+     * Handles a request for the event stream. Only GET requests are supported; all other methods
+     * return a 405 (Method Not Allowed) response. The response is written by a thread of its own
+     * until the client disconnects, so the server's executor is not tied up by long-lived streams.
+     *
+     * @param exchange The HTTP exchange containing the request and response objects.
+     * @throws IOException If an I/O error occurs during handling the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);  // 405 Method Not Allowed
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);  // Chunked, for as long as the client stays
+
+        String query = exchange.getRequestURI().getQuery();
+        boolean qoi = query != null && query.contains("format=qoi");
+        Thread.ofVirtual().name("canvas-event-client").start(() -> stream(exchange, new Client(qoi)));
+    }
+
+    /**
+     * Writes the events queued for a client until it disconnects.
+     */
+    private void stream(HttpExchange exchange, Client client) {
+        clientConnected(client);
+        try (OutputStream out = exchange.getResponseBody()) {
+            byte[] keepalive = ": keepalive\n\n".getBytes(StandardCharsets.US_ASCII);
+            while (true) {
+                byte[] event = client.events.poll(KEEPALIVE_INTERVAL, TimeUnit.SECONDS);
+                out.write(event != null ? event : keepalive);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client disconnected
+        } finally {
+            clientDisconnected(client);
+            exchange.close();
+        }
+    }
+
+    private synchronized void clientConnected(Client client) {
+        clients.add(client);
+        if (producing == null) {
+            producing = producer.scheduleWithFixedDelay(this::produceEvents, 0, eventInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void clientDisconnected(Client client) {
+        clients.remove(client);
+        if (clients.isEmpty() && producing != null) {
+            producing.cancel(false);
+            producing = null;
+            // The canvas keeps changing while nobody is watching; start over with the next client
+            producer.execute(() -> mirror = null);
+        }
+    }
+
+    /**
+     * Brings the mirror up to date and queues the resulting events. Runs on the producer thread.
+     */
+    private void produceEvents() {
+        try {
+            boolean keyframeWanted = clients.stream().anyMatch(client -> client.needsKeyframe);
+            if (mirror != null && tracker.getGeneration() == mirrorGeneration && !keyframeWanted) {
+                return;
+            }
+
+            // Take the snapshot on the JavaFX Application Thread, listing the marked tiles along with it
+            final long[] generationHolder = new long[1];
+            final int[][] tilesHolder = new int[1][];
+            final Orientation[] orientationHolder = new Orientation[1];
+            CountDownLatch latch = new CountDownLatch(1);
+            Platform.runLater(() -> {
+                try {
+                    PendingOrientation pending = PendingOrientation.of(canvas);
+                    generationHolder[0] = tracker.getGeneration();
+                    tilesHolder[0] = tracker.getTilesChangedSince(mirrorGeneration);
+                    orientationHolder[0] = pending.getOrientation();
+                    int width = tracker.getWidth();
+                    int height = tracker.getHeight();
+                    if (snapshot == null || (int) snapshot.getWidth() != width || (int) snapshot.getHeight() != height) {
+                        snapshot = new WritableImage(width, height);
+                    }
+                    SnapshotParameters params = new SnapshotParameters();
+                    params.setFill(Color.WHITE);
+                    pending.snapshot(params, snapshot);
+                } finally {
+                    latch.countDown();
+                }
+            });
+            latch.await();
+
+            long generation = generationHolder[0];
+            Orientation orientation = orientationHolder[0];
+            int drawnWidth = (int) snapshot.getWidth();
+            int drawnHeight = (int) snapshot.getHeight();
+            int width = orientation.swapsDimensions() ? drawnHeight : drawnWidth;
+            int height = orientation.swapsDimensions() ? drawnWidth : drawnHeight;
+            boolean resized = mirror == null || width != mirrorWidth || height != mirrorHeight;
+
+            // The mirror holds the canvas as it is shown. While that differs from how it is drawn,
+            // the marked tiles do not line up with the shown ones, so a rotated copy is compared whole
+            int[] shown = orientation == Orientation.IDENTITY ? null
+                    : orientation.apply(PixelConverter.toArgb(snapshot), drawnWidth, drawnHeight);
+
+            int[] changedTiles = null;
+            if (resized) {
+                mirrorWidth = width;
+                mirrorHeight = height;
+                if (shown != null) {
+                    mirror = shown;
+                } else {
+                    mirror = new int[width * height];
+                    snapshot.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), mirror, 0, width);
+                }
+            } else if (shown != null) {
+                changedTiles = updateTiles(IntStream.range(0, TileDelta.tileCount(width, height)).toArray(), shown);
+            } else {
+                changedTiles = updateTiles(tilesHolder[0], null);
+            }
+            mirrorGeneration = generation;
+
+            // Each event is encoded at most once per format, and only if a client needs it
+            byte[][] keyframeEvents = new byte[2][];
+            byte[][] tilesEvents = new byte[2][];
+            for (Client client : clients) {
+                int format = client.qoi ? 1 : 0;
+                if (resized || client.needsKeyframe) {
+                    if (keyframeEvents[format] == null) {
+                        keyframeEvents[format] = encodeKeyframe(generation, client.qoi);
+                    }
+                    client.needsKeyframe = false;
+                    client.events.clear();  // Everything queued is superseded by the keyframe
+                    client.events.offer(keyframeEvents[format]);
+                    continue;
+                }
+                if (changedTiles == null || changedTiles.length == 0) {
+                    continue;
+                }
+                if (tilesEvents[format] == null) {
+                    tilesEvents[format] = encodeTiles(changedTiles, generation, client.qoi);
+                }
+                if (!client.events.offer(tilesEvents[format])) {
+                    // The client fell behind; drop its backlog and catch it up with a keyframe on the next tick
+                    client.events.clear();
+                    client.needsKeyframe = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();  // Try again on the next tick
+        }
+    }
+
+    /**
+     * Copies the marked tiles that differ from the mirror into it.
+     *
+     * @param indices The indices of the marked tiles.
+     * @param shown   The whole canvas as it is shown, or {@code null} to read the tiles from the snapshot.
+     * @return The indices of the tiles that really changed.
+     */
+    private int[] updateTiles(int[] indices, int[] shown) {
+        int[] changedTiles = new int[indices.length];
+        int count = 0;
+        int[] tile = new int[TileDelta.TILE_SIZE * TileDelta.TILE_SIZE];
+        for (int index : indices) {
+            int x = TileDelta.tileX(mirrorWidth, index);
+            int y = TileDelta.tileY(mirrorWidth, index);
+            int tileWidth = TileDelta.tileWidth(mirrorWidth, index);
+            int tileHeight = TileDelta.tileHeight(mirrorWidth, mirrorHeight, index);
+            if (shown != null) {
+                for (int row = 0; row < tileHeight; row++) {
+                    System.arraycopy(shown, (y + row) * mirrorWidth + x, tile, row * tileWidth, tileWidth);
+                }
+            } else {
+                snapshot.getPixelReader().getPixels(x, y, tileWidth, tileHeight, PixelFormat.getIntArgbInstance(), tile, 0, tileWidth);
+            }
+
+            // Tools mark generously, so many marked tiles are unchanged
+            boolean changed = false;
+            for (int row = 0; row < tileHeight && !changed; row++) {
+                int offset = (y + row) * mirrorWidth + x;
+                changed = !Arrays.equals(tile, row * tileWidth, (row + 1) * tileWidth, mirror, offset, offset + tileWidth);
+            }
+            if (!changed) {
+                continue;
+            }
+            for (int row = 0; row < tileHeight; row++) {
+                System.arraycopy(tile, row * tileWidth, mirror, (y + row) * mirrorWidth + x, tileWidth);
+            }
+            changedTiles[count++] = index;
+        }
+        return Arrays.copyOf(changedTiles, count);
+    }
+
+    /**
+     * Encodes tiles of the mirror as a {@code tiles} event.
+     */
+    private byte[] encodeTiles(int[] indices, long generation, boolean qoi) throws IOException {
+        StringBuilder json = new StringBuilder();
+        int[] tile = new int[TileDelta.TILE_SIZE * TileDelta.TILE_SIZE];
+        for (int index : indices) {
+            int x = TileDelta.tileX(mirrorWidth, index);
+            int y = TileDelta.tileY(mirrorWidth, index);
+            int tileWidth = TileDelta.tileWidth(mirrorWidth, index);
+            int tileHeight = TileDelta.tileHeight(mirrorWidth, mirrorHeight, index);
+            for (int row = 0; row < tileHeight; row++) {
+                System.arraycopy(mirror, (y + row) * mirrorWidth + x, tile, row * tileWidth, tileWidth);
+            }
+
+            json.append(json.isEmpty() ? "" : ",")
+                    .append("{\"x\":").append(x).append(",\"y\":").append(y)
+                    .append(",\"width\":").append(tileWidth).append(",\"height\":").append(tileHeight)
+                    .append(",\"image\":\"").append(encodeImage(tile, tileWidth, tileHeight, qoi)).append("\"}");
+        }
+        return event("tiles", "{\"version\":" + generation + ",\"tiles\":[" + json + "]}");
+    }
+
+    /**
+     * Encodes the whole mirror as a {@code keyframe} event.
+     */
+    private byte[] encodeKeyframe(long generation, boolean qoi) throws IOException {
+        return event("keyframe", "{\"version\":" + generation + ",\"width\":" + mirrorWidth + ",\"height\":" + mirrorHeight
+                + ",\"image\":\"" + encodeImage(mirror, mirrorWidth, mirrorHeight, qoi) + "\"}");
+    }
+
+    /**
+     * Encodes packed ARGB pixels as a base64 PNG or QOI image.
+     */
+    private static String encodeImage(int[] pixels, int width, int height, boolean qoi) throws IOException {
+        if (qoi) {
+            return Base64.getEncoder().encodeToString(QoiEncoder.encode(pixels, width, height));
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, data, 0, width * height);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", os);
+        return Base64.getEncoder().encodeToString(os.toByteArray());
+    }
+
+    private static byte[] event(String name, String data) {
+        return ("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
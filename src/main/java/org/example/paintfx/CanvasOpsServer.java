@@ -0,0 +1,724 @@
+package org.example.paintfx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventHandler;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The {@code CanvasOpsServer} class implements an HTTP handler that draws batches of operations
+ * sent by other programs onto the canvas, so annotations can be drawn without the mouse.
+ *
+ * <p>{@code POST /canvas/ops} takes a list of operations, either as JSON or, with the content type
+ * {@code application/octet-stream}, in a compact binary form. The JSON form is an array of objects,
+ * or an object with the array under {@code "ops"}. Each object has a {@code "type"} and the
+ * parameters of the matching {@link ShapeTool}:
+ * <ul>
+ *     <li>{@code rect}, {@code ellipse}, {@code polygon} and {@code star}: the corners of the
+ *     dragged box {@code x1}, {@code y1}, {@code x2} and {@code y2}; {@code sides} of a polygon
+ *     and {@code points} of a star, 5 by default.</li>
+ *     <li>{@code line}: {@code points}, an array of x, y pairs drawn as one polyline in the border color.</li>
+ *     <li>{@code text}: {@code text} with its baseline starting at {@code x}, {@code y}, and the
+ *     font {@code size}, 50 by default.</li>
+ * </ul>
+ * Every operation also takes {@code fill} and {@code border} colors in any form
+ * {@link Color#web(String)} accepts (transparent and black by default), {@code borderWidth} (1 by
+ * default) and {@code dashes}, the dash pattern of the border.
+ *
+ * <p>The binary form is a sequence of operations, each a type byte followed by its fields in
+ * big-endian order, as written by a {@link java.io.DataOutputStream}. Colors are ARGB ints and
+ * coordinates are floats:
+ * <ul>
+ *     <li>0 rect, 1 ellipse, 2 polygon, 3 star: x1, y1, x2, y2, fill, border, borderWidth; then
+ *     an unsigned byte with the sides or points for 2 and 3.</li>
+ *     <li>4 line: border, borderWidth, an unsigned short with the number of points, then x, y per point.</li>
+ *     <li>5 text: x, y, fill, border, borderWidth, size, then the text as written by {@code writeUTF}.</li>
+ * </ul>
+ *
+ * <p>A batch is parsed and checked on the request's thread, so a malformed batch is answered with
+ * 400 (Bad Request) before anything is drawn. It is then drawn on the JavaFX thread as a single
+ * undoable action, each operation recorded in the undo history as if it had been drawn with its
+ * tool. Drawing starts right away and continues until a time budget is spent; a batch that takes
+ * longer is continued on the following pulses, so the window keeps repainting and responding.
+ * While a batch is drawn the canvas ignores the mouse, so strokes of the user neither mix into the
+ * batch nor split its undo entry; a batch that arrives while a mouse button is held on the canvas
+ * waits until it is released, so the user's stroke is finished and recorded first. Batches from
+ * concurrent requests are drawn one after another.
+ * The response is sent once the batch is drawn, as JSON: {@code {"applied","pulses","millis"}}.
+ */
+public class CanvasOpsServer implements HttpHandler {
+
+    /** Most operations accepted in one batch. */
+    public static final int MAX_OPERATIONS = 100_000;
+
+    /** Largest request body accepted, in bytes. */
+    public static final int MAX_BODY_BYTES = 32 * 1024 * 1024;
+
+    /** Most sides of a polygon or points of a star. */
+    private static final int MAX_VERTICES = 255;
+
+    private static final Metrics.Counter OPERATIONS = Metrics.counter("paintfx_remote_operations_total",
+            "Operations drawn from batches posted to /canvas/ops.");
+    private static final Metrics.Histogram BATCH_TIME = Metrics.timer("paintfx_remote_batch_seconds",
+            "Time from queueing a batch of operations on the JavaFX thread until it was drawn.");
+
+    /**
+     * A batch of operations being drawn. Only touched on the JavaFX thread until it is done.
+     */
+    private static final class Batch {
+        final List<DrawOperation> operations;
+        final CompletableFuture<Batch> done = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+
+        /** Index of the next operation to draw. */
+        int next;
+
+        /** Number of pulses the batch was drawn over. */
+        int pulses;
+
+        Batch(List<DrawOperation> operations) {
+            this.operations = operations;
+        }
+    }
+
+    /** The canvas the operations are drawn on. */
+    private final Canvas canvas;
+
+    /** Records each batch as one undoable action. */
+    private final UndoRedo undoRedo;
+
+    private final Logger logger;
+
+    /** Tells viewers which tiles of the canvas were drawn on. */
+    private final DirtyTileTracker tracker;
+
+    /** How long drawing may hold the JavaFX thread per pulse, in nanoseconds. */
+    private final long pulseBudgetNanos;
+
+    /** The tools that draw and replay the shapes; never selected, so they do not handle the mouse. */
+    private final ShapeTool rectangleTool;
+    private final ShapeTool ellipseTool;
+    private final ShapeTool polygonTool;
+    private final ShapeTool starTool;
+    private final TextTool textTool;
+
+    /** Batches waiting to be drawn, the current one first. Only used on the JavaFX thread. */
+    private final Queue<Batch> batches = new ArrayDeque<>();
+
+    /** Draws for the time budget on every pulse while batches are waiting. */
+    private final AnimationTimer drawer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (!drawPulse()) {
+                stop();
+            }
+        }
+    };
+
+    /** Keeps the mouse off the canvas while a batch is drawn. */
+    private final EventHandler<MouseEvent> blockMouse = Event::consume;
+
+    /** Whether a mouse button is held on the canvas, so a stroke of the user may be in progress. */
+    private boolean mouseDown;
+
+    /** Whether queued batches are being drawn, with the mouse kept off the canvas. */
+    private boolean drawing;
+
+    /**
+     * Constructs the server. Must be called on the JavaFX Application Thread.
+     *
+     * @param canvas            The canvas to draw on.
+     * @param undoRedo          The undo manager of the canvas.
+     * @param logger            The logger recording each batch.
+     * @param pulseBudgetMillis How long drawing may hold the JavaFX thread per pulse, in milliseconds.
+     */
+    public CanvasOpsServer(Canvas canvas, UndoRedo undoRedo, Logger logger, long pulseBudgetMillis) {
+        this.canvas = canvas;
+        this.undoRedo = undoRedo;
+        this.logger = logger;
+        this.tracker = DirtyTileTracker.of(canvas);
+        this.pulseBudgetNanos = Math.max(1, pulseBudgetMillis) * 1_000_000;
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        rectangleTool = new RectangleTool(gc, logger, new ToggleButton());
+        ellipseTool = new EllipseTool(gc, logger, new ToggleButton());
+        polygonTool = new PolygonTool(gc, logger, new ToggleButton());
+        starTool = new VarStarTool(gc, logger, new ToggleButton());
+        textTool = new TextTool(gc, logger, new ToggleButton());
+
+        canvas.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> mouseDown = true);
+        canvas.addEventFilter(MouseEvent.MOUSE_RELEASED, event -> {
+            mouseDown = event.isPrimaryButtonDown() || event.isSecondaryButtonDown() || event.isMiddleButtonDown();
+            if (!mouseDown && !batches.isEmpty()) {
+                Platform.runLater(this::startDrawing);  // Once the tools' release handlers have recorded the stroke
+            }
+        });
+    }
+
+    /**
+     * Handles a batch of operations. Only POST requests are supported; all other methods return a
+     * 405 (Method Not Allowed) response. Bodies over {@value #MAX_BODY_BYTES} bytes return 413
+     * (Payload Too Large), and malformed batches 400 (Bad Request) with the reason as text.
+     *
+     * @param exchange The HTTP exchange containing the request and response objects.
+     * @throws IOException If an I/O error occurs during handling the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);  // 405 Method Not Allowed
+                return;
+            }
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                exchange.sendResponseHeaders(413, -1);  // 413 Payload Too Large
+                return;
+            }
+
+            List<DrawOperation> operations;
+            try {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                operations = contentType != null && contentType.startsWith("application/octet-stream")
+                        ? parseBinary(body) : parseJson(new String(body, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain; charset=utf-8", e.getMessage());  // 400 Bad Request
+                return;
+            }
+
+            Batch batch = new Batch(operations);
+            if (!operations.isEmpty()) {
+                Platform.runLater(() -> enqueue(batch));
+                try {
+                    batch.done.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+            long millis = (System.nanoTime() - batch.queuedAt) / 1_000_000;
+            send(exchange, 200, "application/json",
+                    "{\"applied\":" + operations.size() + ",\"pulses\":" + batch.pulses + ",\"millis\":" + millis + "}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);  // 500 Internal Server Error
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.flush();
+    }
+
+    /**
+     * Queues a batch and starts drawing it unless the user is drawing. Runs on the JavaFX thread.
+     */
+    private void enqueue(Batch batch) {
+        batches.add(batch);
+        startDrawing();
+    }
+
+    /**
+     * Starts drawing the queued batches, unless they are being drawn already or a mouse button is
+     * held on the canvas. Runs on the JavaFX thread.
+     */
+    private void startDrawing() {
+        if (drawing || mouseDown || batches.isEmpty()) {
+            return;
+        }
+        drawing = true;
+        canvas.addEventFilter(MouseEvent.ANY, blockMouse);
+
+        // Draw right away, so a small batch is done within this one call
+        if (drawPulse()) {
+            drawer.start();
+        }
+    }
+
+    /**
+     * Draws queued operations until the time budget of the pulse is spent. Runs on the JavaFX thread.
+     *
+     * @return {@code true} if operations are left for the next pulse.
+     */
+    private boolean drawPulse() {
+        long deadline = System.nanoTime() + pulseBudgetNanos;
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        while (!batches.isEmpty()) {
+            Batch batch = batches.peek();
+            try {
+                if (batch.next == 0) {
+                    PendingOrientation.of(canvas).apply();
+                    undoRedo.pushToUndoStack();  // The state before the batch, undone to as a whole
+                }
+                batch.pulses++;
+                // At least one operation per pulse, however slow, so every batch finishes
+                do {
+                    draw(gc, batch.operations.get(batch.next++));
+                } while (batch.next < batch.operations.size() && System.nanoTime() < deadline);
+                undoRedo.markChanged();
+            } catch (RuntimeException e) {
+                batches.poll();
+                batch.done.completeExceptionally(e);
+                continue;
+            }
+
+            if (batch.next < batch.operations.size()) {
+                return true;
+            }
+            batches.poll();
+            OPERATIONS.add(batch.operations.size());
+            BATCH_TIME.observeSince(batch.queuedAt);
+            logger.logEvent("Remote", "Batch of " + batch.operations.size() + " operations drawn");
+            batch.done.complete(batch);
+            if (System.nanoTime() >= deadline && !batches.isEmpty()) {
+                return true;
+            }
+        }
+        canvas.removeEventFilter(MouseEvent.ANY, blockMouse);
+        drawing = false;
+        return false;
+    }
+
+    /**
+     * Draws one operation, records it in the undo history and marks the area it covers.
+     */
+    private void draw(GraphicsContext gc, DrawOperation operation) {
+        operation.replay(gc);
+        undoRedo.recordOperation(operation);
+
+        double[] bounds;
+        if (operation.getTool() != null) {
+            bounds = operation.getTool().getBounds(operation);
+        } else {
+            double[] points = operation.getPoints();
+            double minX = points[0], minY = points[1], maxX = minX, maxY = minY;
+            for (int i = 2; i < points.length; i += 2) {
+                minX = Math.min(minX, points[i]);
+                maxX = Math.max(maxX, points[i]);
+                minY = Math.min(minY, points[i + 1]);
+                maxY = Math.max(maxY, points[i + 1]);
+            }
+            double margin = operation.getBorderWidth() * 5 + 2;  // Miter joins, as for the shapes
+            bounds = new double[]{minX - margin, minY - margin, maxX - minX + 2 * margin, maxY - minY + 2 * margin};
+        }
+        tracker.markDirty(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    /**
+     * Parses a JSON batch.
+     *
+     * @throws IllegalArgumentException If the batch is malformed.
+     */
+    List<DrawOperation> parseJson(String json) {
+        Object root = new JsonParser(json).parseDocument();
+        if (root instanceof Map<?, ?> object) {
+            root = object.get("ops");
+        }
+        if (!(root instanceof List<?> list)) {
+            throw new IllegalArgumentException("Expected an array of operations, or an object with one under \"ops\"");
+        }
+        if (list.size() > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("At most " + MAX_OPERATIONS + " operations per batch");
+        }
+
+        List<DrawOperation> operations = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            if (!(list.get(i) instanceof Map<?, ?> op)) {
+                throw new IllegalArgumentException("Operation " + i + " is not an object");
+            }
+            try {
+                operations.add(toOperation(op));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Operation " + i + ": " + e.getMessage());
+            }
+        }
+        return operations;
+    }
+
+    private DrawOperation toOperation(Map<?, ?> op) {
+        String type = string(op, "type");
+        Color fill = color(op, "fill", Color.TRANSPARENT);
+        Color border = color(op, "border", Color.BLACK);
+        double borderWidth = width(number(op, "borderWidth", 1));
+        double[] dashes = dashes(op.get("dashes"));
+        return switch (type) {
+            case "rect", "ellipse", "polygon", "star" -> {
+                ShapeTool tool = switch (type) {
+                    case "rect" -> rectangleTool;
+                    case "ellipse" -> ellipseTool;
+                    case "polygon" -> polygonTool;
+                    default -> starTool;
+                };
+                int vertices = switch (type) {
+                    case "polygon" -> vertices(number(op, "sides", 5), 3);
+                    case "star" -> vertices(number(op, "points", 5), 2);
+                    default -> 0;
+                };
+                yield new DrawOperation(tool, number(op, "x1", Double.NaN), number(op, "y1", Double.NaN),
+                        number(op, "x2", Double.NaN), number(op, "y2", Double.NaN), fill, border, borderWidth, dashes, vertices);
+            }
+            case "line" -> {
+                if (!(op.get("points") instanceof List<?> list) || list.size() < 2 || list.size() % 2 != 0) {
+                    throw new IllegalArgumentException("\"points\" must be an array of x, y pairs");
+                }
+                double[] points = new double[list.size()];
+                for (int i = 0; i < points.length; i++) {
+                    if (!(list.get(i) instanceof Double value) || !Double.isFinite(value)) {
+                        throw new IllegalArgumentException("\"points\" must only hold numbers");
+                    }
+                    points[i] = value;
+                }
+                yield DrawOperation.stroke(points, border, borderWidth, dashes);
+            }
+            case "text" -> {
+                double x = number(op, "x", Double.NaN);
+                double y = number(op, "y", Double.NaN);
+                yield DrawOperation.text(textTool, x, y, string(op, "text"), fontSize(number(op, "size", 50)), fill, border, borderWidth, dashes);
+            }
+            default -> throw new IllegalArgumentException("Unknown type \"" + type + "\"");
+        };
+    }
+
+    /**
+     * Parses a binary batch.
+     *
+     * @throws IllegalArgumentException If the batch is malformed.
+     */
+    List<DrawOperation> parseBinary(byte[] body) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        List<DrawOperation> operations = new ArrayList<>();
+        try {
+            int type;
+            while ((type = in.read()) != -1) {
+                if (operations.size() == MAX_OPERATIONS) {
+                    throw new IllegalArgumentException("At most " + MAX_OPERATIONS + " operations per batch");
+                }
+                switch (type) {
+                    case 0, 1, 2, 3 -> {
+                        double x1 = coordinate(in), y1 = coordinate(in), x2 = coordinate(in), y2 = coordinate(in);
+                        Color fill = argb(in.readInt());
+                        Color border = argb(in.readInt());
+                        double borderWidth = width(in.readFloat());
+                        ShapeTool tool = type == 0 ? rectangleTool : type == 1 ? ellipseTool : type == 2 ? polygonTool : starTool;
+                        int vertices = type == 2 ? vertices(in.readUnsignedByte(), 3) : type == 3 ? vertices(in.readUnsignedByte(), 2) : 0;
+                        operations.add(new DrawOperation(tool, x1, y1, x2, y2, fill, border, borderWidth, null, vertices));
+                    }
+                    case 4 -> {
+                        Color border = argb(in.readInt());
+                        double borderWidth = width(in.readFloat());
+                        int count = in.readUnsignedShort();
+                        if (count == 0) {
+                            throw new IllegalArgumentException("Operation " + operations.size() + ": a line needs a point");
+                        }
+                        double[] points = new double[count * 2];
+                        for (int i = 0; i < points.length; i++) {
+                            points[i] = coordinate(in);
+                        }
+                        operations.add(DrawOperation.stroke(points, border, borderWidth, null));
+                    }
+                    case 5 -> {
+                        double x = coordinate(in), y = coordinate(in);
+                        Color fill = argb(in.readInt());
+                        Color border = argb(in.readInt());
+                        double borderWidth = width(in.readFloat());
+                        double fontSize = fontSize(in.readFloat());
+                        operations.add(DrawOperation.text(textTool, x, y, in.readUTF(), fontSize, fill, border, borderWidth, null));
+                    }
+                    default -> throw new IllegalArgumentException("Operation " + operations.size() + ": unknown type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Operation " + operations.size() + " is cut off");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Operation " + operations.size() + " is malformed: " + e.getMessage());
+        }
+        return operations;
+    }
+
+    private static double fontSize(double size) {
+        if (!(size >= 1 && size <= 1000)) {
+            throw new IllegalArgumentException("Font size must be from 1 to 1000");
+        }
+        return size;
+    }
+
+    private static int vertices(double count, int min) {
+        if (!(count >= min && count <= MAX_VERTICES) || count != Math.rint(count)) {
+            throw new IllegalArgumentException("Vertex count must be a whole number from " + min + " to " + MAX_VERTICES);
+        }
+        return (int) count;
+    }
+
+    private static double coordinate(DataInputStream in) throws IOException {
+        float value = in.readFloat();
+        if (!Float.isFinite(value)) {
+            throw new IllegalArgumentException("Coordinates must be finite");
+        }
+        return value;
+    }
+
+    private static double width(double value) {
+        if (!(value >= 0 && value <= 1000)) {
+            throw new IllegalArgumentException("Border width must be from 0 to 1000");
+        }
+        return value;
+    }
+
+    private static Color argb(int argb) {
+        return Color.rgb(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF, (argb >>> 24) / 255.0);
+    }
+
+    private static String string(Map<?, ?> op, String key) {
+        if (!(op.get(key) instanceof String value)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a string");
+        }
+        return value;
+    }
+
+    /**
+     * Returns a number of an operation, or a default if it is absent; a NaN default makes it required.
+     */
+    private static double number(Map<?, ?> op, String key, double defaultValue) {
+        Object value = op.get(key);
+        if (value == null && !Double.isNaN(defaultValue)) {
+            return defaultValue;
+        }
+        if (!(value instanceof Double number) || !Double.isFinite(number)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a number");
+        }
+        return number;
+    }
+
+    private static Color color(Map<?, ?> op, String key, Color defaultValue) {
+        Object value = op.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Color.web((String) value);
+        } catch (ClassCastException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("\"" + key + "\" is not a color");
+        }
+    }
+
+    private static double[] dashes(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof List<?> list) || list.size() > 64) {
+            throw new IllegalArgumentException("\"dashes\" must be an array of at most 64 lengths");
+        }
+        double[] dashes = new double[list.size()];
+        for (int i = 0; i < dashes.length; i++) {
+            if (!(list.get(i) instanceof Double length) || !(length >= 0 && length < 10000)) {
+                throw new IllegalArgumentException("\"dashes\" must only hold lengths");
+            }
+            dashes[i] = length;
+        }
+        return dashes.length == 0 ? null : dashes;
+    }
+
+    /**
+     * A minimal JSON parser producing maps, lists, strings, doubles, booleans and nulls.
+     */
+    static final class JsonParser {
+        private static final int MAX_DEPTH = 32;
+
+        private final String text;
+        private int position;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Parses the whole text as one value.
+         *
+         * @throws IllegalArgumentException If the text is not valid JSON.
+         */
+        Object parseDocument() {
+            Object value = parseValue(0);
+            skipWhitespace();
+            if (position != text.length()) {
+                throw error("Unexpected text after the value");
+            }
+            return value;
+        }
+
+        private Object parseValue(int depth) {
+            if (depth > MAX_DEPTH) {
+                throw error("Nested too deeply");
+            }
+            skipWhitespace();
+            if (position == text.length()) {
+                throw error("Unexpected end");
+            }
+            char c = text.charAt(position);
+            switch (c) {
+                case '{' -> {
+                    position++;
+                    Map<String, Object> object = new LinkedHashMap<>();
+                    skipWhitespace();
+                    if (consume('}')) {
+                        return object;
+                    }
+                    do {
+                        skipWhitespace();
+                        if (position == text.length() || text.charAt(position) != '"') {
+                            throw error("Expected a key");
+                        }
+                        String key = parseString();
+                        skipWhitespace();
+                        expect(':');
+                        object.put(key, parseValue(depth + 1));
+                        skipWhitespace();
+                    } while (consume(','));
+                    expect('}');
+                    return object;
+                }
+                case '[' -> {
+                    position++;
+                    List<Object> array = new ArrayList<>();
+                    skipWhitespace();
+                    if (consume(']')) {
+                        return array;
+                    }
+                    do {
+                        array.add(parseValue(depth + 1));
+                        skipWhitespace();
+                    } while (consume(','));
+                    expect(']');
+                    return array;
+                }
+                case '"' -> {
+                    return parseString();
+                }
+                default -> {
+                    if (text.startsWith("true", position)) {
+                        position += 4;
+                        return Boolean.TRUE;
+                    } else if (text.startsWith("false", position)) {
+                        position += 5;
+                        return Boolean.FALSE;
+                    } else if (text.startsWith("null", position)) {
+                        position += 4;
+                        return null;
+                    }
+                    return parseNumber();
+                }
+            }
+        }
+
+        private String parseString() {
+            position++;  // The opening quote
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                if (position >= text.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return out.toString();
+                } else if (c == '\\') {
+                    if (position >= text.length()) {
+                        throw error("Unterminated string");
+                    }
+                    char escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case '"', '\\', '/' -> out.append(escaped);
+                        case 'b' -> out.append('\b');
+                        case 'f' -> out.append('\f');
+                        case 'n' -> out.append('\n');
+                        case 'r' -> out.append('\r');
+                        case 't' -> out.append('\t');
+                        case 'u' -> {
+                            if (position + 4 > text.length()) {
+                                throw error("Bad unicode escape");
+                            }
+                            int code = 0;
+                            for (int end = position + 4; position < end; position++) {
+                                int digit = Character.digit(text.charAt(position), 16);
+                                if (digit < 0) {
+                                    throw error("Bad unicode escape");  // Exactly four hex digits, no sign
+                                }
+                                code = code << 4 | digit;
+                            }
+                            out.append((char) code);
+                        }
+                        default -> throw error("Bad escape");
+                    }
+                } else if (c < 0x20) {
+                    throw error("Control character in string");
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+
+        private Double parseNumber() {
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            if (start == position) {
+                throw error("Unexpected character");
+            }
+            try {
+                return Double.valueOf(text.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw error("Bad number");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private boolean consume(char c) {
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + position);
+        }
+    }
+}
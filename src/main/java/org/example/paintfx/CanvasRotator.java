@@ -2,10 +2,17 @@ package org.example.paintfx;
 
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.awt.geom.AffineTransform;
 
 public class CanvasRotator {
+
+    /** Rows of the source rotated at a time; a cache line of each of them fits in L1 at once. */
+    static final int BAND_ROWS = 64;
+
     Logger logger;
 
     public CanvasRotator(Logger logger) {
@@ -48,89 +55,66 @@ public class CanvasRotator {
         }
     }
 
-    // --- Rotate entire canvas 90 degrees clockwise ---
-    private void rotateCanvasRight(Canvas canvas) {
-        WritableImage snapshot = canvas.snapshot(null, null);
-        int newWidth = (int) snapshot.getHeight();
-        int newHeight = (int) snapshot.getWidth();
-
-        WritableImage rotatedImage = new WritableImage(newWidth, newHeight);
-        PixelReader reader = snapshot.getPixelReader();
-
-        for (int y = 0; y < snapshot.getHeight(); y++) {
-            for (int x = 0; x < snapshot.getWidth(); x++) {
-                rotatedImage.getPixelWriter().setArgb(newWidth - 1 - y, x, reader.getArgb(x, y));
-            }
+    /**
+     * Applies an affine transform to the selection if there is one, and to the whole canvas
+     * otherwise. The canvas is resized to fit the transformed image, and whatever of it the image
+     * does not cover is filled with white.
+     *
+     * @param canvas            The canvas.
+     * @param moveSelectionTool The tool holding the selection, if any.
+     * @param matrix            The transform, in the coordinates of the selection or the canvas.
+     * @param quality           How the pixels are sampled.
+     */
+    public void transform(Canvas canvas, MoveSelectionTool moveSelectionTool, AffineTransform matrix,
+                          AffineTransformer.Quality quality) {
+        PendingOrientation.of(canvas).apply();
+        if (moveSelectionTool.isSelectionActive()) {
+            WritableImage selectedImage = moveSelectionTool.getSelectedImage();
+            AffineTransformer.Result result = transformImage(selectedImage, matrix, quality);
+            moveSelectionTool.applyTransformedSelection(toImage(result.pixels(), result.width(), result.height()),
+                    moveSelectionTool.selectionX + result.x(), moveSelectionTool.selectionY + result.y());
+            logger.logEvent("Canvas", "Transform Selection");
+        } else {
+            AffineTransformer.Result result = transformImage(canvas.snapshot(null, null), matrix, quality);
+            resizeCanvas(canvas, result.width(), result.height());
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            gc.setFill(Color.WHITE);
+            gc.fillRect(0, 0, result.width(), result.height());
+            gc.drawImage(toImage(result.pixels(), result.width(), result.height()), 0, 0);
+            DirtyTileTracker.of(canvas).markAll();
+            logger.logEvent("Canvas", "Transform");
         }
+    }
+
+    // --- Transform an image with the given quality ---
+    private static AffineTransformer.Result transformImage(WritableImage sourceImage, AffineTransform matrix,
+                                                           AffineTransformer.Quality quality) {
+        int width = (int) sourceImage.getWidth();
+        int height = (int) sourceImage.getHeight();
+        return AffineTransformer.transform(PixelConverter.toArgb(sourceImage), width, height, matrix, quality);
+    }
 
-        resizeCanvas(canvas, newWidth, newHeight);
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, newWidth, newHeight);
-        gc.drawImage(rotatedImage, 0, 0);
+    // --- Rotate entire canvas 90 degrees clockwise, once it is drawn on or saved ---
+    private void rotateCanvasRight(Canvas canvas) {
+        PendingOrientation.of(canvas).then(Orientation.ROTATE_RIGHT);
         logger.logEvent("Canvas", "Rotate Right");
     }
 
-    // --- Rotate entire canvas 90 degrees counterclockwise ---
+    // --- Rotate entire canvas 90 degrees counterclockwise, once it is drawn on or saved ---
     private void rotateCanvasLeft(Canvas canvas) {
-        WritableImage snapshot = canvas.snapshot(null, null);
-        int newWidth = (int) snapshot.getHeight();
-        int newHeight = (int) snapshot.getWidth();
-
-        WritableImage rotatedImage = new WritableImage(newWidth, newHeight);
-        PixelReader reader = snapshot.getPixelReader();
-
-        for (int y = 0; y < snapshot.getHeight(); y++) {
-            for (int x = 0; x < snapshot.getWidth(); x++) {
-                rotatedImage.getPixelWriter().setArgb(y, newHeight - 1 - x, reader.getArgb(x, y));
-            }
-        }
-
-        resizeCanvas(canvas, newWidth, newHeight);
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, newWidth, newHeight);
-        gc.drawImage(rotatedImage, 0, 0);
+        PendingOrientation.of(canvas).then(Orientation.ROTATE_LEFT);
         logger.logEvent("Canvas", "Rotate Left");
     }
 
-    // --- Mirror entire canvas horizontally ---
+    // --- Mirror entire canvas horizontally, once it is drawn on or saved ---
     private void mirrorCanvasHorizontally(Canvas canvas) {
-        WritableImage snapshot = canvas.snapshot(null, null);
-        int width = (int) snapshot.getWidth();
-        int height = (int) snapshot.getHeight();
-
-        WritableImage mirroredImage = new WritableImage(width, height);
-        PixelReader reader = snapshot.getPixelReader();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                mirroredImage.getPixelWriter().setArgb(width - 1 - x, y, reader.getArgb(x, y));
-            }
-        }
-
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, width, height);
-        gc.drawImage(mirroredImage, 0, 0);
+        PendingOrientation.of(canvas).then(Orientation.MIRROR_HORIZONTAL);
         logger.logEvent("Canvas", "Mirror Horizontally");
     }
 
-    // --- Mirror entire canvas vertically ---
+    // --- Mirror entire canvas vertically, once it is drawn on or saved ---
     private void mirrorCanvasVertically(Canvas canvas) {
-        WritableImage snapshot = canvas.snapshot(null, null);
-        int width = (int) snapshot.getWidth();
-        int height = (int) snapshot.getHeight();
-
-        WritableImage mirroredImage = new WritableImage(width, height);
-        PixelReader reader = snapshot.getPixelReader();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                mirroredImage.getPixelWriter().setArgb(x, height - 1 - y, reader.getArgb(x, y));
-            }
-        }
-
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, width, height);
-        gc.drawImage(mirroredImage, 0, 0);
+        PendingOrientation.of(canvas).then(Orientation.MIRROR_VERTICAL);
         logger.logEvent("Canvas", "Mirror Vertically");
     }
 
@@ -180,70 +164,147 @@ public class CanvasRotator {
 
     // --- Rotate image 90 degrees clockwise ---
     private WritableImage rotateImageRight(WritableImage sourceImage) {
-        int newWidth = (int) sourceImage.getHeight();
-        int newHeight = (int) sourceImage.getWidth();
-
-        WritableImage rotatedImage = new WritableImage(newWidth, newHeight);
-        PixelReader reader = sourceImage.getPixelReader();
-
-        for (int y = 0; y < sourceImage.getHeight(); y++) {
-            for (int x = 0; x < sourceImage.getWidth(); x++) {
-                rotatedImage.getPixelWriter().setArgb(newWidth - 1 - y, x, reader.getArgb(x, y));
-            }
-        }
-
-        return rotatedImage;
+        int width = (int) sourceImage.getWidth();
+        int height = (int) sourceImage.getHeight();
+        return toImage(rotatePixelsRight(PixelConverter.toArgb(sourceImage), width, height), height, width);
     }
 
     // --- Rotate image 90 degrees counterclockwise ---
     private WritableImage rotateImageLeft(WritableImage sourceImage) {
-        int newWidth = (int) sourceImage.getHeight();
-        int newHeight = (int) sourceImage.getWidth();
-
-        WritableImage rotatedImage = new WritableImage(newWidth, newHeight);
-        PixelReader reader = sourceImage.getPixelReader();
-
-        for (int y = 0; y < sourceImage.getHeight(); y++) {
-            for (int x = 0; x < sourceImage.getWidth(); x++) {
-                rotatedImage.getPixelWriter().setArgb(y, newHeight - 1 - x, reader.getArgb(x, y));
-            }
-        }
-
-        return rotatedImage;
+        int width = (int) sourceImage.getWidth();
+        int height = (int) sourceImage.getHeight();
+        return toImage(rotatePixelsLeft(PixelConverter.toArgb(sourceImage), width, height), height, width);
     }
 
     // --- Mirror image horizontally ---
     private WritableImage mirrorImageHorizontally(WritableImage sourceImage) {
         int width = (int) sourceImage.getWidth();
         int height = (int) sourceImage.getHeight();
-
-        WritableImage mirroredImage = new WritableImage(width, height);
-        PixelReader reader = sourceImage.getPixelReader();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                mirroredImage.getPixelWriter().setArgb(width - 1 - x, y, reader.getArgb(x, y));
-            }
-        }
-
-        return mirroredImage;
+        return toImage(mirrorPixelsHorizontally(PixelConverter.toArgb(sourceImage), width, height), width, height);
     }
 
     // --- Mirror image vertically ---
     private WritableImage mirrorImageVertically(WritableImage sourceImage) {
         int width = (int) sourceImage.getWidth();
         int height = (int) sourceImage.getHeight();
+        return toImage(mirrorPixelsVertically(PixelConverter.toArgb(sourceImage), width, height), width, height);
+    }
 
-        WritableImage mirroredImage = new WritableImage(width, height);
-        PixelReader reader = sourceImage.getPixelReader();
+    // --- Write packed ARGB pixels into a new image in one call ---
+    static WritableImage toImage(int[] pixels, int width, int height) {
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
 
-        for (int y = 0; y < height; y++) {
+    /**
+     * Rotates packed ARGB pixels 90 degrees clockwise.
+     *
+     * <p>A rotation turns source columns into target rows, so one side always strides through
+     * memory a row at a time. The source is taken a band of {@link #BAND_ROWS} rows at a time and
+     * read column by column: a column of the band touches only {@code BAND_ROWS} cache lines,
+     * which stay cached for the next fifteen columns, and lands as {@code BAND_ROWS} consecutive
+     * pixels of a target row. Bands are rotated in parallel.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The rotated pixels, {@code height} wide and {@code width} high.
+     */
+    static int[] rotatePixelsRight(int[] pixels, int width, int height) {
+        int[] rotated = new int[width * height];
+        RowStripes.forEach(width, height, BAND_ROWS, (top, bottom) -> {
             for (int x = 0; x < width; x++) {
-                mirroredImage.getPixelWriter().setArgb(x, height - 1 - y, reader.getArgb(x, y));
+                // Source column x becomes target row x, read from the bottom up
+                int target = x * height + height - 1 - top;
+                for (int source = top * width + x, end = bottom * width; source < end; source += width) {
+                    rotated[target--] = pixels[source];
+                }
             }
-        }
+        });
+        return rotated;
+    }
+
+    /**
+     * Rotates packed ARGB pixels 90 degrees counterclockwise, a band of {@link #BAND_ROWS} rows at
+     * a time like {@link #rotatePixelsRight}.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The rotated pixels, {@code height} wide and {@code width} high.
+     */
+    static int[] rotatePixelsLeft(int[] pixels, int width, int height) {
+        int[] rotated = new int[width * height];
+        RowStripes.forEach(width, height, BAND_ROWS, (top, bottom) -> {
+            for (int x = 0; x < width; x++) {
+                // Source column x becomes target row width - 1 - x, read from the top down
+                int target = (width - 1 - x) * height + top;
+                for (int source = top * width + x, end = bottom * width; source < end; source += width) {
+                    rotated[target++] = pixels[source];
+                }
+            }
+        });
+        return rotated;
+    }
+
+    /**
+     * Rotates packed ARGB pixels 180 degrees, which reverses their order.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The rotated pixels.
+     */
+    static int[] rotatePixels180(int[] pixels, int width, int height) {
+        int count = width * height;
+        int[] rotated = new int[count];
+        RowStripes.forEach(width, height, (top, bottom) -> {
+            for (int source = top * width, target = count - 1 - source, end = bottom * width; source < end; source++, target--) {
+                rotated[target] = pixels[source];
+            }
+        });
+        return rotated;
+    }
 
-        return mirroredImage;
+    /**
+     * Mirrors packed ARGB pixels left to right. Rows are independent, so stripes of them are
+     * mirrored in parallel.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The mirrored pixels.
+     */
+    static int[] mirrorPixelsHorizontally(int[] pixels, int width, int height) {
+        int[] mirrored = new int[width * height];
+        RowStripes.forEach(width, height, (top, bottom) -> {
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+                for (int x = 0, target = row + width - 1; x < width; x++, target--) {
+                    mirrored[target] = pixels[row + x];
+                }
+            }
+        });
+        return mirrored;
+    }
+
+    /**
+     * Mirrors packed ARGB pixels top to bottom, copying whole rows in parallel stripes.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The mirrored pixels.
+     */
+    static int[] mirrorPixelsVertically(int[] pixels, int width, int height) {
+        int[] mirrored = new int[width * height];
+        RowStripes.forEach(width, height, (top, bottom) -> {
+            for (int y = top; y < bottom; y++) {
+                System.arraycopy(pixels, y * width, mirrored, (height - 1 - y) * width, width);
+            }
+        });
+        return mirrored;
     }
 
     // --- Resize the canvas ---
@@ -0,0 +1,260 @@
+package org.example.paintfx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code CanvasStreamServer} class implements an HTTP handler that streams the canvas live as
+ * an MJPEG stream: a {@code multipart/x-mixed-replace} response in which every part is a JPEG
+ * frame replacing the previous one. Browsers show such a stream directly in an {@code <img>} tag.
+ *
+ * <p>While at least one client is connected, a single worker thread checks the canvas version up
+ * to {@code maxFps} times a second and, only when it changed, takes a snapshot on the JavaFX
+ * thread and encodes it. Every client is served by a virtual thread of its own that always sends
+ * the newest frame, so a client that reads slower than frames are produced skips the frames in
+ * between instead of queueing them. While the canvas is idle the newest frame is sent again every
+ * {@link #KEEPALIVE_INTERVAL} seconds, so a client that disconnected is noticed and stops the
+ * worker once it was the last.
+ */
+public class CanvasStreamServer implements HttpHandler {
+
+    /** Separates the frames of the multipart response. */
+    private static final String BOUNDARY = "frame";
+
+    /** Time after which an idle client is sent the same frame again, in seconds. */
+    private static final long KEEPALIVE_INTERVAL = 15;
+
+    /**
+     * An encoded frame.
+     *
+     * @param version The canvas version the frame was taken at.
+     * @param bytes   The JPEG image.
+     */
+    private record Frame(long version, byte[] bytes) {
+    }
+
+    /** The canvas being streamed. */
+    private final Canvas canvas;
+
+    /** Supplies the canvas version, so unchanged frames are not encoded again. */
+    private final UndoRedo undoRedo;
+
+    /** Minimum time between two frames, in milliseconds. */
+    private final long frameInterval;
+
+    /** Takes and encodes the frames. */
+    private final ScheduledExecutorService encoder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "canvas-stream-encoder");
+        thread.setDaemon(true);  // Never keep the application alive
+        return thread;
+    });
+
+    /**
+     * Guards the fields below. A lock rather than the object's monitor, so that clients waiting for
+     * a frame do not pin the carriers of their virtual threads.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled whenever a new frame is encoded. */
+    private final Condition frameEncoded = lock.newCondition();
+
+    /** The periodic frame task, running only while clients are connected. */
+    private ScheduledFuture<?> encoding;
+
+    /** Number of connected clients. */
+    private int clients;
+
+    /** The newest frame, or {@code null} until the first one is encoded. */
+    private Frame latestFrame;
+
+    /** Reused for every snapshot; only touched on the JavaFX Application Thread and the encoder thread. */
+    private WritableImage snapshot;
+
+    /**
+     * Constructs a stream of the given canvas.
+     *
+     * @param canvas   The canvas to stream.
+     * @param undoRedo The undo manager of the canvas, whose version tells when the canvas changed.
+     * @param maxFps   The maximum number of frames sent per second.
+     */
+    public CanvasStreamServer(Canvas canvas, UndoRedo undoRedo, int maxFps) {
+        this.canvas = canvas;
+        this.undoRedo = undoRedo;
+        this.frameInterval = Math.max(1, 1000 / Math.max(1, maxFps));
+    }
+
+    /**
+     * Handles a request for the stream. Only GET requests are supported; all other methods return
+     * a 405 (Method Not Allowed) response. The response is written by a virtual thread of its own
+     * until the client disconnects, so the server's executor is not tied up by long-lived streams.
+     *
+     * @param exchange The HTTP exchange containing the request and response objects.
+     * @throws IOException If an I/O error occurs during handling the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);  // 405 Method Not Allowed
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);  // Chunked, for as long as the client stays
+
+        Thread.ofVirtual().name("canvas-stream-client").start(() -> stream(exchange));
+    }
+
+    /**
+     * Sends every new frame to a client until it disconnects, and the last frame again whenever
+     * none was sent for {@link #KEEPALIVE_INTERVAL} seconds.
+     */
+    private void stream(HttpExchange exchange) {
+        clientConnected();
+        try (OutputStream out = exchange.getResponseBody()) {
+            long sentVersion = -1;
+            while (true) {
+                Frame frame;
+                lock.lock();
+                try {
+                    // Frames produced while the previous one was being written are skipped. Without
+                    // a new one the last is sent again, since only a failed write tells the client left
+                    long interval = TimeUnit.SECONDS.toNanos(KEEPALIVE_INTERVAL);
+                    long timeout = interval;
+                    while ((frame = latestFrame) == null || frame.version() == sentVersion && timeout > 0) {
+                        timeout = frameEncoded.awaitNanos(frame == null ? interval : timeout);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                String header = "--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                        + frame.bytes().length + "\r\n\r\n";
+                out.write(header.getBytes(StandardCharsets.US_ASCII));
+                out.write(frame.bytes());
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                sentVersion = frame.version();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client disconnected
+        } finally {
+            clientDisconnected();
+            exchange.close();
+        }
+    }
+
+    private void clientConnected() {
+        lock.lock();
+        try {
+            if (clients++ == 0) {
+                latestFrame = null;  // The canvas may have changed while nobody was watching
+                encoding = encoder.scheduleWithFixedDelay(this::encodeFrame, 0, frameInterval, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clientDisconnected() {
+        lock.lock();
+        try {
+            if (--clients == 0) {
+                encoding.cancel(false);
+                encoding = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes and encodes a frame if the canvas changed since the last one. Runs on the encoder thread.
+     */
+    private void encodeFrame() {
+        try {
+            Frame previous;
+            lock.lock();
+            try {
+                previous = latestFrame;
+            } finally {
+                lock.unlock();
+            }
+            if (previous != null && previous.version() == undoRedo.getVersion()) {
+                return;
+            }
+
+            // Take the snapshot on the JavaFX Application Thread, reading the version along with it
+            final long[] versionHolder = new long[1];
+            final Orientation[] orientationHolder = new Orientation[1];
+            CountDownLatch latch = new CountDownLatch(1);
+            Platform.runLater(() -> {
+                try {
+                    PendingOrientation pending = PendingOrientation.of(canvas);
+                    versionHolder[0] = undoRedo.getVersion();
+                    orientationHolder[0] = pending.getOrientation();
+                    int width = (int) canvas.getWidth();
+                    int height = (int) canvas.getHeight();
+                    if (snapshot == null || (int) snapshot.getWidth() != width || (int) snapshot.getHeight() != height) {
+                        snapshot = new WritableImage(width, height);
+                    }
+                    SnapshotParameters params = new SnapshotParameters();
+                    params.setFill(Color.WHITE);
+                    pending.snapshot(params, snapshot);
+                } finally {
+                    latch.countDown();
+                }
+            });
+            latch.await();
+
+            // JPEG has no alpha channel, so the pixels go straight into an RGB image
+            BufferedImage image = PixelConverter.toBufferedImage(snapshot, BufferedImage.TYPE_INT_RGB);
+            Orientation orientation = orientationHolder[0];
+            if (orientation != Orientation.IDENTITY) {
+                // Stream the canvas as it is shown, rotating a copy rather than the document
+                int width = image.getWidth();
+                int height = image.getHeight();
+                int[] pixels = orientation.apply(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), width, height);
+                image = orientation.swapsDimensions() ? new BufferedImage(height, width, BufferedImage.TYPE_INT_RGB)
+                        : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                System.arraycopy(pixels, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, pixels.length);
+            }
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", os);
+
+            lock.lock();
+            try {
+                latestFrame = new Frame(versionHolder[0], os.toByteArray());
+                frameEncoded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();  // Try again on the next tick
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.example.paintfx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The {@code CanvasTileServer} class implements an HTTP handler that serves the canvas as an image
+ * pyramid for deep-zoom viewers, so a very large canvas can be browsed without ever encoding it
+ * as a whole.
+ *
+ * <p>{@code GET /canvas/tiles} returns the layout of the pyramid as JSON:
+ * {@code {"width","height","tileSize","levels"}}. {@code GET /canvas/tiles/{level}/{x}/{y}}
+ * returns the PNG tile in column {@code x} and row {@code y} of a level. Level 0 is the canvas at
+ * full size; every level above it is half the size of the one below, down to the last level,
+ * which fits in a single tile. Tiles are {@value #TILE_SIZE} pixels square, except at the right
+ * and bottom edges.
+ *
+ * <p>The server keeps a copy of the canvas pixels that is brought up to date, from the canvas's
+ * {@link DirtyTileTracker}, when a tile is requested after the canvas changed. Tiles are generated
+ * on request by a pool of worker threads, each downscaled straight from the copy with a box
+ * filter, and the encoded tiles are kept in a cache that evicts the least recently used once it
+ * holds {@code cacheBytes}. A change to the canvas only evicts the tiles it overlaps, at every level.
+ */
+public class CanvasTileServer implements HttpHandler {
+
+    /** Width and height of a pyramid tile, in pixels. */
+    public static final int TILE_SIZE = 256;
+
+    /** The canvas being served. */
+    private final Canvas canvas;
+
+    /** Tells which tiles of the canvas were drawn on. */
+    private final DirtyTileTracker tracker;
+
+    /** Generates the tiles, so neither the JavaFX thread nor the server's executor does the work. */
+    private final ExecutorService workers;
+
+    /** The encoded tiles by {@link #key(int, int, int)}, least recently used first. Guarded by itself. */
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** Maximum size of the cached tiles, in bytes. */
+    private final long cacheBytes;
+
+    /** Current size of the cached tiles, in bytes. Guarded by {@link #cache}. */
+    private long cachedBytes;
+
+    /**
+     * Held for reading while a tile is generated from the copy of the canvas and for writing while
+     * the copy is updated, so no tile generated from outdated pixels outlives the eviction.
+     */
+    private final ReadWriteLock pixelsLock = new ReentrantReadWriteLock();
+
+    // The following fields are written under the write lock and the monitor of this server
+
+    /** Copy of the canvas pixels, or {@code null} until the first request. */
+    private int[] pixels;
+    private int width;
+    private int height;
+
+    /** The tracker generation the copy is up to date with. */
+    private volatile long pixelsGeneration = -1;
+
+    /** Reused for every snapshot; only touched on the JavaFX Application Thread and the refreshing thread. */
+    private WritableImage snapshot;
+
+    /**
+     * Constructs a tile server for the given canvas. Must be called on the JavaFX Application
+     * Thread, which owns the canvas's tracker.
+     *
+     * @param canvas     The canvas to serve.
+     * @param threads    The number of worker threads generating tiles.
+     * @param cacheBytes The maximum size of the cached tiles, in bytes.
+     */
+    public CanvasTileServer(Canvas canvas, int threads, long cacheBytes) {
+        this.canvas = canvas;
+        this.tracker = DirtyTileTracker.of(canvas);
+        this.cacheBytes = cacheBytes;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "canvas-tile-worker");
+            thread.setDaemon(true);  // Never keep the application alive
+            return thread;
+        });
+    }
+
+    /**
+     * Handles a request for the pyramid layout or a tile. Only GET requests are supported; all
+     * other methods return a 405 (Method Not Allowed) response. Malformed paths return 400 (Bad
+     * Request), and tiles outside the pyramid 404 (Not Found).
+     *
+     * @param exchange The HTTP exchange containing the request and response objects.
+     * @throws IOException If an I/O error occurs during handling the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);  // 405 Method Not Allowed
+                return;
+            }
+
+            // The path after the context starts with a slash, so the first part is empty
+            String path = exchange.getRequestURI().getPath();
+            String context = exchange.getHttpContext().getPath();
+            String[] parts = path.substring(Math.min(path.length(), context.length())).split("/");
+
+            refresh();
+
+            if (parts.length <= 1) {
+                String json;
+                pixelsLock.readLock().lock();
+                try {
+                    json = "{\"width\":" + width + ",\"height\":" + height + ",\"tileSize\":" + TILE_SIZE
+                            + ",\"levels\":" + levelCount(width, height) + "}";
+                } finally {
+                    pixelsLock.readLock().unlock();
+                }
+                send(exchange, "application/json", json.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            int level, x, y;
+            try {
+                if (parts.length != 4) {
+                    throw new NumberFormatException();
+                }
+                level = Integer.parseInt(parts[1]);
+                x = Integer.parseInt(parts[2]);
+                y = Integer.parseInt(parts[3]);
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);  // 400 Bad Request
+                return;
+            }
+
+            byte[] tile = getTile(level, x, y);
+            if (tile == null) {
+                exchange.sendResponseHeaders(404, -1);  // 404 Not Found
+                return;
+            }
+            send(exchange, "image/png", tile);
+        } catch (Exception e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);  // 500 Internal Server Error
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");  // Tiles change with the canvas
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(body);
+        outputStream.flush();
+    }
+
+    /**
+     * Returns the number of levels of the pyramid of an image, from full size down to a single tile.
+     */
+    static int levelCount(int width, int height) {
+        int levels = 1;
+        while ((Math.max(width, height) - 1 >> (levels - 1)) >= TILE_SIZE) {
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Tells whether a tile is part of the pyramid of the copy. Compares tile numbers rather than
+     * pixel offsets, so huge tile numbers cannot overflow into range. Must hold the read lock.
+     */
+    private boolean inPyramid(int level, int tileX, int tileY) {
+        if (level < 0 || level >= levelCount(width, height)) {
+            return false;
+        }
+        int levelWidth = (width - 1 >> level) + 1;
+        int levelHeight = (height - 1 >> level) + 1;
+        return tileX >= 0 && tileY >= 0
+                && tileX < (levelWidth + TILE_SIZE - 1) / TILE_SIZE && tileY < (levelHeight + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static long key(int level, int x, int y) {
+        return (long) level << 56 | (long) x << 28 | y;
+    }
+
+    /**
+     * Returns an encoded tile, generating it on a worker thread if it is not cached.
+     *
+     * @return The PNG tile, or {@code null} if the tile is outside the pyramid.
+     */
+    private byte[] getTile(int level, int x, int y) throws Exception {
+        pixelsLock.readLock().lock();
+        try {
+            if (!inPyramid(level, x, y)) {
+                return null;  // Checked before the key is built, as it only holds tiles of the pyramid
+            }
+            synchronized (cache) {
+                byte[] cached = cache.get(key(level, x, y));
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        } finally {
+            pixelsLock.readLock().unlock();
+        }
+        try {
+            return workers.submit(() -> generateTile(level, x, y)).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Downscales a tile from the copy of the canvas, encodes it and caches it. Runs on a worker thread.
+     */
+    private byte[] generateTile(int level, int tileX, int tileY) throws IOException {
+        pixelsLock.readLock().lock();
+        try {
+            if (!inPyramid(level, tileX, tileY)) {
+                return null;  // The canvas shrank since the request was checked
+            }
+            int levelWidth = (width - 1 >> level) + 1;
+            int levelHeight = (height - 1 >> level) + 1;
+            int left = tileX * TILE_SIZE;
+            int top = tileY * TILE_SIZE;
+
+            long key = key(level, tileX, tileY);
+            synchronized (cache) {
+                byte[] cached = cache.get(key);
+                if (cached != null) {
+                    return cached;  // Generated by another worker in the meantime
+                }
+            }
+
+            int tileWidth = Math.min(TILE_SIZE, levelWidth - left);
+            int tileHeight = Math.min(TILE_SIZE, levelHeight - top);
+            BufferedImage image = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+            int[] tile = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            downscale(level, left, top, tileWidth, tileHeight, tile);
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", os);
+            byte[] bytes = os.toByteArray();
+            cache(key, bytes);
+            return bytes;
+        } finally {
+            pixelsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Averages every block of {@code 2^level} by {@code 2^level} pixels of the copy into one pixel
+     * of the tile. Blocks cut off by the edge of the canvas average the pixels they contain.
+     */
+    private void downscale(int level, int left, int top, int tileWidth, int tileHeight, int[] tile) {
+        int scale = 1 << level;
+        for (int row = 0; row < tileHeight; row++) {
+            int sourceTop = (top + row) * scale;
+            int sourceBottom = Math.min(height, sourceTop + scale);
+            for (int column = 0; column < tileWidth; column++) {
+                int sourceLeft = (left + column) * scale;
+                int sourceRight = Math.min(width, sourceLeft + scale);
+                if (level == 0) {
+                    tile[row * tileWidth + column] = pixels[sourceTop * width + sourceLeft];
+                    continue;
+                }
+
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int y = sourceTop; y < sourceBottom; y++) {
+                    for (int x = sourceLeft; x < sourceRight; x++) {
+                        int argb = pixels[y * width + x];
+                        a += argb >>> 24;
+                        r += argb >> 16 & 0xFF;
+                        g += argb >> 8 & 0xFF;
+                        b += argb & 0xFF;
+                    }
+                }
+                long count = (long) (sourceRight - sourceLeft) * (sourceBottom - sourceTop);
+                tile[row * tileWidth + column] = (int) ((a + count / 2) / count) << 24 | (int) ((r + count / 2) / count) << 16
+                        | (int) ((g + count / 2) / count) << 8 | (int) ((b + count / 2) / count);
+            }
+        }
+    }
+
+    private void cache(long key, byte[] bytes) {
+        synchronized (cache) {
+            byte[] previous = cache.put(key, bytes);
+            cachedBytes += bytes.length - (previous != null ? previous.length : 0);
+            Iterator<byte[]> eldest = cache.values().iterator();
+            while (cachedBytes > cacheBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Brings the copy of the canvas up to date if the canvas changed since, evicting the tiles of
+     * every level that overlap the changed canvas tiles. Requests arriving while one refresh is
+     * in progress wait for it instead of starting their own.
+     */
+    private synchronized void refresh() throws InterruptedException {
+        if (tracker.getGeneration() == pixelsGeneration) {
+            return;
+        }
+
+        // Take the snapshot on the JavaFX Application Thread, listing the changed tiles along with it
+        final long[] generationHolder = new long[1];
+        final int[][] tilesHolder = new int[1][];
+        final Orientation[] orientationHolder = new Orientation[1];
+        final long since = pixelsGeneration;
+        CountDownLatch latch = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            try {
+                PendingOrientation pending = PendingOrientation.of(canvas);
+                generationHolder[0] = tracker.getGeneration();
+                tilesHolder[0] = tracker.getTilesChangedSince(since);
+                orientationHolder[0] = pending.getOrientation();
+                int snapshotWidth = tracker.getWidth();
+                int snapshotHeight = tracker.getHeight();
+                if (snapshot == null || (int) snapshot.getWidth() != snapshotWidth || (int) snapshot.getHeight() != snapshotHeight) {
+                    snapshot = new WritableImage(snapshotWidth, snapshotHeight);
+                }
+                SnapshotParameters params = new SnapshotParameters();
+                params.setFill(Color.WHITE);
+                pending.snapshot(params, snapshot);
+            } finally {
+                latch.countDown();
+            }
+        });
+        latch.await();
+
+        Orientation orientation = orientationHolder[0];
+        int snapshotWidth = (int) snapshot.getWidth();
+        int snapshotHeight = (int) snapshot.getHeight();
+        pixelsLock.writeLock().lock();
+        try {
+            if (orientation != Orientation.IDENTITY) {
+                // Serve the canvas as it is shown, rotating a copy rather than the document. The
+                // changed tiles are those of the canvas as drawn, so every tile is replaced
+                width = orientation.swapsDimensions() ? snapshotHeight : snapshotWidth;
+                height = orientation.swapsDimensions() ? snapshotWidth : snapshotHeight;
+                pixels = orientation.apply(PixelConverter.toArgb(snapshot), snapshotWidth, snapshotHeight);
+                synchronized (cache) {
+                    cache.clear();
+                    cachedBytes = 0;
+                }
+            } else if (pixels == null || snapshotWidth != width || snapshotHeight != height) {
+                // Every tile of every level moves when the canvas is resized
+                width = snapshotWidth;
+                height = snapshotHeight;
+                pixels = new int[width * height];
+                snapshot.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+                synchronized (cache) {
+                    cache.clear();
+                    cachedBytes = 0;
+                }
+            } else {
+                for (int index : tilesHolder[0]) {
+                    int x = TileDelta.tileX(width, index);
+                    int y = TileDelta.tileY(width, index);
+                    int tileWidth = TileDelta.tileWidth(width, index);
+                    int tileHeight = TileDelta.tileHeight(width, height, index);
+                    snapshot.getPixelReader().getPixels(x, y, tileWidth, tileHeight, PixelFormat.getIntArgbInstance(),
+                            pixels, y * width + x, width);
+                    evict(x, y, tileWidth, tileHeight);
+                }
+            }
+            pixelsGeneration = generationHolder[0];
+        } finally {
+            pixelsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evicts the cached tiles of every level that overlap a rectangle of the canvas.
+     */
+    private void evict(int x, int y, int width, int height) {
+        synchronized (cache) {
+            for (int level = 0; level < levelCount(this.width, this.height); level++) {
+                int tileSize = TILE_SIZE << level;
+                for (int row = y / tileSize; row <= (y + height - 1) / tileSize; row++) {
+                    for (int column = x / tileSize; column <= (x + width - 1) / tileSize; column++) {
+                        byte[] removed = cache.remove(key(level, column, row));
+                        if (removed != null) {
+                            cachedBytes -= removed.length;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
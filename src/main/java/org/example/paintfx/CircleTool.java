@@ -18,17 +18,35 @@ public class CircleTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
-        double radius = Math.abs(event.getX() - startX);  // Use horizontal distance as the radius for the circle
-        double x = Math.min(startX, event.getX()) - radius;
-        double y = Math.min(startY, event.getY()) - radius;
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
+
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
+        double radius = Math.abs(operation.getEndX() - startX);  // Use horizontal distance as the radius for the circle
+        double x = Math.min(startX, operation.getEndX()) - radius;
+        double y = Math.min(startY, operation.getEndY()) - radius;
 
-        gc.setFill(fillColor);
+        gc.setFill(operation.getFillColor());
         gc.fillOval(x, y, radius * 2, radius * 2);  // Draw the circle
-        gc.setStroke(borderColor);
-        gc.setLineWidth(borderWidth);
+        gc.setStroke(operation.getBorderColor());
+        gc.setLineWidth(operation.getBorderWidth());
         gc.strokeOval(x, y, radius * 2, radius * 2);
     }
 
+    @Override
+    protected double[] getBounds(DrawOperation operation) {
+        // The circle extends a radius beyond the corner nearest the origin
+        double radius = Math.abs(operation.getEndX() - operation.getStartX());
+        double margin = operation.getBorderWidth() + 2;
+        double x = Math.min(operation.getStartX(), operation.getEndX()) - radius - margin;
+        double y = Math.min(operation.getStartY(), operation.getEndY()) - radius - margin;
+        return new double[]{x, y, radius * 2 + 2 * margin, radius * 2 + 2 * margin};
+    }
+
     @Override
     protected String getShapeName() {
         return "Circle";
@@ -0,0 +1,318 @@
+package org.example.paintfx;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code CommandHistory} class is the command-log mode of {@link UndoRedo}. Instead of
+ * storing pixels for every action, it records the {@link DrawOperation}s that produced each
+ * state and keeps a full raster keyframe only every few operations. Undo restores the nearest
+ * keyframe at or before the target state and replays the operations recorded after it, so no
+ * more than {@code keyframeInterval} operations are replayed for any undo or redo.
+ *
+ * <p>A state only consists of operations if every change since the previous state was recorded
+ * through {@link #recordOperation(DrawOperation)}. Anything else - a rotation, an opened image,
+ * a moved selection - makes the next state a keyframe read back from the canvas.
+ *
+ * <p>The list of states mirrors the raster stacks: the states before {@code position} form the
+ * undo stack, the states after it form the redo stack, and {@code position} is the live canvas.
+ */
+class CommandHistory {
+
+    /**
+     * A state in the history: a keyframe, or the previous state, with operations drawn on top.
+     */
+    private static class State {
+        /** Full raster of the state the operations start from, or {@code null} to start from the previous state. */
+        final TileDelta keyframe;
+
+        /** Operations drawn on top of the keyframe or the previous state. */
+        final List<DrawOperation> operations;
+
+        /** Number of operations replayed to restore this state, counted from the nearest keyframe. */
+        final int depth;
+
+        State(TileDelta keyframe, List<DrawOperation> operations, int depth) {
+            this.keyframe = keyframe;
+            this.operations = operations;
+            this.depth = depth;
+        }
+    }
+
+    /** Every state in the history, oldest first. */
+    private final List<State> states = new ArrayList<>();
+
+    /**
+     * Index of the live canvas in {@link #states}. Equal to the size of the list right after a
+     * push, when the live canvas has not been stored yet.
+     */
+    private int position;
+
+    /** Operations recorded since the canvas last matched a stored state. */
+    private final List<DrawOperation> pending = new ArrayList<>();
+
+    /** Whether the changes since the canvas last matched a stored state are known; false right after a push. */
+    private boolean recorded = true;
+
+    /** Whether a change that cannot be replayed was made since the canvas last matched a stored state. */
+    private boolean unrecordedChange;
+
+    private final UndoRedo owner;
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+    private final UndoMemoryBudget budget;
+
+    /** Maximum number of operations replayed for a single undo or redo. */
+    private final int keyframeInterval;
+
+    CommandHistory(UndoRedo owner, Canvas canvas, GraphicsContext gc, UndoMemoryBudget budget, int keyframeInterval) {
+        this.owner = owner;
+        this.canvas = canvas;
+        this.gc = gc;
+        this.budget = budget;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Stores the live canvas as a new undoable state and discards the redo states. Until an
+     * operation is recorded, the next state is assumed to need a keyframe.
+     */
+    void push() {
+        truncate(isStored() ? position + 1 : position);
+        store();
+        position++;
+        recorded = false;  // Nothing is known about the coming action until it records an operation
+    }
+
+    /**
+     * Records an operation drawn on the live canvas.
+     *
+     * @param operation The operation, or {@code null} if the change cannot be replayed.
+     */
+    void recordOperation(DrawOperation operation) {
+        if (operation == null) {
+            unrecordedChange = true;
+            pending.clear();  // The next state will be a keyframe anyway
+        } else if (!unrecordedChange) {
+            pending.add(operation);
+            recorded = true;
+        }
+    }
+
+    void undo() {
+        store();
+        position--;
+        restore(position);
+    }
+
+    void redo() {
+        store();
+        position++;
+        restore(position);
+    }
+
+    boolean canUndo() {
+        return position > 0;
+    }
+
+    boolean canRedo() {
+        return position < states.size() - 1;
+    }
+
+    /**
+     * Checks whether the live canvas already has an entry in {@link #states}.
+     */
+    private boolean isStored() {
+        return position < states.size();
+    }
+
+    /**
+     * Makes the entry at {@code position} describe the live canvas, either by appending the
+     * pending operations to the state the canvas started from or by reading back a keyframe.
+     */
+    private void store() {
+        if (isStored() && recorded && !unrecordedChange && pending.isEmpty()) {
+            return;  // The canvas still matches its stored state
+        }
+
+        // The canvas started from the stored state itself after an undo or redo, or from the one before it after a push
+        State base = isStored() ? states.get(position) : (position > 0 ? states.get(position - 1) : null);
+        State state;
+        if (base == null || !recorded || unrecordedChange || base.depth + pending.size() > keyframeInterval) {
+            state = new State(readKeyframe(), List.of(), 0);
+        } else if (isStored()) {
+            List<DrawOperation> operations = new ArrayList<>(base.operations);
+            operations.addAll(pending);
+            state = new State(base.keyframe, operations, base.depth + pending.size());
+        } else {
+            state = new State(null, List.copyOf(pending), base.depth + pending.size());
+        }
+
+        if (isStored()) {
+            // A following state replayed on top of the old contents cannot survive the change
+            if (position + 1 < states.size() && states.get(position + 1).keyframe == null) {
+                truncate(position + 1);
+            }
+            State replaced = states.set(position, state);
+            if (replaced.keyframe != state.keyframe) {
+                discard(replaced);
+            }
+        } else {
+            states.add(state);
+        }
+        markClean();
+    }
+
+    /**
+     * Notes that the live canvas matches the state at {@code position}.
+     */
+    private void markClean() {
+        pending.clear();
+        recorded = true;
+        unrecordedChange = false;
+    }
+
+    /**
+     * Reads the canvas into a full delta used as a keyframe and queues it for compression.
+     */
+    private TileDelta readKeyframe() {
+        int width = (int) canvas.getWidth();
+        int height = (int) canvas.getHeight();
+        int[] pixels = owner.readCanvas(width, height);
+        TileDelta keyframe = TileDelta.diff(pixels, width, height, null, 0, 0, budget.getTileStore());
+        budget.getCompressor().submit(keyframe);
+        return keyframe;
+    }
+
+    /**
+     * Draws a stored state onto the canvas by restoring the nearest keyframe at or before it and
+     * replaying the operations recorded since.
+     *
+     * @param index The index of the state to restore.
+     */
+    private void restore(int index) {
+        int start = index;
+        while (states.get(start).keyframe == null) {
+            start--;
+        }
+
+        TileDelta keyframe = states.get(start).keyframe;
+        int width = keyframe.getWidth();
+        int height = keyframe.getHeight();
+        if (width != (int) canvas.getWidth() || height != (int) canvas.getHeight()) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+        }
+        gc.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), keyframe.toPixels(), 0, width);
+
+        for (int i = start; i <= index; i++) {
+            for (DrawOperation operation : states.get(i).operations) {
+                operation.replay(gc);
+            }
+        }
+        DirtyTileTracker.of(canvas).markAll();
+        markClean();
+    }
+
+    /**
+     * Removes the states from {@code size} onwards.
+     */
+    private void truncate(int size) {
+        while (states.size() > size) {
+            discard(states.remove(states.size() - 1));
+        }
+    }
+
+    private void discard(State state) {
+        if (state.keyframe != null) {
+            state.keyframe.discard();
+        }
+    }
+
+    /**
+     * Removes every state, releasing keyframes held in the spill store.
+     */
+    void clear() {
+        truncate(0);
+        position = 0;
+        markClean();
+    }
+
+    /**
+     * Returns the least recently used keyframe that still holds tiles in memory.
+     *
+     * @return The keyframe to spill first, or {@code null} if none is held in memory.
+     */
+    TileDelta getLeastRecentlyUsedKeyframe() {
+        TileDelta oldest = null;
+        for (State state : states) {
+            TileDelta keyframe = state.keyframe;
+            if (keyframe != null && keyframe.getByteSize() > 0 && (oldest == null || keyframe.getLastUsed() < oldest.getLastUsed())) {
+                oldest = keyframe;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Drops the oldest states up to the next keyframe, since the states in between are replayed
+     * from the first one. The live canvas and the states after it are never dropped.
+     *
+     * @return The number of bytes of memory freed, or -1 if nothing can be dropped.
+     */
+    long dropOldest() {
+        int next = 1;
+        while (next < position && states.get(next).keyframe == null) {
+            next++;
+        }
+        if (next >= position) {
+            return -1;
+        }
+        long bytes = 0;
+        for (int i = 0; i < next; i++) {
+            State dropped = states.remove(0);
+            if (dropped.keyframe != null) {
+                bytes += dropped.keyframe.getByteSize();
+            }
+            discard(dropped);
+        }
+        position -= next;
+        return bytes;
+    }
+
+    long getMemoryUsage() {
+        long bytes = 0;
+        for (State state : states) {
+            if (state.keyframe != null) {
+                bytes += state.keyframe.getByteSize();
+            }
+        }
+        return bytes;
+    }
+
+    long getSpilledBytes() {
+        long bytes = 0;
+        for (State state : states) {
+            if (state.keyframe != null) {
+                bytes += state.keyframe.getSpilledSize();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of operations stored across all states.
+     *
+     * @return The length of the command log.
+     */
+    int getOperationCount() {
+        int count = 0;
+        for (State state : states) {
+            count += state.operations.size();
+        }
+        return count;
+    }
+}
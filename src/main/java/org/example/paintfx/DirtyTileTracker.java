@@ -0,0 +1,146 @@
+package org.example.paintfx;
+
+import javafx.scene.canvas.Canvas;
+import java.util.Arrays;
+
+/**
+ * The {@code DirtyTileTracker} class records which tiles of a canvas were drawn on, so that
+ * viewers of the canvas can be sent only the tiles that changed, and {@link UndoRedo} reads back
+ * only those tiles. The canvas is divided into the same grid of {@link TileDelta#TILE_SIZE} tiles
+ * used by the undo history, so anything drawn on the canvas must be marked here.
+ *
+ * <p>Every call to one of the {@code mark} methods increments a generation counter and stamps the
+ * affected tiles with it; {@link #getTilesChangedSince(long)} then lists the tiles stamped after
+ * a given generation. The drawing tools report the area they draw on, and a resize of the canvas
+ * marks every tile.
+ *
+ * <p>There is one tracker per canvas, obtained with {@link #of(Canvas)}. Tiles are marked and
+ * listed on the JavaFX Application Thread; only {@link #getGeneration()} may be called from
+ * other threads.
+ */
+public class DirtyTileTracker {
+
+    private int width;
+    private int height;
+
+    /** The generation at which each tile was last marked, by tile index. */
+    private long[] tileGenerations;
+
+    /** Incremented by every mark. */
+    private volatile long generation;
+
+    private DirtyTileTracker(Canvas canvas) {
+        resize((int) canvas.getWidth(), (int) canvas.getHeight());
+        canvas.widthProperty().addListener((obs, oldWidth, newWidth) -> resize((int) canvas.getWidth(), (int) canvas.getHeight()));
+        canvas.heightProperty().addListener((obs, oldHeight, newHeight) -> resize((int) canvas.getWidth(), (int) canvas.getHeight()));
+    }
+
+    /**
+     * Returns the tracker of a canvas, creating it the first time.
+     *
+     * @param canvas The canvas.
+     * @return The canvas's tracker.
+     */
+    public static DirtyTileTracker of(Canvas canvas) {
+        Object tracker = canvas.getProperties().get(DirtyTileTracker.class);
+        if (tracker == null) {
+            tracker = new DirtyTileTracker(canvas);
+            canvas.getProperties().put(DirtyTileTracker.class, tracker);
+        }
+        return (DirtyTileTracker) tracker;
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tileGenerations = new long[TileDelta.tileCount(width, height)];
+        markAll();
+    }
+
+    /**
+     * Marks the tiles overlapping a rectangle. Parts of the rectangle outside the canvas are ignored.
+     *
+     * @param x      The x-coordinate of the rectangle.
+     * @param y      The y-coordinate of the rectangle.
+     * @param width  The width of the rectangle.
+     * @param height The height of the rectangle.
+     */
+    public void markDirty(double x, double y, double width, double height) {
+        int left = Math.max(0, (int) Math.floor(x));
+        int top = Math.max(0, (int) Math.floor(y));
+        int right = Math.min(this.width, (int) Math.ceil(x + width));
+        int bottom = Math.min(this.height, (int) Math.ceil(y + height));
+        if (left >= right || top >= bottom) {
+            return;
+        }
+
+        long stamp = ++generation;
+        int across = TileDelta.tilesAcross(this.width);
+        for (int row = top / TileDelta.TILE_SIZE; row <= (bottom - 1) / TileDelta.TILE_SIZE; row++) {
+            for (int column = left / TileDelta.TILE_SIZE; column <= (right - 1) / TileDelta.TILE_SIZE; column++) {
+                tileGenerations[row * across + column] = stamp;
+            }
+        }
+    }
+
+    /**
+     * Marks tiles by index.
+     *
+     * @param indices The indices of the tiles, row-major.
+     */
+    public void markTiles(int[] indices) {
+        long stamp = ++generation;
+        for (int index : indices) {
+            if (index < tileGenerations.length) {
+                tileGenerations[index] = stamp;
+            }
+        }
+    }
+
+    /**
+     * Marks every tile, for changes that affect the whole canvas.
+     */
+    public void markAll() {
+        Arrays.fill(tileGenerations, ++generation);
+    }
+
+    /**
+     * Returns the generation of the last mark. Safe to call from any thread.
+     *
+     * @return The current generation.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Lists the tiles marked after a generation.
+     *
+     * @param since A generation returned by {@link #getGeneration()}.
+     * @return The indices of the tiles marked since, row-major.
+     */
+    public int[] getTilesChangedSince(long since) {
+        int count = 0;
+        for (long stamp : tileGenerations) {
+            if (stamp > since) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        int next = 0;
+        for (int index = 0; index < tileGenerations.length; index++) {
+            if (tileGenerations[index] > since) {
+                indices[next++] = index;
+            }
+        }
+        return indices;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
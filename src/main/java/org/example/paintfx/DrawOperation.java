@@ -0,0 +1,205 @@
+package org.example.paintfx;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * The {@code DrawOperation} class records a single drawing action so that it can be replayed
+ * onto a canvas later. A shape operation keeps the {@link ShapeTool} that drew it along with the
+ * start and end points and the colors and border width in effect, and for text the string and its
+ * font size; a freehand stroke keeps the points of its path instead.
+ *
+ * <p>Operations are immutable and only a few hundred bytes, which lets {@link UndoRedo} keep a
+ * log of them instead of a raster snapshot per action.
+ */
+public class DrawOperation {
+
+    /** The tool that draws the shape, or {@code null} for a freehand stroke. */
+    private final ShapeTool tool;
+
+    private final double startX, startY, endX, endY;
+    private final Color fillColor;
+    private final Color borderColor;
+    private final double borderWidth;
+
+    /** The dash pattern of the outline, or {@code null} for a solid line. */
+    private final double[] lineDashes;
+
+    /** Number of polygon sides or star points, for tools where it can be changed. */
+    private final int vertexCount;
+
+    /** Text drawn by the text tool. */
+    private final String text;
+
+    /** Font size of the text, in points. */
+    private final double fontSize;
+
+    /** Points of a freehand stroke as x, y pairs. */
+    private final double[] points;
+
+    /**
+     * Creates a shape operation.
+     *
+     * @param tool        The tool that draws the shape.
+     * @param startX      The x-coordinate where the mouse was pressed.
+     * @param startY      The y-coordinate where the mouse was pressed.
+     * @param endX        The x-coordinate where the mouse was released.
+     * @param endY        The y-coordinate where the mouse was released.
+     * @param fillColor   The fill color of the shape.
+     * @param borderColor The border color of the shape.
+     * @param borderWidth The width of the border.
+     * @param lineDashes  The dash pattern of the border, or {@code null} for a solid border.
+     * @param vertexCount The number of polygon sides or star points, or 0 if not applicable.
+     * @throws IllegalArgumentException If the tool's result cannot be replayed.
+     */
+    public DrawOperation(ShapeTool tool, double startX, double startY, double endX, double endY,
+                         Color fillColor, Color borderColor, double borderWidth, double[] lineDashes,
+                         int vertexCount) {
+        this(tool, startX, startY, endX, endY, fillColor, borderColor, borderWidth, lineDashes, vertexCount, null, 0);
+    }
+
+    private DrawOperation(ShapeTool tool, double startX, double startY, double endX, double endY,
+                          Color fillColor, Color borderColor, double borderWidth, double[] lineDashes,
+                          int vertexCount, String text, double fontSize) {
+        if (!tool.isReplayable()) {
+            throw new IllegalArgumentException(tool.getShapeName() + " cannot be replayed");
+        }
+        this.tool = tool;
+        this.startX = startX;
+        this.startY = startY;
+        this.endX = endX;
+        this.endY = endY;
+        this.fillColor = fillColor;
+        this.borderColor = borderColor;
+        this.borderWidth = borderWidth;
+        this.lineDashes = lineDashes;
+        this.vertexCount = vertexCount;
+        this.text = text;
+        this.fontSize = fontSize;
+        this.points = null;
+    }
+
+    private DrawOperation(double[] points, Color color, double width, double[] lineDashes) {
+        this.tool = null;
+        this.startX = points[0];
+        this.startY = points[1];
+        this.endX = points[points.length - 2];
+        this.endY = points[points.length - 1];
+        this.fillColor = null;
+        this.borderColor = color;
+        this.borderWidth = width;
+        this.lineDashes = lineDashes;
+        this.vertexCount = 0;
+        this.text = null;
+        this.fontSize = 0;
+        this.points = points;
+    }
+
+    /**
+     * Creates a freehand stroke operation, also used for straight lines and the eraser.
+     *
+     * @param points     The points of the stroke as x, y pairs; at least one point.
+     * @param color      The stroke color.
+     * @param width      The stroke width.
+     * @param lineDashes The dash pattern, or {@code null} for a solid line.
+     * @return The stroke operation.
+     */
+    public static DrawOperation stroke(double[] points, Color color, double width, double[] lineDashes) {
+        return new DrawOperation(points, color, width, lineDashes);
+    }
+
+    /**
+     * Creates a text operation.
+     *
+     * @param tool        The text tool, which draws the text.
+     * @param x           The x-coordinate of the start of the baseline.
+     * @param y           The y-coordinate of the baseline.
+     * @param text        The text to draw.
+     * @param fontSize    The font size, in points.
+     * @param fillColor   The fill color of the glyphs.
+     * @param borderColor The outline color of the glyphs.
+     * @param borderWidth The width of the outline.
+     * @param lineDashes  The dash pattern of the outline, or {@code null} for a solid outline.
+     * @return The text operation.
+     */
+    public static DrawOperation text(TextTool tool, double x, double y, String text, double fontSize,
+                                     Color fillColor, Color borderColor, double borderWidth, double[] lineDashes) {
+        return new DrawOperation(tool, x, y, x, y, fillColor, borderColor, borderWidth, lineDashes, 0, text, fontSize);
+    }
+
+    /**
+     * Draws this operation onto a graphics context. The context's fill, stroke, line width and
+     * dash settings are left as they were.
+     *
+     * @param gc The graphics context to draw on.
+     */
+    public void replay(GraphicsContext gc) {
+        gc.save();
+        gc.setLineDashes(lineDashes);
+        if (tool != null) {
+            tool.drawShape(gc, this);
+        } else {
+            gc.setStroke(borderColor);
+            gc.setLineWidth(borderWidth);
+            gc.beginPath();
+            gc.moveTo(points[0], points[1]);
+            for (int i = 2; i < points.length; i += 2) {
+                gc.lineTo(points[i], points[i + 1]);
+            }
+            gc.stroke();
+        }
+        gc.restore();
+    }
+
+    public ShapeTool getTool() {
+        return tool;
+    }
+
+    public double getStartX() {
+        return startX;
+    }
+
+    public double getStartY() {
+        return startY;
+    }
+
+    public double getEndX() {
+        return endX;
+    }
+
+    public double getEndY() {
+        return endY;
+    }
+
+    public Color getFillColor() {
+        return fillColor;
+    }
+
+    public Color getBorderColor() {
+        return borderColor;
+    }
+
+    public double getBorderWidth() {
+        return borderWidth;
+    }
+
+    public double[] getLineDashes() {
+        return lineDashes;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public double getFontSize() {
+        return fontSize;
+    }
+
+    public double[] getPoints() {
+        return points;
+    }
+}
@@ -18,15 +18,23 @@ public class EllipseTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
-        double width = Math.abs(event.getX() - startX);
-        double height = Math.abs(event.getY() - startY);
-        double x = Math.min(startX, event.getX());
-        double y = Math.min(startY, event.getY());
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
+
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
+        double width = Math.abs(operation.getEndX() - startX);
+        double height = Math.abs(operation.getEndY() - startY);
+        double x = Math.min(startX, operation.getEndX());
+        double y = Math.min(startY, operation.getEndY());
 
-        gc.setFill(fillColor);
+        gc.setFill(operation.getFillColor());
         gc.fillOval(x, y, width, height);  // Draw the ellipse
-        gc.setStroke(borderColor);
-        gc.setLineWidth(borderWidth);
+        gc.setStroke(operation.getBorderColor());
+        gc.setLineWidth(operation.getBorderWidth());
         gc.strokeOval(x, y, width, height);
     }
     @Override
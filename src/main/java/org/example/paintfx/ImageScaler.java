@@ -0,0 +1,74 @@
+package org.example.paintfx;
+
+/**
+ * The {@code ImageScaler} class shrinks packed ARGB images with an area filter: every pixel of
+ * the result is the average of the block of source pixels it covers. Cheap enough to make
+ * thumbnails of the canvas on every request, and free of the aliasing of nearest-neighbor
+ * sampling at large reduction factors.
+ */
+public final class ImageScaler {
+
+    private ImageScaler() {
+    }
+
+    /**
+     * Shrinks an image. Each target pixel averages the source pixels whose top-left corner falls
+     * in its area, so sizes that do not divide evenly produce blocks differing by one pixel.
+     *
+     * @param pixels    The source pixels, row by row.
+     * @param width     The width of the source.
+     * @param height    The height of the source.
+     * @param newWidth  The width of the result; at most {@code width}.
+     * @param newHeight The height of the result; at most {@code height}.
+     * @return The pixels of the result, row by row.
+     */
+    public static int[] downscale(int[] pixels, int width, int height, int newWidth, int newHeight) {
+        if (newWidth == width && newHeight == height) {
+            return pixels.clone();
+        }
+
+        // Column bounds are the same for every row, so compute them once
+        int[] columnStarts = new int[newWidth + 1];
+        for (int x = 0; x <= newWidth; x++) {
+            columnStarts[x] = (int) ((long) x * width / newWidth);
+        }
+
+        int[] result = new int[newWidth * newHeight];
+        long[] a = new long[newWidth];
+        long[] r = new long[newWidth];
+        long[] g = new long[newWidth];
+        long[] b = new long[newWidth];
+        for (int y = 0; y < newHeight; y++) {
+            int top = (int) ((long) y * height / newHeight);
+            int bottom = (int) ((long) (y + 1) * height / newHeight);
+
+            // Sum the block row by row, walking the source in memory order
+            for (int sourceY = top; sourceY < bottom; sourceY++) {
+                int offset = sourceY * width;
+                for (int x = 0; x < newWidth; x++) {
+                    long sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+                    for (int sourceX = columnStarts[x]; sourceX < columnStarts[x + 1]; sourceX++) {
+                        int argb = pixels[offset + sourceX];
+                        sumA += argb >>> 24;
+                        sumR += argb >> 16 & 0xFF;
+                        sumG += argb >> 8 & 0xFF;
+                        sumB += argb & 0xFF;
+                    }
+                    a[x] += sumA;
+                    r[x] += sumR;
+                    g[x] += sumG;
+                    b[x] += sumB;
+                }
+            }
+
+            for (int x = 0; x < newWidth; x++) {
+                long count = (long) (columnStarts[x + 1] - columnStarts[x]) * (bottom - top);
+                long half = count / 2;
+                result[y * newWidth + x] = (int) ((a[x] + half) / count) << 24 | (int) ((r[x] + half) / count) << 16
+                        | (int) ((g[x] + half) / count) << 8 | (int) ((b[x] + half) / count);
+                a[x] = r[x] = g[x] = b[x] = 0;
+            }
+        }
+        return result;
+    }
+}
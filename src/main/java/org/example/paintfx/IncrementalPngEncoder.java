@@ -0,0 +1,158 @@
+package org.example.paintfx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code IncrementalPngEncoder} class encodes a sequence of images of the same canvas, reusing
+ * the compressed output of the stripes that did not change since the previous image.
+ *
+ * <p>It cuts every image into the stripes of a {@link PngEncoder}, which are deflated
+ * independently and end in a sync flush, so any compressed stripe can be put next to any other.
+ * Each stripe is keyed by a 64-bit hash of its pixels together with the row above it, which its
+ * filters read. When the hash matches the stripe at the same position in the previous image, its
+ * compressed data is reused as is; only the stripes that changed are filtered and deflated again.
+ * The IDAT chunks, their CRCs and the checksum of the zlib stream are then stitched together anew,
+ * so a small edit on a large canvas costs little more than hashing it.
+ *
+ * <p>The encoder remembers one image at a time and is meant to be owned by whatever saves or serves
+ * a single canvas. Comparing and deflating the stripes is serialized, since it updates the
+ * remembered image, but the PNG is written out afterwards without holding the lock, so a slow
+ * stream does not hold up other callers.
+ */
+public class IncrementalPngEncoder extends PngEncoder {
+
+    // The layout and stripes of the previous image; a change of layout discards the stripes
+    private int width;
+    private int height;
+    private boolean alpha;
+    private long[] hashes;
+    private PngEncoder.Stripe[] stripes;
+
+    /** Number of stripes reused and deflated for the previous image. */
+    private int reusedStripes;
+    private int encodedStripes;
+
+    /**
+     * Constructs an incremental encoder.
+     *
+     * @param encoder The encoder whose compression level, pool and stripe size are used.
+     */
+    public IncrementalPngEncoder(PngEncoder encoder) {
+        super(encoder);
+    }
+
+    /**
+     * Encodes packed ARGB pixels as a PNG, deflating only the stripes that changed since the previous call.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param out    The stream to write the PNG to. It is not closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    @Override
+    public void encode(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        boolean alpha = PngEncoder.hasAlpha(pixels, width * height);
+        List<ForkJoinTask<PngEncoder.Stripe>> tasks = compress(pixels, width, height, alpha);
+        write(out, width, height, alpha, tasks);  // Every task is done, so this only writes
+    }
+
+    /**
+     * Brings the stripes of the previous image up to date with the given pixels, reusing those whose
+     * hash did not change.
+     *
+     * @return The stripes from top to bottom, all of them complete.
+     */
+    private synchronized List<ForkJoinTask<PngEncoder.Stripe>> compress(int[] pixels, int width, int height, boolean alpha) {
+        int bytesPerPixel = alpha ? 4 : 3;
+        int rows = getStripeRows(width, bytesPerPixel);
+        int count = (height + rows - 1) / rows;
+
+        if (stripes == null || width != this.width || height != this.height || alpha != this.alpha) {
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+            hashes = new long[count];
+            stripes = new PngEncoder.Stripe[count];
+        }
+
+        // Hash every stripe in parallel, deflating it only when the hash changed
+        long[] previousHashes = hashes;
+        PngEncoder.Stripe[] previousStripes = stripes;
+        long[] newHashes = new long[count];
+        PngEncoder.Stripe[] newStripes = new PngEncoder.Stripe[count];
+        AtomicInteger reused = new AtomicInteger();
+        List<ForkJoinTask<PngEncoder.Stripe>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            int top = i * rows;
+            int bottom = Math.min(height, top + rows);
+            boolean last = i == count - 1;
+            tasks.add(getPool().submit(() -> {
+                long hash = hash(pixels, width, Math.max(0, top - 1), bottom);
+                PngEncoder.Stripe stripe;
+                if (previousStripes[index] != null && previousHashes[index] == hash) {
+                    stripe = previousStripes[index];
+                    reused.incrementAndGet();
+                } else {
+                    stripe = compressStripe(pixels, width, top, bottom, bytesPerPixel, last);
+                }
+                newHashes[index] = hash;
+                newStripes[index] = stripe;
+                return stripe;
+            }));
+        }
+
+        for (ForkJoinTask<PngEncoder.Stripe> task : tasks) {
+            task.join();
+        }
+        hashes = newHashes;
+        stripes = newStripes;
+        reusedStripes = reused.get();
+        encodedStripes = count - reusedStripes;
+        return tasks;
+    }
+
+    /**
+     * Hashes the rows from {@code top} up to {@code bottom}, mixing every pixel into 64 bits.
+     */
+    private static long hash(int[] pixels, int width, int top, int bottom) {
+        long hash = 0x9E3779B97F4A7C15L * (bottom - top + 1);
+        for (int i = top * width, end = bottom * width; i < end; i++) {
+            hash = (hash ^ pixels[i]) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of stripes of the previous image whose compressed data was reused.
+     *
+     * @return The number of reused stripes.
+     */
+    public synchronized int getReusedStripes() {
+        return reusedStripes;
+    }
+
+    /**
+     * Returns the number of stripes of the previous image that were deflated.
+     *
+     * @return The number of deflated stripes.
+     */
+    public synchronized int getEncodedStripes() {
+        return encodedStripes;
+    }
+
+    /**
+     * Forgets the previous image, releasing its compressed stripes.
+     */
+    public synchronized void reset() {
+        hashes = null;
+        stripes = null;
+    }
+}
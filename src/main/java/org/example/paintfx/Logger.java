@@ -8,10 +8,12 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Logger {
     private final ExecutorService executorService;
     private final String logFilePath;
+    private final AtomicInteger queuedEvents = new AtomicInteger();  // Submitted but not yet written
 
     // Constructor that initializes the ExecutorService and generates a unique log file path
     public Logger() {
@@ -37,6 +39,7 @@ public class Logger {
 
     // Method to log an event, runs on a separate thread
     public void logEvent(String tabName, String action) {
+        queuedEvents.incrementAndGet();
         executorService.submit(() -> {
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFilePath, true))) {
                 // Format the current date and time
@@ -50,10 +53,17 @@ public class Logger {
                 writer.newLine();
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                queuedEvents.decrementAndGet();
             }
         });
     }
 
+    // Number of events waiting to be written, including the one being written
+    public int getQueueDepth() {
+        return queuedEvents.get();
+    }
+
     // Method to shutdown the executor service when logging is no longer needed
     public void shutdown() {
         executorService.shutdown();
@@ -0,0 +1,427 @@
+package org.example.paintfx;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The {@code Metrics} class is the registry of the application's metrics, written out in the
+ * Prometheus text format by {@link MetricsServer}.
+ *
+ * <p>Counters and histograms are created once, typically into static fields, and then updated from
+ * any thread without allocating or locking: counts are kept in {@link LongAdder}s, which spread
+ * contended updates over several cells, and histograms have fixed buckets chosen when they are
+ * created. Values that are cheaper to read when scraped than to keep up to date, such as the heap
+ * size, are registered as gauges with a supplier instead.
+ *
+ * <p>Some values can only be read on the JavaFX Application Thread, such as the undo memory of a
+ * tab, whose stacks are modified there. Gauges registered with {@link #fxGauge} are all sampled in
+ * a single pass on that thread when the metrics are scraped. If the thread is busy for longer than
+ * {@link #FX_SAMPLE_TIMEOUT_MS}, the values of the previous scrape are reported.
+ */
+public final class Metrics {
+
+    /** Bucket bounds for durations, in seconds. */
+    public static final double[] DURATION_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /** Bucket bounds for sizes, in bytes. */
+    public static final double[] SIZE_BUCKETS = {1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20, 4 << 20, 16 << 20, 64 << 20};
+
+    /** How long a scrape waits for the JavaFX thread to sample its gauges, in milliseconds. */
+    public static final long FX_SAMPLE_TIMEOUT_MS = 1000;
+
+    /** The metric families by name, in the order they were registered. */
+    private static final Map<String, Family> families = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * A metric name with its help text and type, and one child per set of labels.
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Child> children = new LinkedHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * One labelled time series, or several for a histogram.
+     */
+    private interface Child {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter implements Child {
+        private final LongAdder count = new LongAdder();
+
+        private Counter() {
+        }
+
+        /** Adds one to the count. */
+        public void increment() {
+            count.increment();
+        }
+
+        /**
+         * Adds to the count.
+         *
+         * @param amount The amount to add; not negative.
+         */
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        /**
+         * Returns the count.
+         *
+         * @return The sum of all increments so far.
+         */
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, "", labels, null, count.sum());
+        }
+    }
+
+    /**
+     * A distribution of observed values over fixed buckets. Values are observed as longs in a base
+     * unit, such as nanoseconds, and written out scaled to the unit of the metric, such as seconds.
+     */
+    public static final class Histogram implements Child {
+        private final double[] bounds;
+        private final long[] limits;
+        private final double scale;
+        private final LongAdder[] buckets;  // Not cumulative; the last one counts the values above every bound
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(double[] bounds, double scale) {
+            this.bounds = bounds;
+            this.scale = scale;
+            limits = new long[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                limits[i] = Math.round(bounds[i] / scale);
+            }
+            buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a value.
+         *
+         * @param value The value in the base unit of the histogram.
+         */
+        public void observe(long value) {
+            int i = 0;
+            while (i < limits.length && value > limits[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Records the time elapsed since a start time, for histograms in nanoseconds.
+         *
+         * @param startNanos The value of {@link System#nanoTime()} when the timed work started.
+         */
+        public void observeSince(long startNanos) {
+            observe(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Returns the number of values recorded.
+         *
+         * @return The count of observations.
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < bounds.length ? format(bounds[i]) : "+Inf";
+                sample(out, name, "_bucket", labels, "le=\"" + le + "\"", cumulative);
+            }
+            sample(out, name, "_sum", labels, null, sum.sum() * scale);
+            sample(out, name, "_count", labels, null, cumulative);
+        }
+    }
+
+    /**
+     * A value read from a supplier when the metrics are scraped.
+     */
+    private static final class Sampled implements Child {
+        final DoubleSupplier supplier;
+        final boolean fxThread;
+        volatile double value = Double.NaN;
+
+        Sampled(DoubleSupplier supplier, boolean fxThread) {
+            this.supplier = supplier;
+            this.fxThread = fxThread;
+        }
+
+        void update() {
+            try {
+                value = supplier.getAsDouble();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            if (!fxThread) {
+                update();
+            }
+            if (!Double.isNaN(value)) {
+                sample(out, name, "", labels, null, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the counter with a name and labels, creating it the first time.
+     *
+     * @param name   The metric name; by convention ending in {@code _total}.
+     * @param help   The description of the metric.
+     * @param labels Label names and values, alternating.
+     * @return The counter.
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) child(name, help, "counter", labels, Counter::new);
+    }
+
+    /**
+     * Returns the histogram of durations with a name and labels, creating it the first time. Its
+     * values are observed in nanoseconds and written out in seconds.
+     *
+     * @param name   The metric name; by convention ending in {@code _seconds}.
+     * @param help   The description of the metric.
+     * @param labels Label names and values, alternating.
+     * @return The histogram.
+     */
+    public static Histogram timer(String name, String help, String... labels) {
+        return histogram(name, help, DURATION_BUCKETS, 1e-9, labels);
+    }
+
+    /**
+     * Returns the histogram with a name and labels, creating it the first time.
+     *
+     * @param name    The metric name.
+     * @param help    The description of the metric.
+     * @param buckets The upper bounds of the buckets in the unit of the metric, in ascending order.
+     * @param scale   The size of the base unit values are observed in, in the unit of the metric.
+     * @param labels  Label names and values, alternating.
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name, String help, double[] buckets, double scale, String... labels) {
+        return (Histogram) child(name, help, "histogram", labels, () -> new Histogram(buckets, scale));
+    }
+
+    /**
+     * Registers a gauge read from a supplier on the scraping thread, replacing any with the same labels.
+     *
+     * @param name     The metric name.
+     * @param help     The description of the metric.
+     * @param supplier Returns the current value; must be thread-safe.
+     * @param labels   Label names and values, alternating.
+     */
+    public static void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        register(name, help, "gauge", labels, new Sampled(supplier, false));
+    }
+
+    /**
+     * Registers a counter read from a supplier on the scraping thread, for counts kept elsewhere,
+     * replacing any with the same labels.
+     *
+     * @param name     The metric name; by convention ending in {@code _total}.
+     * @param help     The description of the metric.
+     * @param supplier Returns the current count; must be thread-safe.
+     * @param labels   Label names and values, alternating.
+     */
+    public static void counterFunction(String name, String help, DoubleSupplier supplier, String... labels) {
+        register(name, help, "counter", labels, new Sampled(supplier, false));
+    }
+
+    /**
+     * Registers a gauge read from a supplier on the JavaFX Application Thread, replacing any with the same labels.
+     *
+     * @param name     The metric name.
+     * @param help     The description of the metric.
+     * @param supplier Returns the current value.
+     * @param labels   Label names and values, alternating.
+     */
+    public static void fxGauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        register(name, help, "gauge", labels, new Sampled(supplier, true));
+    }
+
+    /**
+     * Removes a metric, such as the gauge of a closed tab.
+     *
+     * @param name   The metric name.
+     * @param labels Label names and values, alternating, as registered.
+     */
+    public static void remove(String name, String... labels) {
+        synchronized (families) {
+            Family family = families.get(name);
+            if (family != null) {
+                family.children.remove(labels(labels));
+            }
+        }
+    }
+
+    private static Child child(String name, String help, String type, String[] labels, Supplier<Child> factory) {
+        synchronized (families) {
+            Family family = family(name, help, type);
+            return family.children.computeIfAbsent(labels(labels), key -> factory.get());
+        }
+    }
+
+    private static void register(String name, String help, String type, String[] labels, Child child) {
+        synchronized (families) {
+            family(name, help, type).children.put(labels(labels), child);
+        }
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Writes out every metric in the Prometheus text format, version 0.0.4.
+     *
+     * @return The exposition text.
+     */
+    public static String scrape() {
+        // Copy the children, so the registry is not locked while suppliers run
+        List<Family> snapshot = new ArrayList<>();
+        List<Sampled> fxSamples = new ArrayList<>();
+        synchronized (families) {
+            for (Family family : families.values()) {
+                Family copy = new Family(family.name, family.help, family.type);
+                copy.children.putAll(family.children);
+                snapshot.add(copy);
+                for (Child child : family.children.values()) {
+                    if (child instanceof Sampled sampled && sampled.fxThread) {
+                        fxSamples.add(sampled);
+                    }
+                }
+            }
+        }
+        sampleOnFxThread(fxSamples);
+
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : snapshot) {
+            if (family.children.isEmpty()) {
+                continue;
+            }
+            out.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Child> entry : family.children.entrySet()) {
+                entry.getValue().write(out, family.name, entry.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Samples gauges on the JavaFX thread in one pass, waiting a bounded time for it.
+     */
+    private static void sampleOnFxThread(List<Sampled> samples) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Platform.runLater(() -> {
+                try {
+                    for (Sampled sample : samples) {
+                        sample.update();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+            if (!latch.await(FX_SAMPLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                System.out.println("Metrics: JavaFX thread busy, reporting the previous values of " + samples.size() + " gauges");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            // The toolkit is not running, so there is no thread to sample on
+        }
+    }
+
+    /**
+     * Formats label names and values, escaping the values.
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String suffix, String labels, String extraLabel, double value) {
+        out.append(name).append(suffix);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.paintfx;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@code MetricsServer} class implements an HTTP handler that serves the {@link Metrics} of
+ * the application in the Prometheus text format, for scraping at {@code /metrics}.
+ *
+ * <p>{@link #instrument(HttpContext)} adds a filter to another context that counts its requests by
+ * status class and records their latency. The latency runs from the start of the request until the
+ * handler returns, so for the streaming endpoints it is the length of the connection.
+ *
+ * <p>Constructing the server also registers the heap usage and the collection counts and times
+ * of every garbage collector of the JVM.
+ */
+public class MetricsServer implements HttpHandler {
+
+    /**
+     * Constructs the server and registers the JVM's memory and garbage collection metrics.
+     */
+    public MetricsServer() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Metrics.gauge("jvm_memory_used_bytes", "Memory used by the JVM, by area.",
+                () -> memory.getHeapMemoryUsage().getUsed(), "area", "heap");
+        Metrics.gauge("jvm_memory_used_bytes", "Memory used by the JVM, by area.",
+                () -> memory.getNonHeapMemoryUsage().getUsed(), "area", "nonheap");
+        Metrics.gauge("jvm_memory_committed_bytes", "Memory committed by the JVM, by area.",
+                () -> memory.getHeapMemoryUsage().getCommitted(), "area", "heap");
+        Metrics.gauge("jvm_memory_committed_bytes", "Memory committed by the JVM, by area.",
+                () -> memory.getNonHeapMemoryUsage().getCommitted(), "area", "nonheap");
+        Metrics.gauge("jvm_memory_max_bytes", "Maximum memory the JVM may use, by area; -1 if unbounded.",
+                () -> memory.getHeapMemoryUsage().getMax(), "area", "heap");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Metrics.counterFunction("jvm_gc_collections_total", "Number of collections, by garbage collector.",
+                    gc::getCollectionCount, "gc", gc.getName());
+            Metrics.counterFunction("jvm_gc_collection_seconds_total", "Time spent in collections, by garbage collector.",
+                    () -> gc.getCollectionTime() / 1000.0, "gc", gc.getName());
+        }
+    }
+
+    /**
+     * Records the requests of a context: their number by status class and their latency. The
+     * metrics are labelled with the path of the context.
+     *
+     * @param context The context to instrument.
+     * @return The context, for chaining.
+     */
+    public static HttpContext instrument(HttpContext context) {
+        context.getFilters().add(new RequestFilter(context.getPath()));
+        return context;
+    }
+
+    /**
+     * Counts and times the requests of one context. The counters are created up front, so a
+     * request only updates them.
+     */
+    private static final class RequestFilter extends Filter {
+        private final String endpoint;
+        private final Metrics.Histogram latency;
+
+        /** By status class: unanswered, 1xx, 2xx, 3xx, 4xx and 5xx. */
+        private final Metrics.Counter[] requests = new Metrics.Counter[6];
+
+        RequestFilter(String endpoint) {
+            this.endpoint = endpoint;
+            latency = Metrics.timer("paintfx_http_request_duration_seconds",
+                    "Time from the start of a request until its handler returned, by endpoint.", "endpoint", endpoint);
+            String[] codes = {"none", "1xx", "2xx", "3xx", "4xx", "5xx"};
+            for (int i = 0; i < codes.length; i++) {
+                requests[i] = Metrics.counter("paintfx_http_requests_total",
+                        "Requests handled, by endpoint and status class; none if no response was sent.",
+                        "endpoint", endpoint, "code", codes[i]);
+            }
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            long start = System.nanoTime();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                latency.observeSince(start);
+                int code = exchange.getResponseCode();
+                requests[code >= 100 && code < 600 ? code / 100 : 0].increment();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Records the requests to " + endpoint;
+        }
+    }
+
+    /**
+     * Handles a scrape. Only GET requests are supported; all other methods return a 405 (Method
+     * Not Allowed) response.
+     *
+     * @param exchange The HTTP exchange containing the request and response objects.
+     * @throws IOException If an I/O error occurs during handling the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);  // 405 Method Not Allowed
+                return;
+            }
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(body);
+            outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);  // 500 Internal Server Error
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -46,6 +46,7 @@ public class MoveSelectionTool extends ShapeTool {
             // Clear the original selection area on the main canvas
             gc.setFill(Color.WHITE);
             gc.fillRect(selectionX, selectionY, selectionWidth, selectionHeight);
+            DirtyTileTracker.of(gc.getCanvas()).markDirty(selectionX, selectionY, selectionWidth, selectionHeight);
         }
     }
 
@@ -110,6 +111,7 @@ public class MoveSelectionTool extends ShapeTool {
             gc.drawImage(canvasSnapshot, 0, 0);
             gc.setFill(Color.WHITE);  // Optionally fill the original area with white or another color
             gc.fillRect(selectionX, selectionY, selectionWidth, selectionHeight);
+            DirtyTileTracker.of(gc.getCanvas()).markAll();  // The snapshot may be older than the canvas
         }
     }
 
@@ -119,6 +121,7 @@ public class MoveSelectionTool extends ShapeTool {
 
         // Draw the selected image in its new position on the main canvas
         gc.drawImage(selectedImage, newX, newY);
+        DirtyTileTracker.of(gc.getCanvas()).markDirty(newX, newY, selectedImage.getWidth(), selectedImage.getHeight());
 
         // Clear the selected image and reset the canvas
         selectedImage = null;
@@ -149,11 +152,46 @@ public class MoveSelectionTool extends ShapeTool {
 
         // Draw the rotated image at the new position
         gc.drawImage(rotatedImage, selectionX, selectionY);
+        double extent = Math.max(selectionWidth, selectionHeight);
+        DirtyTileTracker.of(gc.getCanvas()).markDirty(selectionX, selectionY, extent, extent);
 
         // Clear the selected image to indicate the selection is no longer active
         selectedImage = null;
     }
 
+    /**
+     * Replaces the selection with a transformed copy of it and drops the selection, like
+     * {@link #applyRotatedSelection} but for a copy of any size and position.
+     *
+     * @param transformedImage The transformed copy.
+     * @param x                Where its left edge goes on the canvas.
+     * @param y                Where its top edge goes on the canvas.
+     */
+    public void applyTransformedSelection(WritableImage transformedImage, double x, double y) {
+        // Clear the original selection area
+        gc.setFill(Color.WHITE);
+        gc.fillRect(selectionX, selectionY, selectionWidth, selectionHeight);
+        DirtyTileTracker.of(gc.getCanvas()).markDirty(selectionX, selectionY, selectionWidth, selectionHeight);
+
+        selectionX = x;
+        selectionY = y;
+        selectionWidth = transformedImage.getWidth();
+        selectionHeight = transformedImage.getHeight();
+        gc.drawImage(transformedImage, selectionX, selectionY);
+        DirtyTileTracker.of(gc.getCanvas()).markDirty(selectionX, selectionY, selectionWidth, selectionHeight);
+
+        // Clear the selected image to indicate the selection is no longer active
+        selectedImage = null;
+    }
+
+    /**
+     * A moved selection draws pixels held by the tool rather than the canvas, so it cannot be replayed.
+     */
+    @Override
+    public boolean isReplayable() {
+        return false;
+    }
+
     @Override
     protected String getShapeName() {
         return "Move Selection";
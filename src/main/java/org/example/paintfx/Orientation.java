@@ -0,0 +1,105 @@
+package org.example.paintfx;
+
+import java.awt.geom.AffineTransform;
+
+/**
+ * The {@code Orientation} enum lists the eight ways an image can be turned by quarter turns and
+ * mirrors: the four rotations, each with or without a horizontal mirror first.
+ *
+ * <p>Any sequence of rotations and mirrors amounts to one of them, so a sequence can be composed
+ * with {@link #then} in constant time, and the pixels moved only once, by {@link #apply}, however
+ * long the sequence was.
+ */
+public enum Orientation {
+    IDENTITY(0, false),
+    ROTATE_RIGHT(1, false),
+    ROTATE_180(2, false),
+    ROTATE_LEFT(3, false),
+    MIRROR_HORIZONTAL(0, true),
+    /** Mirrored across the diagonal from the top right to the bottom left. */
+    TRANSVERSE(1, true),
+    MIRROR_VERTICAL(2, true),
+    /** Mirrored across the diagonal from the top left to the bottom right. */
+    TRANSPOSE(3, true);
+
+    /** Clockwise quarter turns, after the mirror. */
+    private final int quarterTurns;
+
+    /** Whether the image is mirrored left to right before it is turned. */
+    private final boolean mirrored;
+
+    Orientation(int quarterTurns, boolean mirrored) {
+        this.quarterTurns = quarterTurns;
+        this.mirrored = mirrored;
+    }
+
+    private static Orientation of(int quarterTurns, boolean mirrored) {
+        return values()[(quarterTurns & 3) + (mirrored ? 4 : 0)];
+    }
+
+    /**
+     * Composes this orientation with another one applied after it.
+     *
+     * @param next The orientation applied next.
+     * @return The orientation equivalent to this one followed by {@code next}.
+     */
+    public Orientation then(Orientation next) {
+        // A mirror turns later rotations the other way: mirroring after a turn equals
+        // mirroring first and then turning back
+        int turns = next.mirrored ? next.quarterTurns - quarterTurns : next.quarterTurns + quarterTurns;
+        return of(turns, mirrored != next.mirrored);
+    }
+
+    /**
+     * Returns whether the orientation swaps the width and the height of an image.
+     *
+     * @return {@code true} for an odd number of quarter turns.
+     */
+    public boolean swapsDimensions() {
+        return (quarterTurns & 1) == 1;
+    }
+
+    /**
+     * Moves pixels into this orientation, in one pass or, for the diagonal mirrors, two.
+     *
+     * @param pixels The pixels, row by row. Returned as they are for {@link #IDENTITY}.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The reoriented pixels; {@code height} wide and {@code width} high if {@link #swapsDimensions()}.
+     */
+    public int[] apply(int[] pixels, int width, int height) {
+        return switch (this) {
+            case IDENTITY -> pixels;
+            case ROTATE_RIGHT -> CanvasRotator.rotatePixelsRight(pixels, width, height);
+            case ROTATE_180 -> CanvasRotator.rotatePixels180(pixels, width, height);
+            case ROTATE_LEFT -> CanvasRotator.rotatePixelsLeft(pixels, width, height);
+            case MIRROR_HORIZONTAL -> CanvasRotator.mirrorPixelsHorizontally(pixels, width, height);
+            case TRANSVERSE -> CanvasRotator.rotatePixelsRight(CanvasRotator.mirrorPixelsHorizontally(pixels, width, height), width, height);
+            case MIRROR_VERTICAL -> CanvasRotator.mirrorPixelsVertically(pixels, width, height);
+            case TRANSPOSE -> CanvasRotator.rotatePixelsLeft(CanvasRotator.mirrorPixelsHorizontally(pixels, width, height), width, height);
+        };
+    }
+
+    /**
+     * Returns the transform that maps an image onto its reoriented copy, with the copy's top-left
+     * corner at the origin, for displaying the image reoriented without moving its pixels.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The transform.
+     */
+    public AffineTransform toTransform(double width, double height) {
+        AffineTransform transform = new AffineTransform();
+        if (mirrored) {
+            transform.preConcatenate(new AffineTransform(-1, 0, 0, 1, width, 0));
+        }
+        for (int i = 0; i < quarterTurns; i++) {
+            // A clockwise quarter turn of an image as high as the current one is
+            transform.preConcatenate(new AffineTransform(0, 1, -1, 0, height, 0));
+            double swap = width;
+            width = height;
+            height = swap;
+        }
+        return transform;
+    }
+}
@@ -20,7 +20,6 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.*;
 import javafx.scene.layout.*;
@@ -31,9 +30,14 @@ import javafx.stage.FileChooser;
 import javafx.scene.control.Alert.AlertType;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
@@ -66,6 +70,7 @@ public class PaintApp extends Application {
 
     private boolean dashEnabled = false;
     private double startX, startY;  // Starting point for the line
+    private double lineEndX, lineEndY;  // End point of the straight line drawn last, which the next drag erases
 
     private boolean isDrawingSaved = false; // Track if the drawing is saved
 
@@ -73,6 +78,7 @@ public class PaintApp extends Application {
     private boolean straightLineEnabled = false;
     private double lineWidth = 5;                               //default drawing thickness
     private double eraserWidth = 10;
+    private final List<Double> strokePoints = new ArrayList<>();  // Points of the freehand stroke being drawn
 
     private File currentFile;                                   //for saving loaded file/displayed image to a file
     GraphicsContext gc = canvas.getGraphicsContext2D();  //interacting with the canvas
@@ -81,7 +87,23 @@ public class PaintApp extends Application {
 
     private TabPane tabPane;
 
-    UndoRedo undoRedo = new UndoRedo(canvas, logger, gc);
+    UndoRedo undoRedo;  // The active tab's undo history
+
+    // Undo memory shared by every tab, in bytes; older states beyond it are spilled to disk
+    private final UndoMemoryBudget undoBudget = new UndoMemoryBudget(Long.getLong("paintfx.undoBudget", 256L * 1024 * 1024));
+
+    // Encodes saved PNGs in parallel stripes
+    private final PngEncoder pngEncoder = new PngEncoder();
+
+    // Serves every open tab over HTTP; tabs register themselves as they are opened and closed
+    private final TabServer tabServer = new TabServer();
+
+    // When above 0, undo records drawing operations with a keyframe every this many operations instead of pixels
+    private final int undoKeyframeInterval = Integer.getInteger("paintfx.undoKeyframeInterval", 0);
+
+    // Each tab's undo history is journaled here so it can be recovered after a crash
+    private final File journalDirectory = new File(System.getProperty("user.dir"), "journal");
+    private final boolean undoJournalEnabled = Boolean.parseBoolean(System.getProperty("paintfx.undoJournal", "true"));
 
     private AutosaveManager autosaveManager;
     private Label countdownLabel;
@@ -92,6 +114,8 @@ public class PaintApp extends Application {
         logger = new Logger();
         tabPane = new TabPane();
         ScrollPane scrollPane = new ScrollPane(tabPane);
+        // Journals still on disk were left by a session that did not close normally
+        File[] recoveredJournals = undoJournalEnabled ? journalDirectory.listFiles((dir, name) -> name.endsWith(".journal")) : null;
         // Add an initial tab on startup
         addNewTab();  // This creates the first tab and sets up the canvas and GraphicsContext
 
@@ -103,6 +127,7 @@ public class PaintApp extends Application {
         this.gc = firstTabContent.getGraphicsContext();  // Set the active GraphicsContext
         this.overlayCanvas=firstTabContent.getOverlayCanvas();
         this.overlayGc=firstTabContent.getOverlayGraphicsContext();
+        this.undoRedo = firstTabContent.getUndoRedo();
 
         // Add the "+" tab for adding new tabs
         Tab plusTab = new Tab("+");
@@ -183,18 +208,56 @@ public class PaintApp extends Application {
 
         CanvasRotator rotator = new CanvasRotator(logger);
 
-        clockWiseButton.setOnAction(e-> rotator.rotateRight(canvas, moveSelectionTool));
-        counterClockWiseButton.setOnAction(e -> rotator.rotateLeft(canvas, moveSelectionTool));
-        mirrorHorizontalButton.setOnAction(e -> rotator.mirrorHorizontally(canvas, moveSelectionTool));
-        mirrorVerticalButton.setOnAction(e -> rotator.mirrorVertically(canvas, moveSelectionTool));
+        clockWiseButton.setOnAction(e -> {
+            if (moveSelectionTool.isSelectionActive()) {
+                undoRedo.pushToUndoStack();  // The whole canvas is only turned once it is drawn on or saved
+            }
+            rotator.rotateRight(canvas, moveSelectionTool);
+        });
+        counterClockWiseButton.setOnAction(e -> {
+            if (moveSelectionTool.isSelectionActive()) {
+                undoRedo.pushToUndoStack();
+            }
+            rotator.rotateLeft(canvas, moveSelectionTool);
+        });
+        mirrorHorizontalButton.setOnAction(e -> {
+            if (moveSelectionTool.isSelectionActive()) {
+                undoRedo.pushToUndoStack();
+            }
+            rotator.mirrorHorizontally(canvas, moveSelectionTool);
+        });
+        mirrorVerticalButton.setOnAction(e -> {
+            if (moveSelectionTool.isSelectionActive()) {
+                undoRedo.pushToUndoStack();
+            }
+            rotator.mirrorVertically(canvas, moveSelectionTool);
+        });
+        Button transformButton = new Button("Transform");
+        transformButton.setOnAction(e -> {
+            PendingOrientation.of(canvas).apply();
+            new TransformDialog(canvas, overlayCanvas, moveSelectionTool).showAndWait().ifPresent(transform -> {
+                undoRedo.pushToUndoStack();
+                try {
+                    rotator.transform(canvas, moveSelectionTool, transform.matrix(), transform.quality());
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("Could not apply the transform: " + ex.getMessage());
+                }
+            });
+        });
         currentTool = new RectangleTool(gc, logger, rectButton);
 
         // Undo and Redo buttons
         Button undoButton = new Button("Undo");
-        undoButton.setOnAction(e -> undoRedo.undo());
+        undoButton.setOnAction(e -> {
+            PendingOrientation.of(canvas).apply();  // So that undoing takes back the rotations too
+            undoRedo.undo();
+        });
 
         Button redoButton = new Button("Redo");
-        redoButton.setOnAction(e -> undoRedo.redo());
+        redoButton.setOnAction(e -> {
+            PendingOrientation.of(canvas).apply();
+            undoRedo.redo();
+        });
 
         //copy and paste buttons
         Button copyButton = new Button("Copy");
@@ -262,6 +325,7 @@ public class PaintApp extends Application {
             counterClockWiseButton,
             mirrorHorizontalButton,
             mirrorVerticalButton,
+            transformButton,
             autoSaver,
             createDrawButton(),                 //draw toggle
             createLineColorPicker(),                         //color chooser
@@ -322,12 +386,14 @@ public class PaintApp extends Application {
         scene.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
             // CTRL + Z to UNDO
             if (new KeyCodeCombination(KeyCode.Z, KeyCombination.CONTROL_DOWN).match(event)) {
+                PendingOrientation.of(canvas).apply();
                 undoRedo.undo();
                 event.consume();  // Consume the event so it's not processed further
             }
 
             // CTRL + Y to REDO
             if (new KeyCodeCombination(KeyCode.Y, KeyCombination.CONTROL_DOWN).match(event)) {
+                PendingOrientation.of(canvas).apply();
                 undoRedo.redo();
                 event.consume();  // Consume the event so it's not processed further
             }
@@ -357,13 +423,73 @@ public class PaintApp extends Application {
         HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
 
         // Use the CanvasHttpHandler to serve the live canvas image
-        server.createContext("/canvas", new WebServer(canvas));
-
-        // Use a thread pool executor for handling requests concurrently
-        server.setExecutor(Executors.newFixedThreadPool(4));
+        WebServer canvasServer = new WebServer(canvas, undoRedo);
+        MetricsServer.instrument(server.createContext("/canvas", canvasServer));
+
+        // Stream the live canvas as MJPEG, sending a frame only when it changed
+        MetricsServer.instrument(server.createContext("/canvas/stream",
+                new CanvasStreamServer(canvas, undoRedo, Integer.getInteger("paintfx.streamFps", 10))));
+
+        // Push the changed tiles of the canvas as Server-Sent Events
+        MetricsServer.instrument(server.createContext("/canvas/events",
+                new CanvasEventServer(canvas, Integer.getInteger("paintfx.tileEventFps", 20))));
+
+        // Serve the canvas as an image pyramid for deep-zoom viewers
+        MetricsServer.instrument(server.createContext("/canvas/tiles", new CanvasTileServer(canvas,
+                Runtime.getRuntime().availableProcessors(), Long.getLong("paintfx.tileCacheMB", 64) * 1024 * 1024)));
+
+        // Draw batches of operations posted by other programs, a few milliseconds per pulse
+        MetricsServer.instrument(server.createContext("/canvas/ops",
+                new CanvasOpsServer(canvas, undoRedo, logger, Long.getLong("paintfx.opsPulseBudgetMs", 8))));
+
+        // Serve the list of open tabs and the canvas of each
+        MetricsServer.instrument(server.createContext("/tabs", tabServer));
+
+        // Expose request, encoding, autosave, undo and JVM metrics for Prometheus
+        server.createContext("/metrics", new MetricsServer());
+        Metrics.fxGauge("paintfx_undo_budget_used_bytes", "Undo history held in memory by all tabs.", undoBudget::getUsedBytes);
+        Metrics.gauge("paintfx_undo_budget_max_bytes", "Memory the undo history of all tabs may use.", undoBudget::getMaxBytes);
+        UndoCompressor compressor = undoBudget.getCompressor();
+        Metrics.counterFunction("paintfx_undo_compressed_states_total", "Undo states compressed in the background.",
+                compressor::getCompressedStates);
+        Metrics.counterFunction("paintfx_undo_compress_seconds_total", "Time spent compressing undo states.",
+                compressor::getCompressSeconds);
+        Metrics.counterFunction("paintfx_undo_decompressed_states_total", "Undo states decompressed by undo or redo.",
+                compressor::getDecompressedStates);
+        Metrics.counterFunction("paintfx_undo_decompress_seconds_total", "Time spent decompressing undo states.",
+                compressor::getDecompressSeconds);
+        Metrics.gauge("paintfx_undo_compression_ratio", "Uncompressed to compressed size of every undo state compressed so far.",
+                compressor::getCompressionRatio);
+        Metrics.gauge("paintfx_logger_queue_depth", "Log events waiting to be written.", logger::getQueueDepth);
+
+        // Handle every request on a virtual thread of its own, so requests waiting on the JavaFX thread don't hold up the others
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
         server.start();
 
         System.out.println("Web server started at http://localhost:8080/canvas");
+        System.out.println("Live stream available at http://localhost:8080/canvas/stream");
+        System.out.println("Tile events available at http://localhost:8080/canvas/events");
+        System.out.println("Tile pyramid available at http://localhost:8080/canvas/tiles");
+        System.out.println("Drawing operations accepted at http://localhost:8080/canvas/ops");
+        System.out.println("Open tabs listed at http://localhost:8080/tabs");
+        System.out.println("Metrics available at http://localhost:8080/metrics");
+
+        // Restore the tabs of a session that crashed, each with its undo history
+        if (recoveredJournals != null) {
+            for (File journalFile : recoveredJournals) {
+                addNewTab(journalFile);
+            }
+        }
+
+        // The journals are only needed after a crash; delete them once the window has closed normally
+        primaryStage.setOnHidden(event -> {
+            for (Tab tab : tabPane.getTabs()) {
+                if (tab.getUserData() instanceof TabContent content && content.getUndoRedo().getJournal() != null) {
+                    content.getUndoRedo().getJournal().close(true);
+                }
+            }
+            undoBudget.close();
+        });
 
         //window popup before closing
         primaryStage.setOnCloseRequest(event -> {
@@ -388,6 +514,8 @@ public class PaintApp extends Application {
         if (file != null) {
             try {
                 Image image = new Image(new FileInputStream(file));
+                PendingOrientation.of(canvas).apply();  // So that undoing the open shows the old image as it was shown
+                undoRedo.pushToUndoStack();
 
                 // Resize the canvas to fit the dimensions of the image
                 canvas.setWidth(image.getWidth());
@@ -396,6 +524,7 @@ public class PaintApp extends Application {
                 // Clear the canvas and draw the opened image on it
                 gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
                 gc.drawImage(image, 0, 0);
+                DirtyTileTracker.of(canvas).markAll();
 
 
                 currentFile = file;
@@ -490,16 +619,13 @@ public class PaintApp extends Application {
 
     //saves image to specified file path
     private void saveImageToFile(File file) throws IOException {
-        // Capture the snapshot of the Canvas
+        // Capture the snapshot of the Canvas, in the orientation it is shown in
+        PendingOrientation.of(canvas).apply();
         WritableImage writableImage = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
         SnapshotParameters params = new SnapshotParameters();
         params.setFill(Color.WHITE);  // Fill with white as background
         canvas.snapshot(params, writableImage);
 
-        // Convert WritableImage to BufferedImage (without SwingFXUtils)
-        int width = (int) writableImage.getWidth();
-        int height = (int) writableImage.getHeight();
-
         String formatName = getFileExtension(file.getName());
 
         // Determine if the image needs to support transparency (ARGB) or not (RGB)
@@ -510,38 +636,16 @@ public class PaintApp extends Application {
             bufferedImageType = BufferedImage.TYPE_INT_RGB;
         }
 
-        // Create a BufferedImage to hold the pixels from the WritableImage
-        BufferedImage bufferedImage = new BufferedImage(width, height, bufferedImageType);
-
-        // Extract pixel data from WritableImage
-        PixelReader pixelReader = writableImage.getPixelReader();
-
-        // Write each pixel to the BufferedImage
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = pixelReader.getColor(x, y);
-                // If the pixel is fully transparent, make it white
-                if (color.getOpacity() == 0) {
-                    int whiteRGB = 0xFFFFFFFF;  // White with no transparency (opaque white)
-                    bufferedImage.setRGB(x, y, whiteRGB);
-                } else {
-                    // Convert the color to ARGB (preserve the original pixel)
-                    int argb = (int) (color.getOpacity() * 255) << 24 |
-                            (int) (color.getRed() * 255) << 16 |
-                            (int) (color.getGreen() * 255) << 8 |
-                            (int) (color.getBlue() * 255);
-
-                    // For non-ARGB formats (like JPG, BMP), ignore transparency
-                    if (bufferedImageType == BufferedImage.TYPE_INT_RGB) {
-                        argb = argb | 0xFF000000;  // Make it fully opaque
-                    }
+        // Convert WritableImage to BufferedImage, reading the pixels in bulk; fully transparent pixels become white
+        BufferedImage bufferedImage = PixelConverter.toBufferedImage(writableImage, bufferedImageType, true);
 
-                    bufferedImage.setRGB(x, y, argb);
-                }
+        // PNGs are compressed on every core; other formats are saved using ImageIO
+        if (formatName.equals("png")) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                pngEncoder.encode(bufferedImage, out);
             }
+            return;
         }
-
-        // Save the BufferedImage to file using ImageIO
         if (!ImageIO.write(bufferedImage, formatName, file)) {
             throw new IOException("Could not save the image in " + formatName + " format.");
         }
@@ -645,6 +749,8 @@ public class PaintApp extends Application {
                 // Get the new dimensions
                 double newWidth = Double.parseDouble(widthField.getText());
                 double newHeight = Double.parseDouble(heightField.getText());
+                PendingOrientation.of(canvas).apply();  // The new size is that of the canvas as it is shown
+                undoRedo.pushToUndoStack();
 
                 // Resize the canvas
                 double oldWidth = canvas.getWidth();
@@ -751,6 +857,10 @@ public class PaintApp extends Application {
             gc.moveTo(event.getX(), event.getY());
             gc.stroke();
             gc.setStroke(currentColor.getValue());
+            strokePoints.clear();
+            strokePoints.add(event.getX());
+            strokePoints.add(event.getY());
+            markStrokeDirty(gc.getLineWidth());
         }
     };
 
@@ -759,12 +869,16 @@ public class PaintApp extends Application {
             gc.lineTo(event.getX(), event.getY());
             gc.stroke();
             gc.setStroke(currentColor.getValue());
+            strokePoints.add(event.getX());
+            strokePoints.add(event.getY());
+            markStrokeDirty(gc.getLineWidth());
         }
     };
 
     private final EventHandler<MouseEvent> drawMouseReleasedHandler = event -> {
         if (drawingEnabled) {
             gc.closePath();  // Optional: closes the path if needed
+            undoRedo.recordOperation(DrawOperation.stroke(getStrokePoints(), currentColor.getValue(), lineWidth, gc.getLineDashes()));
             logger.logEvent("Tab 0", "Draw Line");
         }
     };
@@ -807,6 +921,10 @@ public class PaintApp extends Application {
             gc.moveTo(event.getX(), event.getY());
             gc.stroke();
             gc.setStroke(Color.WHITE);
+            strokePoints.clear();
+            strokePoints.add(event.getX());
+            strokePoints.add(event.getY());
+            markStrokeDirty(gc.getLineWidth());
         }
     };
     private final EventHandler<MouseEvent> eraserMouseDraggedHandler = event -> {
@@ -814,16 +932,51 @@ public class PaintApp extends Application {
             gc.lineTo(event.getX(), event.getY());
             gc.stroke();
             gc.setStroke(Color.WHITE);
+            strokePoints.add(event.getX());
+            strokePoints.add(event.getY());
+            markStrokeDirty(gc.getLineWidth());
         }
     };
 
     private final EventHandler<MouseEvent> eraserMouseReleasedHandler = event -> {
         if (eraserEnabled) {
             gc.closePath(); // Optional: closes the path if needed
+            undoRedo.recordOperation(DrawOperation.stroke(getStrokePoints(), Color.WHITE, eraserWidth, gc.getLineDashes()));
             logger.logEvent("Tab 0", "Eraser Used");
         }
     };
 
+    // Reports the area of the freehand stroke to the canvas's tile tracker; the whole path is stroked again on every drag
+    private void markStrokeDirty(double width) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < strokePoints.size(); i += 2) {
+            minX = Math.min(minX, strokePoints.get(i));
+            maxX = Math.max(maxX, strokePoints.get(i));
+            minY = Math.min(minY, strokePoints.get(i + 1));
+            maxY = Math.max(maxY, strokePoints.get(i + 1));
+        }
+        // Miter joins at sharp turns reach up to five line widths past the path
+        double margin = width * 5 + 2;
+        DirtyTileTracker.of(canvas).markDirty(minX - margin, minY - margin, maxX - minX + 2 * margin, maxY - minY + 2 * margin);
+    }
+
+    // Reports the area of a straight line to the canvas's tile tracker
+    private void markLineDirty(double endX, double endY) {
+        double margin = lineWidth + 2;
+        DirtyTileTracker.of(canvas).markDirty(Math.min(startX, endX) - margin, Math.min(startY, endY) - margin,
+                Math.abs(endX - startX) + 2 * margin, Math.abs(endY - startY) + 2 * margin);
+    }
+
+    // Copies the points of the freehand stroke just drawn, for recording it in the undo history
+    private double[] getStrokePoints() {
+        double[] points = new double[strokePoints.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = strokePoints.get(i);
+        }
+        return points;
+    }
+
     private ToggleButton createStraightLineButton() {
         ToggleButton straightLine = new ToggleButton("Draw straight line");
         straightLine.setOnAction(event -> straightLineEnabled = straightLine.isSelected());
@@ -838,6 +991,8 @@ public class PaintApp extends Application {
             // Set the starting point for the line
             startX = event.getX();
             startY = event.getY();
+            lineEndX = startX;
+            lineEndY = startY;
             // Take a snapshot of the current canvas content
             canvas.snapshot(null, canvasSnapshot);
         });
@@ -850,6 +1005,10 @@ public class PaintApp extends Application {
             // Draw the temporary line from start to the current mouse position
             gc.setStroke(currentColor.getValue());
             gc.strokeLine(startX, startY, event.getX(), event.getY());
+            markLineDirty(lineEndX, lineEndY);
+            markLineDirty(event.getX(), event.getY());
+            lineEndX = event.getX();
+            lineEndY = event.getY();
         });
 
         canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> {
@@ -857,6 +1016,9 @@ public class PaintApp extends Application {
             // Finalize the line when the mouse is released
             gc.setStroke(currentColor.getValue());
             gc.strokeLine(startX, startY, event.getX(), event.getY());
+            markLineDirty(event.getX(), event.getY());
+            undoRedo.recordOperation(DrawOperation.stroke(new double[]{startX, startY, event.getX(), event.getY()},
+                    currentColor.getValue(), lineWidth, gc.getLineDashes()));
             logger.logEvent("Tab 0", "Draw Straight Line");
         });
 
@@ -1009,8 +1171,11 @@ public class PaintApp extends Application {
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
                 // User chose OK, clear the canvas
+                PendingOrientation.of(canvas).apply();
+                undoRedo.pushToUndoStack();
                 gc.setFill(Color.WHITE);
                 gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                DirtyTileTracker.of(canvas).markAll();
             }
             // If the user chose CANCEL or closed the dialog, do nothing
         });
@@ -1018,6 +1183,11 @@ public class PaintApp extends Application {
 
     // Add a method to create a new tab with its own canvas
     private void addNewTab() {
+        addNewTab(null);
+    }
+
+    // Create a new tab, restoring its canvas and undo history from a crashed session's journal if one is given
+    private void addNewTab(File recoveredJournal) {
         // Create a new tab
         Tab tab = new Tab("Canvas " + (tabPane.getTabs().size()));
         tab.setClosable(true);
@@ -1041,7 +1211,22 @@ public class PaintApp extends Application {
         localStackPane.getChildren().addAll(localCanvas, localOverlayCanvas);
 
         // Initialize UndoRedo for this canvas
-        UndoRedo localUndoRedo = new UndoRedo(localCanvas, logger, localGc);
+        UndoRedo localUndoRedo = new UndoRedo(localCanvas, logger, localGc, undoBudget);
+        if (undoKeyframeInterval > 0) {
+            localUndoRedo.setCommandLogMode(undoKeyframeInterval);
+        } else if (undoJournalEnabled) {
+            attachJournal(localUndoRedo, recoveredJournal);
+        }
+        PendingOrientation.of(localCanvas).setUndoRedo(localUndoRedo);
+
+        // Serve the tab over HTTP while it is open
+        int tabId = tabServer.register(tab.getText(), localCanvas, localUndoRedo);
+
+        // Release the tab's undo history when it is closed
+        tab.setOnClosed(e -> {
+            localUndoRedo.dispose();
+            tabServer.unregister(tabId);
+        });
 
         // Set the content of the tab to the StackPane
         tab.setContent(localStackPane);
@@ -1075,6 +1260,26 @@ public class PaintApp extends Application {
             }
         });
     }
+
+    // Journal the tab's undo history, replaying the given journal first when recovering a tab
+    private void attachJournal(UndoRedo undoRedo, File recoveredJournal) {
+        try {
+            if (recoveredJournal != null) {
+                UndoJournal journal = new UndoJournal(recoveredJournal);
+                undoRedo.recover(journal);
+                logger.logEvent("Canvas", "Recovered from " + recoveredJournal);
+            } else {
+                if (!journalDirectory.exists() && !journalDirectory.mkdirs()) {
+                    System.out.println("Failed to create directory: " + journalDirectory);
+                    return;
+                }
+                undoRedo.setJournal(new UndoJournal(File.createTempFile("tab_", ".journal", journalDirectory)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();  // The tab still works, its history just isn't crash-safe
+        }
+    }
+
     // Helper class to store the tab's content (Canvas, GraphicsContext, StackPane, UndoRedo, and Overlay Canvas)
     class TabContent {
         private final Canvas canvas;
@@ -1136,6 +1341,9 @@ public class PaintApp extends Application {
         canvas.setOnMouseReleased(event -> {
             if (currentTool != null) {
                 currentTool.onMouseReleased(event, fillColor.getValue(), borderColor.getValue(), borderWidth);
+                if (currentTool.toggleButton.isSelected()) {
+                    undoRedo.recordOperation(currentTool.getLastOperation());  // null if the result cannot be replayed
+                }
             }
         });
     }
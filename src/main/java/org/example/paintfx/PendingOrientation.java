@@ -0,0 +1,171 @@
+package org.example.paintfx;
+
+import javafx.event.Event;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Transform;
+
+import java.awt.geom.AffineTransform;
+import java.util.List;
+
+/**
+ * The {@code PendingOrientation} class defers rotating and mirroring a whole canvas until its
+ * pixels are needed.
+ *
+ * <p>Each rotation or mirror is composed into a single pending {@link Orientation} and shown by
+ * transforming the canvas node, which costs nothing however large the canvas is; four rotations in
+ * a row leave nothing pending at all. The pixels are moved once, by {@link #apply()}, when
+ * something is about to change them or the document itself: a mouse press on the canvas, which is
+ * replayed at the right spot afterwards, saving, undoing and redoing, opening an image, resizing
+ * and clearing. Whatever only reads the canvas in the background, such as the servers and
+ * autosave, takes a {@link #snapshot} of the pixels as they are drawn and moves its own copy into
+ * {@link #getOrientation()}, so it never changes the document or its undo history. To let them
+ * notice, every change of the pending orientation counts as a change of the canvas.
+ *
+ * <p>The node transform leaves the canvas's layout bounds as they were, so until the orientation
+ * is applied its parents size a canvas that is not square as if it were not rotated.
+ *
+ * <p>Applying first pushes the canvas onto its undo stack, if one is attached, so the accumulated
+ * orientation is undone in one step. All methods must be called on the JavaFX Application Thread.
+ */
+public class PendingOrientation {
+
+    private final Canvas canvas;
+    private Orientation orientation = Orientation.IDENTITY;
+    private UndoRedo undoRedo;
+
+    private PendingOrientation(Canvas canvas) {
+        this.canvas = canvas;
+
+        // Apply before a press reaches the tools, then send it again so that its coordinates
+        // are recomputed for the canvas as it now is
+        canvas.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> {
+            if (isPending()) {
+                event.consume();
+                apply();
+                if (canvas.getParent() != null) {
+                    canvas.getParent().layout();
+                }
+                Event.fireEvent(canvas, event.copyFor(canvas, canvas));
+            }
+        });
+    }
+
+    /**
+     * Returns the pending orientation of a canvas, creating it the first time.
+     *
+     * @param canvas The canvas.
+     * @return The canvas's pending orientation.
+     */
+    public static PendingOrientation of(Canvas canvas) {
+        Object pending = canvas.getProperties().get(PendingOrientation.class);
+        if (pending == null) {
+            pending = new PendingOrientation(canvas);
+            canvas.getProperties().put(PendingOrientation.class, pending);
+        }
+        return (PendingOrientation) pending;
+    }
+
+    /**
+     * Sets the undo history to push the canvas onto before the orientation is applied.
+     *
+     * @param undoRedo The undo history of the canvas, or {@code null} for none.
+     */
+    public void setUndoRedo(UndoRedo undoRedo) {
+        this.undoRedo = undoRedo;
+    }
+
+    /**
+     * Returns the orientation the canvas is displayed in but not yet drawn in.
+     *
+     * @return The pending orientation.
+     */
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Returns whether the canvas is displayed in a different orientation than it is drawn in.
+     *
+     * @return {@code true} if there is an orientation to apply.
+     */
+    public boolean isPending() {
+        return orientation != Orientation.IDENTITY;
+    }
+
+    /**
+     * Adds a rotation or mirror to the pending orientation and shows the result. The whole canvas
+     * is marked as changed, though its pixels are not.
+     *
+     * @param next The rotation or mirror.
+     */
+    public void then(Orientation next) {
+        orientation = orientation.then(next);
+        if (isPending()) {
+            AffineTransform t = orientation.toTransform(canvas.getWidth(), canvas.getHeight());
+            canvas.getTransforms().setAll(new Affine(t.getScaleX(), t.getShearX(), t.getTranslateX(),
+                    t.getShearY(), t.getScaleY(), t.getTranslateY()));
+        } else {
+            canvas.getTransforms().clear();
+        }
+        if (undoRedo != null) {
+            undoRedo.markChanged();
+        }
+        DirtyTileTracker.of(canvas).markAll();
+    }
+
+    /**
+     * Takes a snapshot of the canvas as it is drawn, leaving out the pending orientation that the
+     * node transform would otherwise add to it. Moving the pixels into {@link #getOrientation()}
+     * afterwards gives the canvas as it is shown.
+     *
+     * @param params The snapshot parameters, or {@code null} for the defaults.
+     * @param image  The image to render into, or {@code null} to allocate one.
+     * @return The snapshot, {@code canvas.getWidth()} wide and {@code canvas.getHeight()} high.
+     */
+    public WritableImage snapshot(SnapshotParameters params, WritableImage image) {
+        if (!isPending()) {
+            return canvas.snapshot(params, image);
+        }
+        List<Transform> transforms = List.copyOf(canvas.getTransforms());
+        canvas.getTransforms().clear();
+        try {
+            return canvas.snapshot(params, image);
+        } finally {
+            canvas.getTransforms().setAll(transforms);
+        }
+    }
+
+    /**
+     * Moves the pixels of the canvas into the pending orientation, resizing it if needed, and
+     * shows it untransformed again. Does nothing if nothing is pending.
+     */
+    public void apply() {
+        if (!isPending()) {
+            return;
+        }
+        Orientation pending = orientation;
+        orientation = Orientation.IDENTITY;
+        canvas.getTransforms().clear();
+        if (undoRedo != null) {
+            undoRedo.pushToUndoStack();
+        }
+
+        int width = (int) canvas.getWidth();
+        int height = (int) canvas.getHeight();
+        int[] pixels = pending.apply(PixelConverter.toArgb(canvas.snapshot(null, null)), width, height);
+        int newWidth = pending.swapsDimensions() ? height : width;
+        int newHeight = pending.swapsDimensions() ? width : height;
+
+        canvas.setWidth(newWidth);
+        canvas.setHeight(newHeight);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, newWidth, newHeight);
+        gc.drawImage(CanvasRotator.toImage(pixels, newWidth, newHeight), 0, 0);
+        DirtyTileTracker.of(canvas).markAll();
+    }
+}
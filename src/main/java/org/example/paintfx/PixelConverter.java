@@ -0,0 +1,100 @@
+package org.example.paintfx;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * The {@code PixelConverter} class reads the pixels of JavaFX images into packed ARGB ints and
+ * AWT {@link BufferedImage}s, for saving and serving the canvas.
+ *
+ * <p>Pixels are read a block of rows at a time with {@link PixelReader#getPixels} in the
+ * {@link PixelFormat#getIntArgbInstance() IntArgb} format, straight into the target array; for a
+ * {@code BufferedImage} that is the array behind its {@link DataBufferInt}. Large images are cut
+ * into stripes of rows read in parallel. Reading a pixel at a time with {@code getColor} and
+ * {@code setRGB} instead allocates a {@code Color} per pixel and goes through the color model for
+ * each, which takes seconds on a 4K canvas rather than milliseconds.
+ *
+ * <p>The image must not be written to while it is read; snapshots are never written to after
+ * they are taken, so they can be read from any thread.
+ */
+public final class PixelConverter {
+
+    private PixelConverter() {
+    }
+
+    /**
+     * Reads all pixels of an image.
+     *
+     * @param image The image to read.
+     * @return The packed ARGB pixels, row by row.
+     */
+    public static int[] toArgb(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] pixels = new int[width * height];
+        read(image.getPixelReader(), width, height, pixels, false);
+        return pixels;
+    }
+
+    /**
+     * Copies an image into a new {@code BufferedImage}.
+     *
+     * @param image The image to copy.
+     * @param type  {@link BufferedImage#TYPE_INT_ARGB}, or {@link BufferedImage#TYPE_INT_RGB} to drop the alpha.
+     * @return The copy.
+     */
+    public static BufferedImage toBufferedImage(Image image, int type) {
+        return toBufferedImage(image, type, false);
+    }
+
+    /**
+     * Copies an image into a new {@code BufferedImage}.
+     *
+     * @param image              The image to copy.
+     * @param type               {@link BufferedImage#TYPE_INT_ARGB}, or {@link BufferedImage#TYPE_INT_RGB} to drop the alpha.
+     * @param flattenTransparent Whether fully transparent pixels become opaque white.
+     * @return The copy.
+     */
+    public static BufferedImage toBufferedImage(Image image, int type, boolean flattenTransparent) {
+        if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("Only TYPE_INT_ARGB and TYPE_INT_RGB are supported");
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        BufferedImage bufferedImage = new BufferedImage(width, height, type);
+
+        // An RGB image ignores the alpha byte of each int, so the ARGB pixels can be read as they are
+        int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+        read(image.getPixelReader(), width, height, data, flattenTransparent);
+        return bufferedImage;
+    }
+
+    /**
+     * Reads pixels into an array, in parallel stripes of rows when there are enough of them.
+     *
+     * @param reader             The reader of the image.
+     * @param width              The number of columns to read from the left edge.
+     * @param height             The number of rows to read from the top edge.
+     * @param pixels             The array to fill, with a row stride of {@code width}.
+     * @param flattenTransparent Whether fully transparent pixels become opaque white.
+     */
+    public static void read(PixelReader reader, int width, int height, int[] pixels, boolean flattenTransparent) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        RowStripes.forEach(width, height, (top, bottom) -> {
+            reader.getPixels(0, top, width, bottom - top, PixelFormat.getIntArgbInstance(), pixels, top * width, width);
+            if (flattenTransparent) {
+                for (int i = top * width, end = bottom * width; i < end; i++) {
+                    if (pixels[i] >>> 24 == 0) {
+                        pixels[i] = 0xFFFFFFFF;
+                    }
+                }
+            }
+        });
+    }
+}
@@ -61,12 +61,32 @@ public class PolygonTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
 
-        double centerX = (startX + event.getX()) / 2;
-        double centerY = (startY + event.getY()) / 2;
-        double radius = Math.min(Math.abs(event.getX() - startX), Math.abs(event.getY() - startY)) / 2;
+    /**
+     *
+     * Draw shape
+     *
+     * @param gc  the gc.
+     * @param operation  the operation describing the polygon.
+     */
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
+        double centerX = (startX + operation.getEndX()) / 2;
+        double centerY = (startY + operation.getEndY()) / 2;
+        double radius = Math.min(Math.abs(operation.getEndX() - startX), Math.abs(operation.getEndY() - startY)) / 2;
+
+        drawPolygon(gc, centerX, centerY, radius, operation.getVertexCount(),
+                operation.getFillColor(), operation.getBorderColor(), operation.getBorderWidth());
+    }
 
-        drawPolygon(gc, centerX, centerY, radius, fillColor, borderColor, borderWidth);
+    @Override
+    protected int getVertexCount() {
+        return numberOfSides;
     }
 
 
@@ -105,24 +125,17 @@ public class PolygonTool extends ShapeTool {
      * @param centerX  the center X.
      * @param centerY  the center Y.
      * @param radius  the radius.
+     * @param numberOfSides  the number of sides.
      * @param fillColor  the fill color.
      * @param borderColor  the border color.
      * @param borderWidth  the border width.
      */
-    private void drawPolygon(GraphicsContext gc, double centerX, double centerY, double radius,
+    private void drawPolygon(GraphicsContext gc, double centerX, double centerY, double radius, int numberOfSides,
                              Color fillColor, Color borderColor, double borderWidth) {
 
         double[] xPoints = new double[numberOfSides];
         double[] yPoints = new double[numberOfSides];
-
-        double angleStep = 2 * Math.PI / numberOfSides; // Angle between each vertex
-
-        // Calculate the vertices of the polygon
-        for (int i = 0; i < numberOfSides; i++) {
-            double angle = i * angleStep - Math.PI / 2; // Start at -90 degrees (top of the polygon)
-            xPoints[i] = centerX + Math.cos(angle) * radius;
-            yPoints[i] = centerY + Math.sin(angle) * radius;
-        }
+        computePolygonVertices(centerX, centerY, radius, numberOfSides, xPoints, yPoints);
 
         // Draw the filled polygon
         gc.setFill(fillColor);
@@ -134,6 +147,30 @@ public class PolygonTool extends ShapeTool {
         gc.strokePolygon(xPoints, yPoints, numberOfSides);
     }
 
+    /**
+     *
+     * Compute polygon vertices, starting at the top
+     *
+     * @param centerX  the center X.
+     * @param centerY  the center Y.
+     * @param radius  the radius.
+     * @param numberOfSides  the number of sides.
+     * @param xPoints  receives the x-coordinates.
+     * @param yPoints  receives the y-coordinates.
+     */
+    static void computePolygonVertices(double centerX, double centerY, double radius, int numberOfSides,
+                                       double[] xPoints, double[] yPoints) {
+
+        double angleStep = 2 * Math.PI / numberOfSides; // Angle between each vertex
+
+        // Calculate the vertices of the polygon
+        for (int i = 0; i < numberOfSides; i++) {
+            double angle = i * angleStep - Math.PI / 2; // Start at -90 degrees (top of the polygon)
+            xPoints[i] = centerX + Math.cos(angle) * radius;
+            yPoints[i] = centerY + Math.sin(angle) * radius;
+        }
+    }
+
     @Override
     protected String getShapeName() {
         String numSidesString = String.valueOf(numberOfSides);
@@ -0,0 +1,116 @@
+package org.example.paintfx;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The {@code QoiEncoder} class encodes images in the Quite OK Image format
+ * (<a href="https://qoiformat.org/qoi-specification.pdf">QOI</a>), a lossless format that
+ * compresses about as well as PNG at a fast setting but encodes many times faster, since every
+ * pixel is written in a single pass without entropy coding.
+ */
+public final class QoiEncoder {
+
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xC0;
+    private static final int OP_RGB = 0xFE;
+    private static final int OP_RGBA = 0xFF;
+
+    /** The longest run a single {@code OP_RUN} can encode. */
+    private static final int MAX_RUN = 62;
+
+    private QoiEncoder() {
+    }
+
+    /**
+     * Encodes packed ARGB pixels as a QOI image with an alpha channel.
+     *
+     * @param pixels The pixels, row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The encoded image.
+     */
+    public static byte[] encode(int[] pixels, int width, int height) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(14 + width * height + 8);
+        out.write('q');
+        out.write('o');
+        out.write('i');
+        out.write('f');
+        writeInt(out, width);
+        writeInt(out, height);
+        out.write(4);  // RGBA
+        out.write(0);  // sRGB with linear alpha
+
+        int[] index = new int[64];
+        int previous = 0xFF000000;
+        int run = 0;
+        int count = width * height;
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            if (pixel == previous) {
+                run++;
+                if (run == MAX_RUN || i == count - 1) {
+                    out.write(OP_RUN | run - 1);
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0) {
+                out.write(OP_RUN | run - 1);
+                run = 0;
+            }
+
+            int a = pixel >>> 24;
+            int r = pixel >> 16 & 0xFF;
+            int g = pixel >> 8 & 0xFF;
+            int b = pixel & 0xFF;
+            int position = (r * 3 + g * 5 + b * 7 + a * 11) % 64;
+            if (index[position] == pixel) {
+                out.write(OP_INDEX | position);
+            } else {
+                index[position] = pixel;
+                if (a == previous >>> 24) {
+                    // Differences wrap around, as they do in the decoder
+                    int dr = (byte) (r - (previous >> 16 & 0xFF));
+                    int dg = (byte) (g - (previous >> 8 & 0xFF));
+                    int db = (byte) (b - (previous & 0xFF));
+                    int drg = dr - dg;
+                    int dbg = db - dg;
+                    if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                        out.write(OP_DIFF | dr + 2 << 4 | dg + 2 << 2 | db + 2);
+                    } else if (dg >= -32 && dg <= 31 && drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7) {
+                        out.write(OP_LUMA | dg + 32);
+                        out.write(drg + 8 << 4 | dbg + 8);
+                    } else {
+                        out.write(OP_RGB);
+                        out.write(r);
+                        out.write(g);
+                        out.write(b);
+                    }
+                } else {
+                    out.write(OP_RGBA);
+                    out.write(r);
+                    out.write(g);
+                    out.write(b);
+                    out.write(a);
+                }
+            }
+            previous = pixel;
+        }
+
+        // End marker
+        for (int i = 0; i < 7; i++) {
+            out.write(0);
+        }
+        out.write(1);
+        return out.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16 & 0xFF);
+        out.write(value >>> 8 & 0xFF);
+        out.write(value & 0xFF);
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.paintfx;
+
+import java.util.stream.IntStream;
+
+/**
+ * The {@code RowStripes} class cuts the rows of an image into stripes and processes them, in
+ * parallel on the common fork-join pool when the image is large enough for that to pay off.
+ * Pixel kernels whose rows are independent use it to spread over every core.
+ */
+final class RowStripes {
+
+    /** Pixels per stripe; fewer and the cost of handing a stripe to another thread dominates. */
+    static final int STRIPE_PIXELS = 1 << 16;
+
+    /** Processes the rows {@code top} (inclusive) to {@code bottom} (exclusive) of an image. */
+    @FunctionalInterface
+    interface Stripe {
+        void process(int top, int bottom);
+    }
+
+    private RowStripes() {
+    }
+
+    /**
+     * Processes an image in stripes of about {@link #STRIPE_PIXELS} pixels.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param stripe Processes one stripe; called concurrently for different stripes.
+     */
+    static void forEach(int width, int height, Stripe stripe) {
+        forEach(width, height, Math.max(1, STRIPE_PIXELS / Math.max(1, width)), stripe);
+    }
+
+    /**
+     * Processes an image in stripes of a given number of rows.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param rows   The number of rows per stripe; the last stripe may have fewer.
+     * @param stripe Processes one stripe; called concurrently for different stripes.
+     */
+    static void forEach(int width, int height, int rows, Stripe stripe) {
+        int stripes = (height + rows - 1) / rows;
+        IntStream range = IntStream.range(0, stripes);
+        ((long) width * height > STRIPE_PIXELS && stripes > 1 ? range.parallel() : range).forEach(i -> {
+            int top = i * rows;
+            stripe.process(top, Math.min(height, top + rows));
+        });
+    }
+}
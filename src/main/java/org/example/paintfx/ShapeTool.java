@@ -59,6 +59,9 @@ public abstract class ShapeTool {
 
     protected Logger logger;
 
+    /** The operation drawn by the last press or drag, recorded in the undo history on release. */
+    protected DrawOperation lastOperation;
+
     public String name = "Generic shape";
     private boolean isLogged = false;  // Prevents multiple logging
     private boolean isDrawing = false;  // Tracks if the shape is actually being drawn
@@ -171,6 +174,7 @@ public abstract class ShapeTool {
         gc.getCanvas().snapshot(null, canvasSnapshot);
         isLogged = false;  // Reset logging state for the new shape
         isDrawing = false;  // Reset drawing state
+        lastOperation = null;
     }
 
     /**
@@ -200,6 +204,99 @@ public abstract class ShapeTool {
         onMouseDragged(event, fillColor, borderColor, borderWidth);  // Finalize drawing
     }
 
+    /**
+     * Creates the operation describing the shape from the press point to the given end point,
+     * with the tool's current settings.
+     *
+     * @param endX        The x-coordinate of the end point.
+     * @param endY        The y-coordinate of the end point.
+     * @param fillColor   The {@code Color} to fill the shape with.
+     * @param borderColor The {@code Color} to use for the border.
+     * @param borderWidth The width of the border.
+     * @return The operation, which {@link #drawShape(GraphicsContext, DrawOperation)} can draw,
+     *         or {@code null} if the tool's result cannot be replayed.
+     */
+    protected DrawOperation createOperation(double endX, double endY, Color fillColor, Color borderColor, double borderWidth) {
+        if (!isReplayable()) {
+            return null;
+        }
+        DrawOperation operation = new DrawOperation(this, startX, startY, endX, endY, fillColor, borderColor, borderWidth,
+                gc.getLineDashes(), getVertexCount());
+
+        // Redrawing the snapshot erases the previous operation, and the new one is drawn in its place
+        markDirty(lastOperation);
+        markDirty(operation);
+        return operation;
+    }
+
+    /**
+     * Returns the area of the canvas an operation of this tool draws on, including its border.
+     * Shapes drawn inside the rectangle spanned by the start and end points can use this default.
+     *
+     * @param operation An operation created by this tool.
+     * @return The x, y, width and height of the area.
+     */
+    protected double[] getBounds(DrawOperation operation) {
+        // Miter joins at sharp corners reach up to five border widths past the outline
+        double margin = operation.getBorderWidth() * 5 + 2;
+        double x = Math.min(operation.getStartX(), operation.getEndX()) - margin;
+        double y = Math.min(operation.getStartY(), operation.getEndY()) - margin;
+        return new double[]{x, y, Math.abs(operation.getEndX() - operation.getStartX()) + 2 * margin,
+                Math.abs(operation.getEndY() - operation.getStartY()) + 2 * margin};
+    }
+
+    /**
+     * Reports the area an operation draws on to the canvas's {@link DirtyTileTracker}.
+     *
+     * @param operation The operation, or {@code null} to do nothing.
+     */
+    protected void markDirty(DrawOperation operation) {
+        if (operation != null) {
+            double[] bounds = getBounds(operation);
+            DirtyTileTracker.of(gc.getCanvas()).markDirty(bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+    }
+
+    /**
+     * Returns whether the tool's result is fully described by a {@link DrawOperation}, so that
+     * it can be replayed from the undo history. Other tools never create operations, so the next
+     * state of the history is read back from the canvas instead.
+     *
+     * @return {@code true} unless the tool overrides it.
+     */
+    public boolean isReplayable() {
+        return true;
+    }
+
+    /**
+     * Draws the shape described by an operation. Replayable tools override this so that drawing
+     * during a drag and replaying the operation from the undo history produce the same result;
+     * the other tools never create operations, and keep this default, which draws nothing.
+     *
+     * @param gc        The graphics context to draw on.
+     * @param operation The operation created by this tool.
+     */
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+    }
+
+    /**
+     * Returns the number of polygon sides or star points the tool currently draws.
+     *
+     * @return The vertex count, or 0 if the tool has no such setting.
+     */
+    protected int getVertexCount() {
+        return 0;
+    }
+
+    /**
+     * Returns the operation drawn by the last mouse gesture.
+     *
+     * @return The operation, or {@code null} if nothing was drawn or the tool's result cannot be replayed.
+     */
+    public DrawOperation getLastOperation() {
+        return lastOperation;
+    }
+
     private void logShapeDrawn() {
         // Retrieve the name of the current tab (you may already have a way to get the tab name)
         String tabName = getCurrentTabName();  // Implement this method to get the active tab's name
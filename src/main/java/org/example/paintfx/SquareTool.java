@@ -66,14 +66,29 @@ public class SquareTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
-        double side = Math.min(Math.abs(event.getX() - startX), Math.abs(event.getY() - startY));  // Calculate the side length
-        double x = Math.min(startX, event.getX());
-        double y = Math.min(startY, event.getY());
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
+
+    /**
+     * Draws the square described by an operation, with the side length taken from the shorter
+     * of the horizontal and vertical distances between its start and end points.
+     *
+     * @param gc        The {@code GraphicsContext} to draw on.
+     * @param operation The operation describing the square.
+     */
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
+        double side = Math.min(Math.abs(operation.getEndX() - startX), Math.abs(operation.getEndY() - startY));  // Calculate the side length
+        double x = Math.min(startX, operation.getEndX());
+        double y = Math.min(startY, operation.getEndY());
 
-        gc.setFill(fillColor);
+        gc.setFill(operation.getFillColor());
         gc.fillRect(x, y, side, side);  // Draw the square
-        gc.setStroke(borderColor);
-        gc.setLineWidth(borderWidth);
+        gc.setStroke(operation.getBorderColor());
+        gc.setLineWidth(operation.getBorderWidth());
         gc.strokeRect(x, y, side, side);
     }
 
@@ -18,11 +18,19 @@ public class StarTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
+
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
 
         // Calculate the center point and radius based on mouse drag position
-        double centerX = (startX + event.getX()) / 2;
-        double centerY = (startY + event.getY()) / 2;
-        double radius = Math.min(Math.abs(event.getX() - startX), Math.abs(event.getY() - startY)) / 2;
+        double centerX = (startX + operation.getEndX()) / 2;
+        double centerY = (startY + operation.getEndY()) / 2;
+        double radius = Math.min(Math.abs(operation.getEndX() - startX), Math.abs(operation.getEndY() - startY)) / 2;
 
         int points = 5;
         double innerRadius = radius * 0.5; // Ratio of inner to outer radius for a star
@@ -30,27 +38,15 @@ public class StarTool extends ShapeTool {
         // Arrays to store the X and Y coordinates of the star's points
         double[] xPoints = new double[10];
         double[] yPoints = new double[10];
-
-        // Angle between each point of the star
-        double angleStep = Math.PI / points;  // 36 degrees for each step (outer and inner)
-
-        for (int i = 0; i < 10; i++) {
-            // Alternate between outer and inner points
-            double currentRadius = (i % 2 == 0) ? radius : innerRadius;
-            double angle = i * angleStep - Math.PI / 2; // Start at -90 degrees (top of the star)
-
-            // Calculate the X and Y coordinates for each point
-            xPoints[i] = centerX + Math.cos(angle) * currentRadius;
-            yPoints[i] = centerY + Math.sin(angle) * currentRadius;
-        }
+        VarStarTool.computeStarVertices(centerX, centerY, radius, innerRadius, points, xPoints, yPoints);
 
         // Draw the filled star
-        gc.setFill(fillColor);
+        gc.setFill(operation.getFillColor());
         gc.fillPolygon(xPoints, yPoints, 10);
 
         // Draw the border of the star
-        gc.setStroke(borderColor);
-        gc.setLineWidth(borderWidth);
+        gc.setStroke(operation.getBorderColor());
+        gc.setLineWidth(operation.getBorderWidth());
         gc.strokePolygon(xPoints, yPoints, 10);
     }
     @Override
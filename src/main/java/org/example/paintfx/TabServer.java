@@ -0,0 +1,187 @@
+package org.example.paintfx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import javafx.scene.canvas.Canvas;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code TabServer} class implements an HTTP handler that serves every open tab, not just the
+ * first one:
+ * <ul>
+ *     <li>{@code GET /tabs} returns a JSON array with the {@code id}, {@code name}, {@code width},
+ *     {@code height} and {@code version} of each tab, in the order they were opened.</li>
+ *     <li>{@code GET /tabs/{id}/canvas} returns a PNG image of the tab's canvas, with the same
+ *     ETag handling as {@link WebServer}.</li>
+ * </ul>
+ *
+ * <p>Tabs are registered when they are opened and unregistered when they are closed. Ids are never
+ * reused, so a client holding the id of a closed tab gets a 404 (Not Found) rather than another
+ * tab. Each tab has its own {@link WebServer}, and with it its own encoded-image cache, so polling
+ * one tab never evicts the image of another.
+ */
+public class TabServer implements HttpHandler {
+
+    /**
+     * A registered tab.
+     */
+    private static final class Entry {
+        final int id;
+        final String name;
+        final UndoRedo undoRedo;
+        final WebServer webServer;
+
+        /** Copied from the canvas on the JavaFX thread, so requests can read them from any thread. */
+        volatile int width;
+        volatile int height;
+
+        Entry(int id, String name, Canvas canvas, UndoRedo undoRedo) {
+            this.id = id;
+            this.name = name;
+            this.undoRedo = undoRedo;
+            this.webServer = new WebServer(canvas, undoRedo);
+            this.width = (int) canvas.getWidth();
+            this.height = (int) canvas.getHeight();
+        }
+    }
+
+    /** The registered tabs by id. */
+    private final Map<Integer, Entry> tabs = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Registers a tab so it is listed and served, and reports the memory of its undo history in
+     * the {@link Metrics}. Must be called on the JavaFX Application Thread.
+     *
+     * @param name     The name of the tab.
+     * @param canvas   The canvas of the tab.
+     * @param undoRedo The undo manager of the canvas, whose version tells when the canvas changed.
+     * @return The id of the tab, for {@link #unregister(int)}.
+     */
+    public int register(String name, Canvas canvas, UndoRedo undoRedo) {
+        Entry entry = new Entry(nextId.getAndIncrement(), name, canvas, undoRedo);
+        canvas.widthProperty().addListener((obs, oldWidth, newWidth) -> entry.width = newWidth.intValue());
+        canvas.heightProperty().addListener((obs, oldHeight, newHeight) -> entry.height = newHeight.intValue());
+        tabs.put(entry.id, entry);
+
+        // The stacks are changed on the JavaFX thread, so the history is measured there
+        String id = Integer.toString(entry.id);
+        Metrics.fxGauge("paintfx_undo_memory_bytes", "Undo and redo history held in memory, by tab.",
+                undoRedo::getMemoryUsage, "tab", id, "name", name);
+        Metrics.fxGauge("paintfx_undo_spilled_bytes", "Undo and redo history spilled to disk, by tab.",
+                undoRedo::getSpilledBytes, "tab", id, "name", name);
+        return entry.id;
+    }
+
+    /**
+     * Stops serving a tab once it is closed.
+     *
+     * @param id The id returned by {@link #register(String, Canvas, UndoRedo)}.
+     */
+    public void unregister(int id) {
+        Entry entry = tabs.remove(id);
+        if (entry != null) {
+            Metrics.remove("paintfx_undo_memory_bytes", "tab", Integer.toString(id), "name", entry.name);
+            Metrics.remove("paintfx_undo_spilled_bytes", "tab", Integer.toString(id), "name", entry.name);
+        }
+    }
+
+    /**
+     * Handles a request for the list of tabs or the canvas of one tab. Only GET requests are
+     * supported; all other methods return a 405 (Method Not Allowed) response. Unknown tabs and
+     * paths return 404 (Not Found).
+     *
+     * @param exchange The HTTP exchange containing the request and response objects.
+     * @throws IOException If an I/O error occurs during handling the request.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        // The path after the context starts with a slash, so the first part is empty
+        String path = exchange.getRequestURI().getPath();
+        String context = exchange.getHttpContext().getPath();
+        String[] parts = path.substring(Math.min(path.length(), context.length())).split("/");
+
+        if (parts.length == 3 && parts[2].equals("canvas")) {
+            Entry entry = null;
+            try {
+                entry = tabs.get(Integer.parseInt(parts[1]));
+            } catch (NumberFormatException e) {
+                // Not a tab id
+            }
+            if (entry != null) {
+                entry.webServer.handle(exchange);  // Closes the exchange
+                return;
+            }
+        }
+
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);  // 405 Method Not Allowed
+                return;
+            }
+            if (parts.length > 1) {
+                exchange.sendResponseHeaders(404, -1);  // 404 Not Found
+                return;
+            }
+
+            byte[] json = listTabs().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, json.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(json);
+            outputStream.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);  // 500 Internal Server Error
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Lists the registered tabs as a JSON array, in the order they were opened.
+     */
+    private String listTabs() {
+        List<Entry> entries = new ArrayList<>(tabs.values());
+        entries.sort(Comparator.comparingInt(entry -> entry.id));
+
+        StringBuilder json = new StringBuilder("[");
+        for (Entry entry : entries) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(entry.id)
+                    .append(",\"name\":\"").append(escape(entry.name)).append('"')
+                    .append(",\"width\":").append(entry.width)
+                    .append(",\"height\":").append(entry.height)
+                    .append(",\"version\":").append(entry.undoRedo.getVersion())
+                    .append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
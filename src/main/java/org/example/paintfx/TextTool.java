@@ -5,7 +5,9 @@ import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
+import javafx.geometry.Bounds;
 import javafx.scene.text.Font;
+import javafx.scene.text.Text;
 
 import java.util.Optional;
 
@@ -55,17 +57,37 @@ public class TextTool extends ShapeTool {
 
     @Override
     public void onMousePressed(MouseEvent event) {
+        lastOperation = null;
         if (enteredText != null) {
             // Draw the text on the canvas at the clicked position
-            gc.setFill(fillColor);
-            gc.setStroke(borderColor);
-            gc.setLineWidth(1);
-            gc.setFont(Font.font(fontSize));
-            gc.fillText(enteredText, event.getX(), event.getY());
-            gc.strokeText(enteredText, event.getX(), event.getY());
+            lastOperation = DrawOperation.text(this, event.getX(), event.getY(), enteredText, fontSize,
+                    fillColor, borderColor, 1, gc.getLineDashes());
+            drawShape(gc, lastOperation);
+            markDirty(lastOperation);
         }
     }
 
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        gc.setFill(operation.getFillColor());
+        gc.setStroke(operation.getBorderColor());
+        gc.setLineWidth(operation.getBorderWidth());
+        gc.setFont(Font.font(operation.getFontSize()));
+        gc.fillText(operation.getText(), operation.getStartX(), operation.getStartY());
+        gc.strokeText(operation.getText(), operation.getStartX(), operation.getStartY());
+    }
+
+    @Override
+    protected double[] getBounds(DrawOperation operation) {
+        // Measure the text the way it is drawn, with the origin on the baseline
+        Text text = new Text(operation.getText());
+        text.setFont(Font.font(operation.getFontSize()));
+        Bounds bounds = text.getLayoutBounds();
+        double margin = operation.getBorderWidth() + 2;
+        return new double[]{operation.getStartX() + bounds.getMinX() - margin, operation.getStartY() + bounds.getMinY() - margin,
+                bounds.getWidth() + 2 * margin, bounds.getHeight() + 2 * margin};
+    }
+
     @Override
     public void onMouseDragged(MouseEvent event, Color fillColor, Color borderColor, double borderWidth) {
         // No dragging behavior needed for the TextTool
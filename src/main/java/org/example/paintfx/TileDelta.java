@@ -0,0 +1,587 @@
+package org.example.paintfx;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code TileDelta} class stores the difference between two canvas states as a set of
+ * fixed-size tiles. Only the tiles whose pixels differ are kept, so the size of a delta is
+ * proportional to the edited area rather than to the size of the canvas.
+ *
+ * <p>A delta is applied by exchanging its tiles with the matching tiles of a pixel buffer.
+ * After {@link #apply(int[], int, int)} the delta holds the pixels that were replaced, which
+ * makes it the delta needed to go back to the previous state. {@link UndoRedo} relies on this
+ * to move entries between its undo and redo stacks without copying them.
+ *
+ * <p>Tiles are shared with every other delta holding the same pixels through a {@link TileStore},
+ * so they are never modified in place; replacing a tile takes a reference to the new content and
+ * gives back the reference to the old.
+ *
+ * <p>If the two states have different dimensions the delta is "full": it holds every tile of
+ * the state it restores, and applying it replaces the buffer entirely.
+ *
+ * <p>To save memory the tiles of a delta that no other delta shares can be compressed by an
+ * {@link UndoCompressor}, and all of its tiles can be spilled to an {@link UndoSpillStore}. They are decompressed or read back automatically the
+ * next time the delta is used. Compression runs on a background thread, so every method that
+ * touches the tiles is synchronized.
+ */
+public class TileDelta {
+
+    /** Width and height, in pixels, of a tile. Tiles on the right and bottom edges may be smaller. */
+    public static final int TILE_SIZE = 64;
+
+    /** Width of the state this delta restores. */
+    private int width;
+
+    /** Height of the state this delta restores. */
+    private int height;
+
+    /** The store the tiles are shared through. */
+    private final TileStore tileStore;
+
+    /**
+     * Changed tiles held in memory keyed by tile index (row-major), each holding the tile's packed
+     * ARGB pixels as a shared array from {@link #tileStore}. Empty while the tiles are spilled.
+     */
+    private Map<Integer, int[]> tiles = new LinkedHashMap<>();
+
+    /** Source of the {@link #lastUsed} stamps. */
+    private static final AtomicLong clock = new AtomicLong();
+
+    /** When the delta was created or last applied, used to pick which deltas to spill first. */
+    private long lastUsed = clock.incrementAndGet();
+
+    /** The store holding the tiles while they are spilled, or {@code null} while they are in memory. */
+    private UndoSpillStore spillStore;
+    private long spillOffset;
+    private int spillLength;
+
+    /** The deflated tiles that were not shared when the delta was compressed, or {@code null}. */
+    private byte[] compressed;
+    private int rawLength;
+
+    /** The compressor that produced {@link #compressed}, or produced the spilled record. */
+    private UndoCompressor compressor;
+
+    /** Incremented whenever the tiles change, so that a compression started earlier is discarded. */
+    private int modCount;
+    private boolean compressionQueued;
+
+    /**
+     * Creates an empty delta for a state with the given dimensions.
+     *
+     * @param width     The width of the state this delta restores.
+     * @param height    The height of the state this delta restores.
+     * @param tileStore The store the tiles are shared through.
+     */
+    public TileDelta(int width, int height, TileStore tileStore) {
+        this.width = width;
+        this.height = height;
+        this.tileStore = tileStore;
+    }
+
+    /**
+     * Computes the delta that turns {@code current} into {@code target}. The returned delta holds
+     * the tiles of {@code target} that differ from {@code current}, or every tile of {@code target}
+     * when the dimensions differ.
+     *
+     * @param target        The packed ARGB pixels of the state to restore.
+     * @param targetWidth   The width of {@code target}.
+     * @param targetHeight  The height of {@code target}.
+     * @param current       The packed ARGB pixels of the state the delta will be applied to.
+     * @param currentWidth  The width of {@code current}.
+     * @param currentHeight The height of {@code current}.
+     * @param tileStore     The store the tiles are shared through.
+     * @return A delta that restores {@code target} when applied to {@code current}.
+     */
+    public static TileDelta diff(int[] target, int targetWidth, int targetHeight,
+                                 int[] current, int currentWidth, int currentHeight, TileStore tileStore) {
+        TileDelta delta = new TileDelta(targetWidth, targetHeight, tileStore);
+        boolean sameSize = targetWidth == currentWidth && targetHeight == currentHeight;
+        int count = tileCount(targetWidth, targetHeight);
+
+        for (int index = 0; index < count; index++) {
+            if (!sameSize || !tileEquals(target, current, targetWidth, targetHeight, index)) {
+                delta.tiles.put(index, tileStore.intern(copyTile(target, targetWidth, targetHeight, index)));
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Writes one tile of a new state into a pixel buffer. If the tile differs, this delta keeps
+     * the tile it replaced, so that it restores the old state when applied to the buffer.
+     *
+     * @param buffer The packed ARGB pixels of the old state, with this delta's dimensions.
+     * @param index  The index of the tile.
+     * @param tile   The packed ARGB pixels of the tile in the new state, row by row.
+     * @return {@code true} if the tile differed.
+     */
+    synchronized boolean replaceTile(int[] buffer, int index, int[] tile) {
+        int x = tileX(width, index);
+        int y = tileY(width, index);
+        int w = tileWidth(width, index);
+        int h = tileHeight(width, height, index);
+
+        boolean equal = true;
+        for (int row = 0; row < h && equal; row++) {
+            int from = (y + row) * width + x;
+            equal = Arrays.equals(buffer, from, from + w, tile, row * w, row * w + w);
+        }
+        if (equal) {
+            return false;
+        }
+        tiles.put(index, tileStore.intern(copyTile(buffer, width, height, index)));
+        pasteTile(buffer, width, height, index, tile);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Applies this delta to a pixel buffer, leaving this delta holding the pixels it replaced.
+     * When the delta is full and the dimensions differ a new buffer is returned.
+     *
+     * @param buffer       The packed ARGB pixels to update.
+     * @param bufferWidth  The width of {@code buffer}.
+     * @param bufferHeight The height of {@code buffer}.
+     * @return The buffer holding the restored state; either {@code buffer} or a new array.
+     */
+    public synchronized int[] apply(int[] buffer, int bufferWidth, int bufferHeight) {
+        ensureLoaded();
+        lastUsed = clock.incrementAndGet();
+        modCount++;
+
+        if (bufferWidth != width || bufferHeight != height) {
+            // Full replacement: keep every tile of the old buffer so the swap can be reversed
+            Map<Integer, int[]> restored = tiles;
+            int[] result = new int[width * height];
+            for (Map.Entry<Integer, int[]> tile : restored.entrySet()) {
+                pasteTile(result, width, height, tile.getKey(), tile.getValue());
+            }
+
+            tiles = diff(buffer, bufferWidth, bufferHeight, result, width, height, tileStore).tiles;
+            for (int[] tile : restored.values()) {
+                tileStore.release(tile);
+            }
+            width = bufferWidth;
+            height = bufferHeight;
+            return result;
+        }
+
+        for (Map.Entry<Integer, int[]> tile : tiles.entrySet()) {
+            int index = tile.getKey();
+            int[] replaced = tileStore.intern(copyTile(buffer, width, height, index));
+            pasteTile(buffer, width, height, index, tile.getValue());
+            tileStore.release(tile.getValue());
+            tile.setValue(replaced);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the state held by a full delta as a new pixel buffer, leaving the delta unchanged.
+     *
+     * @return The packed ARGB pixels of the state this delta restores.
+     * @throws IllegalStateException If the delta is not full.
+     */
+    public synchronized int[] toPixels() {
+        if (!isFull()) {
+            throw new IllegalStateException("Only a full delta holds a complete state");
+        }
+        lastUsed = clock.incrementAndGet();
+        int[] result = new int[width * height];
+        for (Map.Entry<Integer, int[]> tile : tiles.entrySet()) {
+            pasteTile(result, width, height, tile.getKey(), tile.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Re-bases this delta so that it can be applied to an earlier buffer. If this delta restores
+     * state S from state M and {@code base} restores M from state C, this delta afterwards
+     * restores S directly from C.
+     *
+     * @param base The delta that restores the state this delta currently applies to.
+     */
+    public synchronized void rebase(TileDelta base) {
+        ensureLoaded();
+        base.ensureLoaded();
+        if (isFull()) {
+            return;  // A full delta does not depend on the state it is applied to
+        }
+        modCount++;
+        for (Map.Entry<Integer, int[]> tile : base.tiles.entrySet()) {
+            if (!tiles.containsKey(tile.getKey())) {
+                tileStore.retain(tile.getValue());
+                tiles.put(tile.getKey(), tile.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this delta. The copy shares the tiles, which are never modified in place.
+     *
+     * @return A delta with the same dimensions and its own reference to every tile.
+     */
+    public synchronized TileDelta copy() {
+        ensureLoaded();
+        TileDelta copy = new TileDelta(width, height, tileStore);
+        for (Map.Entry<Integer, int[]> tile : tiles.entrySet()) {
+            tileStore.retain(tile.getValue());
+            copy.tiles.put(tile.getKey(), tile.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Checks whether this delta contains every tile of the state it restores.
+     *
+     * @return {@code true} if the delta can be applied to a buffer of any size.
+     */
+    public synchronized boolean isFull() {
+        ensureLoaded();
+        return tiles.size() == tileCount(width, height);
+    }
+
+    /**
+     * Checks whether this delta has no changed tiles.
+     *
+     * @return {@code true} if applying the delta would not change anything.
+     */
+    public synchronized boolean isEmpty() {
+        return compressed == null && spillStore == null && tiles.isEmpty();  // Only non-empty deltas are compressed or spilled
+    }
+
+    /**
+     * Returns the indices of the tiles stored in this delta.
+     *
+     * @return The tile indices, in row-major order of insertion.
+     */
+    public synchronized int[] getTileIndices() {
+        ensureLoaded();
+        return tiles.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns the number of pixel bytes this delta holds in memory. A tile shared with other deltas
+     * counts for its size divided by the number of deltas holding it, so that the sizes of all
+     * deltas add up to the memory held by the {@link TileStore}.
+     *
+     * @return The size of the compressed and uncompressed tiles in bytes, or 0 while they are spilled.
+     */
+    public synchronized long getByteSize() {
+        long bytes = compressed != null ? compressed.length : 0;
+        for (int[] tile : tiles.values()) {
+            bytes += (long) tile.length * Integer.BYTES / tileStore.getReferences(tile);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes this delta occupies in its spill store.
+     *
+     * @return The spilled size in bytes, or 0 while the tiles are in memory.
+     */
+    public synchronized long getSpilledSize() {
+        return spillStore == null ? 0 : spillLength;
+    }
+
+    public synchronized boolean isSpilled() {
+        return spillStore != null;
+    }
+
+    public synchronized boolean isCompressed() {
+        return compressed != null;
+    }
+
+    public synchronized long getLastUsed() {
+        return lastUsed;
+    }
+
+    public synchronized int getWidth() {
+        return width;
+    }
+
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    // --- Compression and spilling ---
+
+    /**
+     * Marks this delta as queued for compression.
+     *
+     * @return {@code true} if the delta should be queued; {@code false} if it is already queued,
+     *         compressed, spilled or empty.
+     */
+    synchronized boolean markCompressionQueued() {
+        if (compressionQueued || compressed != null || spillStore != null || tiles.isEmpty()) {
+            return false;
+        }
+        compressionQueued = true;
+        return true;
+    }
+
+    /**
+     * Compresses the tiles of this delta that no other delta shares; shared tiles are already
+     * stored only once and stay in memory. Runs on the compressor's background thread; the lock
+     * is only held while the tiles are copied out and while the result is installed.
+     *
+     * @param compressor The compressor doing the work.
+     */
+    void compress(UndoCompressor compressor) {
+        ByteBuffer raw;
+        Map<Integer, int[]> unshared = new LinkedHashMap<>();
+        int startModCount;
+        synchronized (this) {
+            compressionQueued = false;
+            if (compressed != null || spillStore != null) {
+                return;
+            }
+            for (Map.Entry<Integer, int[]> tile : tiles.entrySet()) {
+                if (tileStore.getReferences(tile.getValue()) == 1) {
+                    unshared.put(tile.getKey(), tile.getValue());
+                }
+            }
+            if (unshared.isEmpty()) {
+                return;
+            }
+            raw = writeTiles(unshared);
+            startModCount = modCount;
+        }
+
+        int length = raw.remaining();
+        byte[] packed = compressor.deflate(raw);
+
+        synchronized (this) {
+            // Keep the raw tiles if they changed meanwhile or compression did not pay off
+            if (startModCount != modCount || compressed != null || spillStore != null || packed.length >= length) {
+                return;
+            }
+            compressed = packed;
+            rawLength = length;
+            this.compressor = compressor;
+            for (Map.Entry<Integer, int[]> tile : unshared.entrySet()) {
+                tiles.remove(tile.getKey());
+                tileStore.release(tile.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the tiles of this delta to a spill store and gives back its references to shared
+     * tiles. Compressed tiles are written as they are.
+     *
+     * @param store The store to write the tiles to.
+     * @return {@code false} if the store is full; the delta then stays in memory.
+     * @throws IOException If the tiles cannot be written; the delta then stays in memory.
+     */
+    public synchronized boolean spill(UndoSpillStore store) throws IOException {
+        if (spillStore != null || isEmpty()) {
+            return spillStore != null;
+        }
+
+        // Record layout: the compressed length and the length it inflates to, the compressed tiles, then the other tiles
+        ByteBuffer loaded = writeTiles(tiles);
+        int packedLength = compressed != null ? compressed.length : 0;
+        ByteBuffer data = ByteBuffer.allocate(2 * Integer.BYTES + packedLength + loaded.remaining());
+        data.putInt(packedLength);
+        data.putInt(compressed != null ? rawLength : 0);
+        if (compressed != null) {
+            data.put(compressed);
+        }
+        data.put(loaded);
+        data.flip();
+
+        int length = data.remaining();
+        long offset = store.write(data);
+        if (offset < 0) {
+            return false;
+        }
+        spillLength = length;
+        spillOffset = offset;
+        spillStore = store;
+        for (int[] tile : tiles.values()) {
+            tileStore.release(tile);
+        }
+        tiles = new LinkedHashMap<>();
+        compressed = null;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Releases everything held by this delta, including its record in the spill store.
+     * Called when the delta is removed from the history for good.
+     */
+    public synchronized void discard() {
+        if (spillStore != null) {
+            spillStore.release(spillOffset, spillLength);
+            spillStore = null;
+        }
+        for (int[] tile : tiles.values()) {
+            tileStore.release(tile);
+        }
+        tiles = new LinkedHashMap<>();
+        compressed = null;
+        modCount++;
+    }
+
+    /**
+     * Decompresses the tiles or reads them back from the spill store if necessary.
+     */
+    private void ensureLoaded() {
+        if (spillStore != null) {
+            ByteBuffer data;
+            try {
+                data = spillStore.read(spillOffset, spillLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read spilled undo state", e);
+            }
+            spillStore.release(spillOffset, spillLength);
+            spillStore = null;
+
+            int packedLength = data.getInt();
+            int length = data.getInt();
+            if (packedLength > 0) {
+                compressed = new byte[packedLength];
+                data.get(compressed);
+                rawLength = length;
+            }
+            tiles = readTiles(data.slice());
+        }
+
+        if (compressed != null) {
+            tiles.putAll(readTiles(compressor.inflate(compressed, rawLength)));
+            compressed = null;
+        }
+    }
+
+    /**
+     * Serializes tiles as a count followed by, for each tile, its index, its length and its pixels.
+     */
+    private static ByteBuffer writeTiles(Map<Integer, int[]> tiles) {
+        int ints = 1;
+        for (int[] tile : tiles.values()) {
+            ints += 2 + tile.length;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(ints * Integer.BYTES);
+        IntBuffer out = data.asIntBuffer();
+        out.put(tiles.size());
+        for (Map.Entry<Integer, int[]> tile : tiles.entrySet()) {
+            out.put(tile.getKey());
+            out.put(tile.getValue().length);
+            out.put(tile.getValue());
+        }
+        return data;
+    }
+
+    /**
+     * Reads tiles written by {@link #writeTiles(Map)}, taking a reference to each from the store.
+     */
+    private Map<Integer, int[]> readTiles(ByteBuffer data) {
+        IntBuffer in = data.asIntBuffer();
+        int count = in.get();
+
+        Map<Integer, int[]> tiles = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int index = in.get();
+            int[] tile = new int[in.get()];
+            in.get(tile);
+            tiles.put(index, tileStore.intern(tile));
+        }
+        return tiles;
+    }
+
+    // --- Tile geometry ---
+
+    /**
+     * Returns the number of tile columns needed to cover the given width.
+     */
+    public static int tilesAcross(int width) {
+        return (width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Returns the number of tiles needed to cover an image of the given size.
+     */
+    public static int tileCount(int width, int height) {
+        return tilesAcross(width) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Returns the x-coordinate of the left edge of a tile.
+     */
+    public static int tileX(int width, int index) {
+        return (index % tilesAcross(width)) * TILE_SIZE;
+    }
+
+    /**
+     * Returns the y-coordinate of the top edge of a tile.
+     */
+    public static int tileY(int width, int index) {
+        return (index / tilesAcross(width)) * TILE_SIZE;
+    }
+
+    /**
+     * Returns the width of a tile, which is smaller than {@link #TILE_SIZE} on the right edge.
+     */
+    public static int tileWidth(int width, int index) {
+        return Math.min(TILE_SIZE, width - tileX(width, index));
+    }
+
+    /**
+     * Returns the height of a tile, which is smaller than {@link #TILE_SIZE} on the bottom edge.
+     */
+    public static int tileHeight(int width, int height, int index) {
+        return Math.min(TILE_SIZE, height - tileY(width, index));
+    }
+
+    // --- Tile copying ---
+
+    private static boolean tileEquals(int[] a, int[] b, int width, int height, int index) {
+        int x = tileX(width, index);
+        int y = tileY(width, index);
+        int w = tileWidth(width, index);
+        int h = tileHeight(width, height, index);
+
+        for (int row = 0; row < h; row++) {
+            int from = (y + row) * width + x;
+            if (!Arrays.equals(a, from, from + w, b, from, from + w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] copyTile(int[] buffer, int width, int height, int index) {
+        int x = tileX(width, index);
+        int y = tileY(width, index);
+        int w = tileWidth(width, index);
+        int h = tileHeight(width, height, index);
+
+        int[] tile = new int[w * h];
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(buffer, (y + row) * width + x, tile, row * w, w);
+        }
+        return tile;
+    }
+
+    private static void pasteTile(int[] buffer, int width, int height, int index, int[] tile) {
+        int x = tileX(width, index);
+        int y = tileY(width, index);
+        int w = tileWidth(width, index);
+        int h = tileHeight(width, height, index);
+
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(tile, row * w, buffer, (y + row) * width + x, w);
+        }
+    }
+}
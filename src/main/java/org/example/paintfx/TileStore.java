@@ -0,0 +1,157 @@
+package org.example.paintfx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The {@code TileStore} class deduplicates the tiles held by {@link TileDelta}s. Tiles are keyed
+ * by their content, so every delta that holds the same pixels - the same image opened in several
+ * tabs, or a region that is identical across many undo states - shares a single array.
+ *
+ * <p>Each tile counts the deltas referencing it. A delta takes a reference with
+ * {@link #intern(int[])} or {@link #retain(int[])} and gives it back with {@link #release(int[])};
+ * once no delta references a tile any more it is removed from the store and left to the garbage
+ * collector. Tiles handed out by the store are shared and must never be modified.
+ *
+ * <p>One store is owned by each {@link UndoMemoryBudget}, so every {@link UndoRedo} sharing a
+ * budget also shares its tiles. Compression runs on a background thread, so all methods are
+ * synchronized.
+ */
+public class TileStore {
+
+    /**
+     * A stored tile with its reference count. Equal when the pixels are equal, so that an entry
+     * can be looked up by content.
+     */
+    private static final class Entry {
+        final int[] pixels;
+        final int hash;
+        int references;
+
+        Entry(int[] pixels) {
+            this.pixels = pixels;
+            this.hash = Arrays.hashCode(pixels);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry entry && entry.hash == hash && Arrays.equals(entry.pixels, pixels);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** Every stored tile, keyed by content. */
+    private final Map<Entry, Entry> entries = new HashMap<>();
+
+    /** Every stored tile, keyed by the shared array, so references can be returned without hashing. */
+    private final Map<int[], Entry> byArray = new IdentityHashMap<>();
+
+    /** Size of the stored tiles in bytes. */
+    private long storedBytes;
+
+    /** Size of every reference to a stored tile in bytes, which is what the deltas would hold without the store. */
+    private long referencedBytes;
+
+    /**
+     * Takes a reference to the stored tile with the given content, adding the tile if it is new.
+     *
+     * @param tile Packed ARGB pixels of a tile. The store keeps the array if the content is new,
+     *             so the caller must not modify it afterwards.
+     * @return The shared array holding the content; either {@code tile} or an equal array.
+     */
+    public synchronized int[] intern(int[] tile) {
+        Entry probe = new Entry(tile);
+        Entry entry = entries.get(probe);
+        if (entry == null) {
+            entry = probe;
+            entries.put(entry, entry);
+            byArray.put(tile, entry);
+            storedBytes += (long) tile.length * Integer.BYTES;
+        }
+        entry.references++;
+        referencedBytes += (long) tile.length * Integer.BYTES;
+        return entry.pixels;
+    }
+
+    /**
+     * Takes another reference to a tile returned by {@link #intern(int[])}.
+     *
+     * @param tile The shared array.
+     */
+    public synchronized void retain(int[] tile) {
+        entryFor(tile).references++;
+        referencedBytes += (long) tile.length * Integer.BYTES;
+    }
+
+    /**
+     * Gives back a reference to a tile, removing it from the store when it was the last one.
+     *
+     * @param tile The shared array.
+     */
+    public synchronized void release(int[] tile) {
+        Entry entry = entryFor(tile);
+        referencedBytes -= (long) tile.length * Integer.BYTES;
+        if (--entry.references == 0) {
+            entries.remove(entry);
+            byArray.remove(tile);
+            storedBytes -= (long) tile.length * Integer.BYTES;
+        }
+    }
+
+    /**
+     * Returns the number of deltas referencing a tile.
+     *
+     * @param tile The shared array.
+     * @return The reference count of the tile.
+     */
+    public synchronized int getReferences(int[] tile) {
+        return entryFor(tile).references;
+    }
+
+    private Entry entryFor(int[] tile) {
+        Entry entry = byArray.get(tile);
+        if (entry == null) {
+            throw new IllegalArgumentException("Tile is not held by this store");
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of distinct tiles in the store.
+     *
+     * @return The number of stored tiles.
+     */
+    public synchronized int getTileCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the memory held by the stored tiles.
+     *
+     * @return The size of the distinct tiles in bytes.
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Returns the memory the deltas would hold if every reference had its own copy.
+     *
+     * @return The size of every reference in bytes.
+     */
+    public synchronized long getReferencedBytes() {
+        return referencedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d tiles, %d KB stored for %d KB referenced", entries.size(),
+                storedBytes / 1024, referencedBytes / 1024);
+    }
+}
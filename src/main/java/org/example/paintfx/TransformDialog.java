@@ -0,0 +1,167 @@
+package org.example.paintfx;
+
+import javafx.animation.AnimationTimer;
+import javafx.collections.FXCollections;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.GridPane;
+import javafx.scene.paint.Color;
+
+import java.awt.geom.AffineTransform;
+
+/**
+ * The {@code TransformDialog} class asks for a free rotation, scale and shear of the selection, or
+ * of the whole canvas when nothing is selected, and the quality to apply it with.
+ *
+ * <p>While the sliders are dragged the result is previewed on the overlay canvas, rendered by an
+ * {@link AffineTransformer.Preview} from a shrunk copy with nearest sampling. Slider changes only
+ * mark the preview stale; it is redrawn at most once per frame, so the dialog keeps up with the
+ * drag on any size of canvas. The transform itself is left to the caller, at the chosen quality,
+ * once the dialog is confirmed.
+ */
+public class TransformDialog extends Dialog<TransformDialog.Transform> {
+
+    /** The most pixels the copy rendered by the preview may have. */
+    private static final int PREVIEW_PIXELS = 1 << 19;
+
+    /**
+     * The transform chosen in the dialog.
+     *
+     * @param matrix  The transform, in the coordinates of the selection or the canvas.
+     * @param quality How the pixels are to be sampled.
+     */
+    public record Transform(AffineTransform matrix, AffineTransformer.Quality quality) {
+    }
+
+    private final Slider angleSlider = new Slider(-180, 180, 0);
+    private final Slider scaleSlider = new Slider(10, 400, 100);
+    private final Slider shearXSlider = new Slider(-100, 100, 0);
+    private final Slider shearYSlider = new Slider(-100, 100, 0);
+    private final ChoiceBox<AffineTransformer.Quality> qualityChoice =
+            new ChoiceBox<>(FXCollections.observableArrayList(AffineTransformer.Quality.values()));
+
+    private final Canvas overlayCanvas;
+    private final GraphicsContext overlayGc;
+    private final boolean selection;
+    private final double sourceX;
+    private final double sourceY;
+    private final double sourceWidth;
+    private final double sourceHeight;
+    private final AffineTransformer.Preview preview;
+    private boolean previewStale = true;
+
+    /**
+     * Constructs the dialog for the current selection, or the whole canvas if there is none.
+     *
+     * @param canvas            The canvas.
+     * @param overlayCanvas     The overlay canvas above it, for the preview.
+     * @param moveSelectionTool The tool holding the selection, if any.
+     */
+    public TransformDialog(Canvas canvas, Canvas overlayCanvas, MoveSelectionTool moveSelectionTool) {
+        this.overlayCanvas = overlayCanvas;
+        this.overlayGc = overlayCanvas.getGraphicsContext2D();
+        selection = moveSelectionTool.isSelectionActive();
+
+        WritableImage source;
+        if (selection) {
+            source = moveSelectionTool.getSelectedImage();
+            sourceX = moveSelectionTool.selectionX;
+            sourceY = moveSelectionTool.selectionY;
+        } else {
+            source = canvas.snapshot(null, null);
+            sourceX = 0;
+            sourceY = 0;
+        }
+        sourceWidth = source.getWidth();
+        sourceHeight = source.getHeight();
+        preview = new AffineTransformer.Preview(PixelConverter.toArgb(source), (int) sourceWidth, (int) sourceHeight, PREVIEW_PIXELS);
+
+        setTitle("Transform");
+        setHeaderText(selection ? "Rotate, scale or shear the selection" : "Rotate, scale or shear the canvas");
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Angle (degrees)"), angleSlider);
+        grid.addRow(1, new Label("Scale (%)"), scaleSlider);
+        grid.addRow(2, new Label("Horizontal shear (%)"), shearXSlider);
+        grid.addRow(3, new Label("Vertical shear (%)"), shearYSlider);
+        grid.addRow(4, new Label("Quality"), qualityChoice);
+        getDialogPane().setContent(grid);
+        getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        for (Slider slider : new Slider[]{angleSlider, scaleSlider, shearXSlider, shearYSlider}) {
+            slider.setShowTickLabels(true);
+            slider.setPrefWidth(300);
+            slider.valueProperty().addListener((obs, oldValue, newValue) -> previewStale = true);
+        }
+        qualityChoice.setValue(AffineTransformer.Quality.BICUBIC);
+
+        // Draw at most one preview per frame, however many values the sliders pass through in between
+        AnimationTimer previewTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (previewStale) {
+                    previewStale = false;
+                    drawPreview();
+                }
+            }
+        };
+        setOnShown(e -> previewTimer.start());
+        setOnHidden(e -> {
+            previewTimer.stop();
+            overlayGc.clearRect(0, 0, overlayCanvas.getWidth(), overlayCanvas.getHeight());
+        });
+
+        setResultConverter(button -> button == ButtonType.OK ? new Transform(getMatrix(), qualityChoice.getValue()) : null);
+    }
+
+    /**
+     * Builds the transform set by the sliders. It is applied about the center of the selection
+     * or the canvas, scaling and shearing first and rotating last.
+     *
+     * @return The transform, in the coordinates of the selection or the canvas.
+     */
+    private AffineTransform getMatrix() {
+        double scale = scaleSlider.getValue() / 100;
+        AffineTransform matrix = AffineTransform.getTranslateInstance(sourceWidth / 2, sourceHeight / 2);
+        matrix.rotate(Math.toRadians(angleSlider.getValue()));
+        matrix.shear(shearXSlider.getValue() / 100, shearYSlider.getValue() / 100);
+        matrix.scale(scale, scale);
+        matrix.translate(-sourceWidth / 2, -sourceHeight / 2);
+        return matrix;
+    }
+
+    // --- Draw the preview over the canvas, scaling the shrunk copy back up ---
+    private void drawPreview() {
+        AffineTransformer.Result result;
+        try {
+            result = preview.render(getMatrix());
+        } catch (IllegalArgumentException e) {
+            // A shear that flattens the image to a line; keep the last preview
+            return;
+        }
+        WritableImage image = new WritableImage(result.width(), result.height());
+        image.getPixelWriter().setPixels(0, 0, result.width(), result.height(), PixelFormat.getIntArgbInstance(),
+                result.pixels(), 0, result.width());
+
+        overlayGc.clearRect(0, 0, overlayCanvas.getWidth(), overlayCanvas.getHeight());
+        if (!selection) {
+            // Hide the untransformed canvas underneath
+            overlayGc.setFill(Color.WHITE);
+            overlayGc.fillRect(0, 0, overlayCanvas.getWidth(), overlayCanvas.getHeight());
+        }
+        double scale = preview.getScale();
+        overlayGc.setImageSmoothing(false);
+        overlayGc.drawImage(image, sourceX + result.x() / scale, sourceY + result.y() / scale,
+                result.width() / scale, result.height() / scale);
+        overlayGc.setImageSmoothing(true);
+    }
+}
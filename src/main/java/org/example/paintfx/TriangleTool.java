@@ -22,20 +22,28 @@ public class TriangleTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
+
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
 
         // Coordinates of the mouse dragged position
-        double endX = event.getX();
-        double endY = event.getY();
+        double endX = operation.getEndX();
+        double endY = operation.getEndY();
 
         // Define the three points of the right triangle
         double[] xPoints = {startX, startX, endX};  // One side is vertical, startX is repeated for the height
         double[] yPoints = {startY, endY, endY};    // One side is horizontal, endY is repeated for the base
 
         // Draw the filled right triangle
-        gc.setFill(fillColor);
+        gc.setFill(operation.getFillColor());
         gc.fillPolygon(xPoints, yPoints, 3);  // 3 points for the triangle
-        gc.setStroke(borderColor);
-        gc.setLineWidth(borderWidth);
+        gc.setStroke(operation.getBorderColor());
+        gc.setLineWidth(operation.getBorderWidth());
         gc.strokePolygon(xPoints, yPoints, 3);  // Outline the triangle
     }
 
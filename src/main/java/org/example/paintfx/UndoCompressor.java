@@ -0,0 +1,171 @@
+package org.example.paintfx;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@code UndoCompressor} class compresses undo states on a background thread. Canvas
+ * states are mostly large flat regions, so deflating the packed ARGB tiles of a {@link TileDelta}
+ * usually shrinks it by an order of magnitude or more.
+ *
+ * <p>Compression never runs on the JavaFX Application Thread; decompression happens there on
+ * demand, when undo or redo reaches a compressed state. The compressor keeps running totals of
+ * the compression ratio and the time spent in each direction, which are published as
+ * {@link Metrics}.
+ */
+public class UndoCompressor {
+
+    /** Single background thread, so compression never competes with itself for the CPU. */
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "undo-compressor");
+        thread.setDaemon(true);  // Never keep the application alive
+        return thread;
+    });
+
+    /** The deflate level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}. */
+    private final int level;
+
+    private final LongAdder compressedStates = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressedStates = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * Creates a compressor that favours speed over ratio.
+     */
+    public UndoCompressor() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Creates a compressor with the given deflate level.
+     *
+     * @param level The deflate level, from 1 (fastest) to 9 (smallest).
+     */
+    public UndoCompressor(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Queues a delta for compression on the background thread. Deltas that are already queued,
+     * compressed or spilled are ignored, as are all deltas once the compressor has been shut down;
+     * those simply stay uncompressed.
+     *
+     * @param delta The delta to compress.
+     */
+    public void submit(TileDelta delta) {
+        if (!executorService.isShutdown() && delta.markCompressionQueued()) {
+            executorService.submit(() -> delta.compress(this));
+        }
+    }
+
+    /**
+     * Deflates serialized tiles.
+     *
+     * @param raw The serialized tiles, from the buffer's position to its limit.
+     * @return The deflated bytes.
+     */
+    byte[] deflate(ByteBuffer raw) {
+        long start = System.nanoTime();
+        int length = raw.remaining();
+
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 16));
+        byte[] chunk = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            out.write(chunk, 0, count);
+        }
+        deflater.end();
+        byte[] packed = out.toByteArray();
+
+        compressNanos.add(System.nanoTime() - start);
+        compressedStates.increment();
+        rawBytes.add(length);
+        compressedBytes.add(packed.length);
+        return packed;
+    }
+
+    /**
+     * Inflates tiles deflated by {@link #deflate(ByteBuffer)}.
+     *
+     * @param packed    The deflated bytes.
+     * @param rawLength The length of the serialized tiles.
+     * @return A buffer holding the serialized tiles.
+     */
+    ByteBuffer inflate(byte[] packed, int rawLength) {
+        long start = System.nanoTime();
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(packed);
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        try {
+            while (raw.hasRemaining() && !inflater.finished()) {
+                inflater.inflate(raw);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed undo state", e);
+        } finally {
+            inflater.end();
+        }
+        raw.flip();
+
+        decompressNanos.add(System.nanoTime() - start);
+        decompressedStates.increment();
+        return raw;
+    }
+
+    /**
+     * Returns the ratio of uncompressed to compressed size over every state compressed so far.
+     *
+     * @return The compression ratio, or 1 if nothing was compressed yet.
+     */
+    public double getCompressionRatio() {
+        long packed = compressedBytes.sum();
+        return packed == 0 ? 1 : (double) rawBytes.sum() / packed;
+    }
+
+    public long getCompressedStates() {
+        return compressedStates.sum();
+    }
+
+    /**
+     * Returns the total time spent compressing states, on the background thread.
+     *
+     * @return The compression time in seconds.
+     */
+    public double getCompressSeconds() {
+        return compressNanos.sum() / 1e9;
+    }
+
+    public long getDecompressedStates() {
+        return decompressedStates.sum();
+    }
+
+    /**
+     * Returns the total time spent decompressing states, on the threads performing undo or redo.
+     *
+     * @return The decompression time in seconds.
+     */
+    public double getDecompressSeconds() {
+        return decompressNanos.sum() / 1e9;
+    }
+
+    /**
+     * Stops the background thread. Queued compressions are abandoned.
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,497 @@
+package org.example.paintfx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code UndoJournal} class writes the undo history of one tab to an append-only file, so
+ * that the canvas and its whole undo and redo history survive a crash. {@link UndoRedo} appends
+ * the tiles that changed whenever it reads the canvas, followed by a record for the push, undo
+ * or redo it performed. Replaying the records through a new {@code UndoRedo} rebuilds the same
+ * stacks.
+ *
+ * <p>Records are prepared on the JavaFX Application Thread, which only copies the changed
+ * tiles. A background thread writes them in order and forces them to disk once per batch of
+ * queued records. Each record carries a CRC, so a record torn by a crash is detected and cut
+ * off when the journal is opened again.
+ *
+ * <p>When the file has grown well past its size after the last compaction, the writer thread
+ * compacts it: it rebuilds the history from the file, writes only the states still in the
+ * stacks to a new file and atomically replaces the old one. Records appended meanwhile wait
+ * in the queue.
+ */
+public class UndoJournal {
+
+    /** File header, "PFJ1". */
+    private static final int MAGIC = 0x50464a31;
+    private static final int HEADER_SIZE = 4;
+
+    /** Record types. */
+    static final byte CHANGES = 1, PUSH = 2, UNDO = 3, REDO = 4, CLEAR = 5, DROP = 6;
+
+    /** Journals smaller than this are never compacted. */
+    private static final long COMPACT_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Marks the end of the queue when the journal is closed. */
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+    /** Receives the records read back from a journal file. */
+    private interface RecordHandler {
+        void handle(byte type, ByteBuffer payload, long payloadOffset) throws IOException;
+    }
+
+    private final File file;
+
+    /** Channel used for appending; only touched by the writer thread once it has started. */
+    private FileChannel channel;
+
+    /** Current end of the file. */
+    private long size;
+
+    /** Size of the file after the last compaction, or when it was opened. */
+    private long compactedSize;
+
+    /** Records waiting to be written, in order. */
+    private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    /** Set when a write fails; the journal stops accepting records. */
+    private volatile boolean failed;
+
+    /** Whether the file should be deleted once the writer has finished. */
+    private volatile boolean deleteOnClose;
+
+    /**
+     * Opens a journal file, creating it if it is empty. A record left incomplete by a crash is
+     * cut off so that new records follow the last complete one.
+     *
+     * @param file The journal file.
+     * @throws IOException If the file cannot be opened or is not a journal.
+     */
+    public UndoJournal(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = channel.size();
+        if (length < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            size = HEADER_SIZE;
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Not an undo journal: " + file);
+            }
+            size = readRecords(channel, length, (type, payload, offset) -> { });
+            if (size < length) {
+                System.out.println("Discarding " + (length - size) + " bytes of incomplete undo journal records in " + file);
+                channel.truncate(size);
+            }
+        }
+        compactedSize = size;
+
+        writer = new Thread(this::writeLoop, "undo-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends the tiles of the canvas that changed since the last record.
+     *
+     * @param pixels  The packed ARGB pixels of the canvas.
+     * @param width   The width of the canvas.
+     * @param height  The height of the canvas.
+     * @param indices The indices of the changed tiles, or {@code null} to write every tile.
+     */
+    void appendTiles(int[] pixels, int width, int height, int[] indices) {
+        if (failed) {
+            return;
+        }
+        int count = indices == null ? TileDelta.tileCount(width, height) : indices.length;
+        int length = 12;
+        for (int i = 0; i < count; i++) {
+            int index = indices == null ? i : indices[i];
+            length += 4 + 4 * TileDelta.tileWidth(width, index) * TileDelta.tileHeight(width, height, index);
+        }
+
+        ByteBuffer record = newRecord(CHANGES, length);
+        record.putInt(width).putInt(height).putInt(count);
+        for (int i = 0; i < count; i++) {
+            int index = indices == null ? i : indices[i];
+            record.putInt(index);
+            int x = TileDelta.tileX(width, index);
+            int y = TileDelta.tileY(width, index);
+            int tileWidth = TileDelta.tileWidth(width, index);
+            int tileHeight = TileDelta.tileHeight(width, height, index);
+            IntBuffer ints = record.asIntBuffer();
+            for (int row = 0; row < tileHeight; row++) {
+                ints.put(pixels, (y + row) * width + x, tileWidth);
+            }
+            record.position(record.position() + 4 * tileWidth * tileHeight);
+        }
+        queue.add(record);
+    }
+
+    /**
+     * Appends a record without a payload.
+     *
+     * @param type One of {@link #PUSH}, {@link #UNDO}, {@link #REDO}, {@link #CLEAR} or {@link #DROP}.
+     */
+    void append(byte type) {
+        if (!failed) {
+            queue.add(newRecord(type, 0));
+        }
+    }
+
+    /**
+     * Replays the journal into an empty history, rebuilding its stacks and the canvas. Must be
+     * called on the JavaFX Application Thread before anything is appended.
+     *
+     * @param target The history to rebuild.
+     * @throws IOException If the journal cannot be read.
+     */
+    void replay(UndoRedo target) throws IOException {
+        int[][] live = {null};
+        int[] dimensions = {0, 0};
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readRecords(in, size, (type, payload, offset) -> {
+                switch (type) {
+                    case CHANGES -> {
+                        int width = payload.getInt();
+                        int height = payload.getInt();
+                        int count = payload.getInt();
+                        if (live[0] == null || width != dimensions[0] || height != dimensions[1]) {
+                            live[0] = new int[width * height];
+                            dimensions[0] = width;
+                            dimensions[1] = height;
+                        }
+                        for (int i = 0; i < count; i++) {
+                            readTile(payload, live[0], width, height);
+                        }
+                    }
+                    case DROP -> {
+                        // The memory budget drops states again as the history is rebuilt
+                    }
+                    default -> {
+                        if (live[0] != null) {
+                            live[0] = target.replay(type, live[0], dimensions[0], dimensions[1]);
+                            dimensions[0] = target.getPixelsWidth();
+                            dimensions[1] = target.getPixelsHeight();
+                        }
+                    }
+                }
+            });
+        }
+        if (live[0] != null) {
+            target.finishReplay(live[0], dimensions[0], dimensions[1]);
+        }
+    }
+
+    /**
+     * Stops the writer once every queued record is on disk.
+     *
+     * @param delete Whether to delete the file afterwards, when the history is no longer needed.
+     */
+    public void close(boolean delete) {
+        deleteOnClose = delete;
+        queue.add(CLOSE);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes queued records until the journal is closed, forcing each batch to disk and
+     * compacting the file when it has grown enough.
+     */
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        boolean closing = false;
+        try {
+            while (!closing) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (ByteBuffer record : batch) {
+                    if (record == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    seal(record);
+                    while (record.hasRemaining()) {
+                        size += channel.write(record, size);
+                    }
+                }
+                batch.clear();
+                channel.force(false);  // One fsync for the whole batch
+
+                if (!closing && size > COMPACT_THRESHOLD && size > 2 * compactedSize) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+            queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (deleteOnClose && !file.delete()) {
+            System.out.println("Could not delete undo journal: " + file);
+        }
+    }
+
+    /**
+     * Rewrites the journal so that it only holds the states still in the history.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        long before = size;
+
+        HistoryModel model = new HistoryModel();
+        readRecords(channel, size, model::apply);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            model.writeTo(channel, out);
+            out.force(false);
+        }
+
+        channel.close();
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+            compactedSize = size;
+        }
+        System.out.printf("Compacted undo journal %s from %d to %d bytes in %.1f ms%n",
+                file.getName(), before, size, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * The undo and redo stacks rebuilt from a journal, holding the file offset of every tile
+     * instead of its pixels.
+     */
+    private static class HistoryModel {
+
+        private record State(int width, int height, long[] tiles) { }
+
+        private final List<State> undo = new ArrayList<>();
+        private final List<State> redo = new ArrayList<>();
+        private State live;
+
+        void apply(byte type, ByteBuffer payload, long payloadOffset) {
+            switch (type) {
+                case CHANGES -> {
+                    int width = payload.getInt();
+                    int height = payload.getInt();
+                    int count = payload.getInt();
+                    boolean sameSize = live != null && live.width() == width && live.height() == height;
+                    long[] tiles = sameSize ? live.tiles().clone() : new long[TileDelta.tileCount(width, height)];
+                    for (int i = 0; i < count; i++) {
+                        int index = payload.getInt();
+                        tiles[index] = payloadOffset + payload.position();
+                        payload.position(payload.position() + 4 * TileDelta.tileWidth(width, index) * TileDelta.tileHeight(width, height, index));
+                    }
+                    live = new State(width, height, tiles);
+                }
+                case PUSH -> {
+                    if (live != null) {
+                        undo.add(live);
+                        redo.clear();
+                    }
+                }
+                case UNDO -> {
+                    if (!undo.isEmpty()) {
+                        redo.add(live);
+                        live = undo.remove(undo.size() - 1);
+                    }
+                }
+                case REDO -> {
+                    if (!redo.isEmpty()) {
+                        undo.add(live);
+                        live = redo.remove(redo.size() - 1);
+                    }
+                }
+                case CLEAR -> {
+                    undo.clear();
+                    redo.clear();
+                }
+                case DROP -> {
+                    List<State> stack = undo.isEmpty() ? redo : undo;
+                    if (!stack.isEmpty()) {
+                        stack.remove(0);
+                    }
+                }
+                default -> { }
+            }
+        }
+
+        /**
+         * Writes a journal that rebuilds the same stacks: every state from the bottom of the undo
+         * stack to the bottom of the redo stack is pushed in turn, then the redo states are undone.
+         */
+        void writeTo(FileChannel in, FileChannel out) throws IOException {
+            long position = 0;
+            position += out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip(), position);
+            if (live == null) {
+                return;
+            }
+
+            List<State> states = new ArrayList<>(undo);
+            states.add(live);
+            for (int i = redo.size() - 1; i >= 0; i--) {
+                states.add(redo.get(i));
+            }
+
+            State previous = null;
+            for (State state : states) {
+                if (previous != null) {
+                    position = writeRecord(out, position, newRecord(PUSH, 0));
+                }
+                position = writeChanges(in, out, position, previous, state);
+                previous = state;
+            }
+            for (int i = 0; i < redo.size(); i++) {
+                position = writeRecord(out, position, newRecord(UNDO, 0));
+            }
+        }
+
+        private long writeChanges(FileChannel in, FileChannel out, long position, State previous, State state) throws IOException {
+            boolean sameSize = previous != null && previous.width() == state.width() && previous.height() == state.height();
+            List<Integer> changed = new ArrayList<>();
+            int length = 12;
+            for (int index = 0; index < state.tiles().length; index++) {
+                if (!sameSize || previous.tiles()[index] != state.tiles()[index]) {
+                    changed.add(index);
+                    length += 4 + 4 * TileDelta.tileWidth(state.width(), index) * TileDelta.tileHeight(state.width(), state.height(), index);
+                }
+            }
+            if (changed.isEmpty()) {
+                return position;
+            }
+
+            ByteBuffer record = newRecord(CHANGES, length);
+            record.putInt(state.width()).putInt(state.height()).putInt(changed.size());
+            for (int index : changed) {
+                record.putInt(index);
+                int bytes = 4 * TileDelta.tileWidth(state.width(), index) * TileDelta.tileHeight(state.width(), state.height(), index);
+                ByteBuffer tile = record.slice(record.position(), bytes);
+                readFully(in, tile, state.tiles()[index]);
+                record.position(record.position() + bytes);
+            }
+            return writeRecord(out, position, record);
+        }
+    }
+
+    /**
+     * Allocates a record: payload length, type, payload, then room for the CRC.
+     */
+    private static ByteBuffer newRecord(byte type, int payloadLength) {
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + payloadLength + 4);
+        record.putInt(payloadLength).put(type);
+        return record;
+    }
+
+    /**
+     * Stores the CRC of the type and payload at the end of a record and prepares it for writing.
+     */
+    private static void seal(ByteBuffer record) {
+        int payloadLength = record.getInt(0);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, 1 + payloadLength);
+        record.putInt(4 + 1 + payloadLength, (int) crc.getValue());
+        record.clear();
+    }
+
+    private static long writeRecord(FileChannel out, long position, ByteBuffer record) throws IOException {
+        seal(record);
+        while (record.hasRemaining()) {
+            position += out.write(record, position);
+        }
+        return position;
+    }
+
+    /**
+     * Reads every complete record up to {@code limit}.
+     *
+     * @return The offset just past the last complete record.
+     */
+    private static long readRecords(FileChannel channel, long limit, RecordHandler handler) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(5);
+        long position = HEADER_SIZE;
+        while (position + 5 + 4 <= limit) {
+            header.clear();
+            readFully(channel, header, position);
+            int payloadLength = header.getInt(0);
+            byte type = header.get(4);
+            if (payloadLength < 0 || position + 5 + payloadLength + 4 > limit) {
+                break;  // Torn record
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(payloadLength + 4);
+            readFully(channel, body, position + 5);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(body.array(), 0, payloadLength);
+            if ((int) crc.getValue() != body.getInt(payloadLength)) {
+                break;  // Corrupt record
+            }
+
+            handler.handle(type, body.position(0).limit(payloadLength), position + 5);
+            position += 5 + payloadLength + 4;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of undo journal");
+            }
+        }
+    }
+
+    /**
+     * Copies one tile of a changes record into a pixel buffer.
+     */
+    private static void readTile(ByteBuffer payload, int[] pixels, int width, int height) {
+        int index = payload.getInt();
+        int x = TileDelta.tileX(width, index);
+        int y = TileDelta.tileY(width, index);
+        int tileWidth = TileDelta.tileWidth(width, index);
+        int tileHeight = TileDelta.tileHeight(width, height, index);
+        IntBuffer ints = payload.asIntBuffer();
+        for (int row = 0; row < tileHeight; row++) {
+            ints.get(pixels, (y + row) * width + x, tileWidth);
+        }
+        payload.position(payload.position() + 4 * tileWidth * tileHeight);
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.paintfx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code UndoMemoryBudget} class limits the heap used by undo history across every
+ * {@link UndoRedo} instance that shares it. When the history held in memory grows past the
+ * budget, the least recently used states are spilled to an {@link UndoSpillStore} and read back
+ * transparently when they are needed again. If the spill file also reaches its limit, the
+ * oldest states are dropped from the bottom of the stacks instead.
+ *
+ * <p>The budget also owns the {@link UndoCompressor} that compresses the histories' older
+ * states in the background, which usually keeps them well below the budget in the first place,
+ * and the {@link TileStore} through which the histories share identical tiles.
+ *
+ * <p>All methods are expected to be called on the JavaFX Application Thread, like {@code UndoRedo}.
+ */
+public class UndoMemoryBudget {
+
+    /** The histories sharing this budget. */
+    private final List<UndoRedo> histories = new ArrayList<>();
+
+    /** Maximum number of bytes of undo history held in memory. */
+    private long maxBytes;
+
+    /** Maximum length of the spill file, beyond which states are dropped instead. */
+    private long maxSpillBytes;
+
+    /** Store for spilled states, created the first time the budget is exceeded. */
+    private UndoSpillStore spillStore;
+
+    /** Compresses older states of every history in the background. */
+    private final UndoCompressor compressor = new UndoCompressor();
+
+    /** Deduplicates the tiles of every history. */
+    private final TileStore tileStore = new TileStore();
+
+    /**
+     * Creates a budget with a 4 GB limit on the spill file.
+     *
+     * @param maxBytes The maximum number of bytes of undo history held in memory.
+     */
+    public UndoMemoryBudget(long maxBytes) {
+        this(maxBytes, 4L * 1024 * 1024 * 1024);
+    }
+
+    /**
+     * Creates a budget.
+     *
+     * @param maxBytes      The maximum number of bytes of undo history held in memory.
+     * @param maxSpillBytes The maximum length of the spill file in bytes.
+     */
+    public UndoMemoryBudget(long maxBytes, long maxSpillBytes) {
+        this.maxBytes = maxBytes;
+        this.maxSpillBytes = maxSpillBytes;
+    }
+
+    void register(UndoRedo history) {
+        histories.add(history);
+    }
+
+    void unregister(UndoRedo history) {
+        histories.remove(history);
+    }
+
+    /**
+     * Spills or drops the least recently used states until the history held in memory fits
+     * within the budget.
+     */
+    public void enforce() {
+        long used = getUsedBytes();
+        while (used > maxBytes) {
+            // Find the least recently used state still in memory, across all histories
+            UndoRedo owner = null;
+            TileDelta oldest = null;
+            for (UndoRedo history : histories) {
+                TileDelta candidate = history.getLeastRecentlyUsedDelta();
+                if (candidate != null && (oldest == null || candidate.getLastUsed() < oldest.getLastUsed())) {
+                    oldest = candidate;
+                    owner = history;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+
+            long bytes = oldest.getByteSize();
+            if (spill(oldest)) {
+                used -= bytes;
+            } else {
+                long freed = owner.dropOldest();
+                if (freed < 0) {
+                    return;  // The oldest state is still needed
+                }
+                used -= freed;
+            }
+        }
+    }
+
+    private boolean spill(TileDelta delta) {
+        try {
+            if (spillStore == null) {
+                spillStore = new UndoSpillStore(maxSpillBytes);
+            }
+            return delta.spill(spillStore);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of undo history held in memory by all histories.
+     *
+     * @return The memory used by undo history, in bytes.
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (UndoRedo history : histories) {
+            used += history.getMemoryUsage();
+        }
+        return used;
+    }
+
+    /**
+     * Returns the number of bytes of undo history currently spilled to disk.
+     *
+     * @return The live size of the spill file, in bytes.
+     */
+    public long getSpilledBytes() {
+        return spillStore == null ? 0 : spillStore.getLiveBytes();
+    }
+
+    public UndoCompressor getCompressor() {
+        return compressor;
+    }
+
+    public TileStore getTileStore() {
+        return tileStore;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Changes the budget and spills states immediately if the history no longer fits.
+     *
+     * @param maxBytes The maximum number of bytes of undo history held in memory.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        enforce();
+    }
+
+    public long getMaxSpillBytes() {
+        return maxSpillBytes;
+    }
+
+    public void setMaxSpillBytes(long maxSpillBytes) {
+        this.maxSpillBytes = maxSpillBytes;
+        if (spillStore != null) {
+            spillStore.setMaxSize(maxSpillBytes);
+        }
+    }
+
+    /**
+     * Stops background compression and deletes the spill file. Should be called when the
+     * application closes.
+     */
+    public void close() {
+        compressor.shutdown();
+        if (spillStore != null) {
+            spillStore.close();
+            spillStore = null;
+        }
+    }
+}
@@ -1,23 +1,73 @@
 package org.example.paintfx;
 
 
+import javafx.geometry.Rectangle2D;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
 import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Stack;
 
 /**
  * The {@code UndoRedo} class manages undo and redo functionality for a canvases.
  * It maintains stacks for undo and redo operations, allowing users to revert or reapply
  * actions taken on the canvas.
+ *
+ * <p>Instead of a full snapshot per action, each stack entry is a {@link TileDelta} holding
+ * only the tiles that changed. The manager keeps one full copy of the canvas pixels as of the
+ * last push, undo or redo. The top entry of each stack restores its state from that copy, and
+ * every entry below it restores its state from the state of the entry above.
+ *
+ * <p>The manager counts a version that is incremented whenever the canvas may have changed: on
+ * every mouse press, drag and release on the canvas, on a resize, on every push and on
+ * {@link #markChanged()}. The canvas is only read back when the version has moved since the copy
+ * was last brought up to date, so consecutive undos and redos only write the tiles they restore.
+ * Only the tiles the canvas's {@link DirtyTileTracker} reports as drawn on since then are read
+ * back, so a push costs time in proportion to the edited area rather than to the canvas.
+ *
+ * <p>The memory held by the stacks is limited by an {@link UndoMemoryBudget}, which may be
+ * shared by several managers. Managers sharing a budget also share identical tiles through its
+ * {@link TileStore}. Every entry below the top of a stack is compressed in the background, and
+ * states spilled to disk by the budget are read back when needed.
+ *
+ * <p>With {@link #setCommandLogMode(int)} the manager records the drawing operations passed to
+ * {@link #recordOperation(DrawOperation)} instead, keeping a raster keyframe only every few
+ * operations; see {@link CommandHistory}.
+ *
+ * <p>With {@link #setJournal(UndoJournal)} every change is also appended to an
+ * {@link UndoJournal}, from which {@link #recover(UndoJournal)} rebuilds the canvas and both
+ * stacks after a crash.
  */
 public class UndoRedo {
 
-    /** Stack to store canvas states for undo operations. */
-    private final Stack<WritableImage> undoStack = new Stack<>();
+    /** Stack to store canvas states for undo operations, as tile deltas. */
+    private final Stack<TileDelta> undoStack = new Stack<>();
 
-    /** Stack to store canvas states for redo operations. */
-    private final Stack<WritableImage> redoStack = new Stack<>();
+    /** Stack to store canvas states for redo operations, as tile deltas. */
+    private final Stack<TileDelta> redoStack = new Stack<>();
+
+    /** Packed ARGB pixels of the canvas as of the last push, undo or redo. */
+    private int[] pixels;
+    private int pixelsWidth, pixelsHeight;
+
+    /** Incremented whenever the canvas may have changed. Only written on the JavaFX Application Thread, read from any thread. */
+    private volatile long version;
+
+    /** The version at which {@link #pixels} last matched the canvas. */
+    private long syncedVersion = -1;
+
+    /** The generation of the canvas's tile tracker at which {@link #pixels} last matched the canvas. */
+    private long syncedGeneration;
+
+    /** Reusable buffers for reading the canvas back. */
+    private int[] scratch;
+    private WritableImage readback;
 
     /** The canvas where drawing occurs. */
     private Canvas canvas;
@@ -27,27 +77,93 @@ public class UndoRedo {
 
     protected Logger logger;
 
+    /** The budget shared by every manager created without one. */
+    private static final UndoMemoryBudget UNLIMITED_BUDGET = new UndoMemoryBudget(Long.MAX_VALUE);
+
+    /** The memory budget this manager's history counts against. */
+    private final UndoMemoryBudget budget;
+
+    /** The command log used instead of the stacks, or {@code null} when storing tile deltas. */
+    private CommandHistory commandHistory;
+
+    /** The journal the history is written to, or {@code null}. */
+    private UndoJournal journal;
+
     /**
      * Initializes the {@code UndoRedo} manager with a given canvas and graphics context.
+     * The history is not limited by a memory budget; it shares one unlimited budget with every
+     * other manager created this way, so {@link #dispose()} should be called once it is no longer used.
      *
      * @param canvas The canvas where drawing operations occur.
      * @param gc The graphics context for drawing on the canvas.
      */
     public UndoRedo(Canvas canvas, Logger logger, GraphicsContext gc) {
+        this(canvas, logger, gc, UNLIMITED_BUDGET);
+    }
+
+    /**
+     * Initializes the {@code UndoRedo} manager with a given canvas, graphics context and memory budget.
+     *
+     * @param canvas The canvas where drawing operations occur.
+     * @param gc The graphics context for drawing on the canvas.
+     * @param budget The memory budget shared with the other managers.
+     */
+    public UndoRedo(Canvas canvas, Logger logger, GraphicsContext gc, UndoMemoryBudget budget) {
         this.canvas = canvas;
         this.gc = gc;
         this.logger = logger;
+        this.budget = budget;
+        budget.register(this);
+
+        // Anything drawn on the canvas starts with a mouse event on it
+        canvas.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> markChanged());
+        canvas.addEventFilter(MouseEvent.MOUSE_DRAGGED, event -> markChanged());
+        canvas.addEventFilter(MouseEvent.MOUSE_RELEASED, event -> markChanged());
+        canvas.widthProperty().addListener((obs, oldWidth, newWidth) -> markChanged());
+        canvas.heightProperty().addListener((obs, oldHeight, newHeight) -> markChanged());
     }
 
     /**
      * Captures the current state of the canvas and pushes it onto the undo stack.
      * The redo stack is cleared whenever a new action is added to the undo stack.
+     * Since a push comes right before an action, the canvas is assumed to change afterwards.
      */
     public void pushToUndoStack() {
-        WritableImage snapshot = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
-        canvas.snapshot(null, snapshot);
-        undoStack.push(snapshot);
-        redoStack.clear();  // Clear redo stack when a new action is made
+        if (commandHistory != null) {
+            commandHistory.push();
+            budget.enforce();
+            markChanged();
+            return;
+        }
+        sync();
+        push();
+        markChanged();
+    }
+
+    /**
+     * Notes that the canvas may have changed, so the next push, undo or redo reads it back.
+     * Drawing through mouse events on the canvas and resizing it are noticed automatically.
+     */
+    public void markChanged() {
+        version++;
+    }
+
+    /**
+     * Returns the version of the canvas, which is incremented whenever it may have changed,
+     * including by an undo or redo. Safe to call from any thread.
+     *
+     * @return The current version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private void push() {
+        undoStack.push(new TileDelta(pixelsWidth, pixelsHeight, budget.getTileStore()));  // The canvas already matches the pushed state
+        clear(redoStack);  // Clear redo stack when a new action is made
+        journal(UndoJournal.PUSH);
+        compressOlderStates();
+        budget.enforce();
     }
 
     /**
@@ -55,17 +171,27 @@ public class UndoRedo {
      * The current state is saved onto the redo stack before performing the undo operation.
      */
     public void undo() {
+        if (commandHistory != null) {
+            if (commandHistory.canUndo()) {
+                try {
+                    commandHistory.undo();
+                } catch (UncheckedIOException e) {
+                    e.printStackTrace();
+                    discardHistory();
+                    return;
+                }
+                budget.enforce();
+                markChanged();
+                logger.logEvent("Tab 0", "Undo last action");
+            }
+            return;
+        }
         if (!undoStack.isEmpty()) {
-            // Save current state to redo stack
-            WritableImage currentImage = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
-            canvas.snapshot(null, currentImage);
-            redoStack.push(currentImage);
-
-            // Restore the last image from the undo stack
-            WritableImage previousImage = undoStack.pop();
-            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());  // Clear the canvas
-            gc.drawImage(previousImage, 0, 0);
-            logger.logEvent("Tab 0", "Undo last action");
+            // Bring the stored pixels up to date with the canvas, unless it is unchanged since the last undo or redo
+            sync();
+            if (move(undoStack, redoStack, UndoJournal.UNDO)) {
+                logger.logEvent("Tab 0", "Undo last action");
+            }
         }
     }
 
@@ -74,18 +200,474 @@ public class UndoRedo {
      * The current state is saved onto the undo stack before performing the redo operation.
      */
     public void redo() {
+        if (commandHistory != null) {
+            if (commandHistory.canRedo()) {
+                try {
+                    commandHistory.redo();
+                } catch (UncheckedIOException e) {
+                    e.printStackTrace();
+                    discardHistory();
+                    return;
+                }
+                budget.enforce();
+                markChanged();
+                logger.logEvent("Tab 0", "Redo last undo");
+            }
+            return;
+        }
         if (!redoStack.isEmpty()) {
-            // Save current state to undo stack
-            WritableImage currentImage = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
-            canvas.snapshot(null, currentImage);
-            undoStack.push(currentImage);
+            // Bring the stored pixels up to date with the canvas, unless it is unchanged since the last undo or redo
+            sync();
+            if (move(redoStack, undoStack, UndoJournal.REDO)) {
+                logger.logEvent("Tab 0", "Redo last undo");
+            }
+        }
+    }
+
+    /**
+     * Restores the state on top of one stack; the delta then holds the current state and is
+     * pushed onto the other stack.
+     *
+     * @param from   The stack holding the state to restore.
+     * @param to     The stack receiving the current state.
+     * @param record The journal record for the move.
+     * @return {@code true} if the state was restored, {@code false} if the history had to be discarded.
+     */
+    private boolean move(Stack<TileDelta> from, Stack<TileDelta> to, byte record) {
+        TileDelta delta = from.pop();
+        try {
+            restore(delta);
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            delta.discard();
+            discardHistory();
+            return false;
+        }
+        to.push(delta);
+        markChanged();
+        syncedVersion = version;  // The canvas was just written from the stored pixels
+        syncedGeneration = DirtyTileTracker.of(canvas).getGeneration();
+        journal(record);
+        compressOlderStates();
+        budget.enforce();
+        return true;
+    }
+
+    /**
+     * Records a drawing operation made on the canvas since the last push. Only used in command-log
+     * mode; otherwise the change is picked up from the canvas pixels and this does nothing.
+     *
+     * @param operation The operation drawn, or {@code null} if the change cannot be replayed and
+     *                  the next state has to be stored as a keyframe.
+     */
+    public void recordOperation(DrawOperation operation) {
+        if (commandHistory != null) {
+            commandHistory.recordOperation(operation);
+        }
+    }
+
+    /**
+     * Switches between storing tile deltas and recording drawing operations. The existing
+     * history is discarded.
+     *
+     * @param keyframeInterval The maximum number of operations replayed for one undo or redo,
+     *                         or 0 to store tile deltas.
+     */
+    public void setCommandLogMode(int keyframeInterval) {
+        clear(undoStack);
+        clear(redoStack);
+        pixels = null;
+        scratch = null;
+        if (commandHistory != null) {
+            commandHistory.clear();
+        }
+        commandHistory = keyframeInterval > 0 ? new CommandHistory(this, canvas, gc, budget, keyframeInterval) : null;
+    }
+
+    public boolean isCommandLogMode() {
+        return commandHistory != null;
+    }
+
+    /**
+     * Reads the canvas and records any changes made since the last sync. The changed tiles are
+     * folded into the top entry of each stack so that those entries still restore their states
+     * from the new pixels. Does nothing if the canvas has not changed since the stored pixels were
+     * last brought up to date.
+     *
+     * <p>Only the tiles marked in the canvas's {@link DirtyTileTracker} since the last sync are
+     * read back; the whole canvas is read the first time and after a resize.
+     */
+    private void sync() {
+        if (pixels != null && syncedVersion == version) {
+            return;
+        }
+        syncedVersion = version;
+        int width = (int) canvas.getWidth();
+        int height = (int) canvas.getHeight();
+        DirtyTileTracker tracker = DirtyTileTracker.of(canvas);
+        long generation = tracker.getGeneration();
+        if (pixels != null && width == pixelsWidth && height == pixelsHeight) {
+            syncTiles(tracker.getTilesChangedSince(syncedGeneration));
+        } else {
+            sync(readCanvas(width, height), width, height);
+        }
+        syncedGeneration = generation;
+    }
+
+    /**
+     * Reads the given tiles of the canvas into the stored pixels and records those that changed.
+     * The tiles are read back with one snapshot of the rectangle spanning them.
+     *
+     * @param indices The indices of the tiles that may have changed, row-major.
+     */
+    private void syncTiles(int[] indices) {
+        if (indices.length == 0) {
+            return;
+        }
+        int left = pixelsWidth, top = pixelsHeight, right = 0, bottom = 0;
+        for (int index : indices) {
+            int x = TileDelta.tileX(pixelsWidth, index);
+            int y = TileDelta.tileY(pixelsWidth, index);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x + TileDelta.tileWidth(pixelsWidth, index));
+            bottom = Math.max(bottom, y + TileDelta.tileHeight(pixelsWidth, pixelsHeight, index));
+        }
+        PixelReader reader = snapshot(left, top, right - left, bottom - top).getPixelReader();
+
+        TileDelta changes = new TileDelta(pixelsWidth, pixelsHeight, budget.getTileStore());
+        for (int index : indices) {
+            int x = TileDelta.tileX(pixelsWidth, index);
+            int y = TileDelta.tileY(pixelsWidth, index);
+            int w = TileDelta.tileWidth(pixelsWidth, index);
+            int h = TileDelta.tileHeight(pixelsWidth, pixelsHeight, index);
+            int[] tile = new int[w * h];
+            reader.getPixels(x - left, y - top, w, h, PixelFormat.getIntArgbInstance(), tile, 0, w);
+            changes.replaceTile(pixels, index, tile);
+        }
+        record(changes, pixels, pixelsWidth, pixelsHeight, false);
+    }
+
+    /**
+     * Records the changes between the stored pixels and the given state of the canvas, which
+     * then becomes the stored pixels.
+     */
+    private void sync(int[] current, int width, int height) {
+        if (pixels == null) {
+            if (journal != null) {
+                journal.appendTiles(current, width, height, null);
+            }
+        } else {
+            TileDelta changes = TileDelta.diff(pixels, pixelsWidth, pixelsHeight, current, width, height, budget.getTileStore());
+            record(changes, current, width, height, width != pixelsWidth || height != pixelsHeight);
+        }
+
+        // Keep the old buffer around for the next read
+        scratch = pixels;
+        pixels = current;
+        pixelsWidth = width;
+        pixelsHeight = height;
+    }
+
+    /**
+     * Journals the changes found by a sync and folds them into the top entry of each stack.
+     *
+     * @param changes The delta restoring the stored pixels from the new state; discarded afterwards.
+     * @param current The packed ARGB pixels of the new state.
+     * @param resized Whether the new state has other dimensions than the stored pixels.
+     */
+    private void record(TileDelta changes, int[] current, int width, int height, boolean resized) {
+        if (!changes.isEmpty()) {
+            if (journal != null) {
+                journal.appendTiles(current, width, height, resized ? null : changes.getTileIndices());
+            }
+            if (!undoStack.isEmpty()) {
+                undoStack.peek().rebase(changes);
+            }
+            if (!redoStack.isEmpty()) {
+                redoStack.peek().rebase(changes);
+            }
+        }
+        changes.discard();  // Each stack took its own reference to the tiles it needed
+    }
+
+    /**
+     * Starts writing the history to a journal. The journal should be empty; use
+     * {@link #recover(UndoJournal)} for a journal left by an earlier session.
+     *
+     * @param journal The journal, or {@code null} to stop journaling.
+     */
+    public void setJournal(UndoJournal journal) {
+        this.journal = journal;
+    }
+
+    public UndoJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Rebuilds the canvas and both stacks from a journal left by an earlier session, then keeps
+     * writing the history to it.
+     *
+     * @param journal The journal to replay.
+     * @throws IOException If the journal cannot be read.
+     */
+    public void recover(UndoJournal journal) throws IOException {
+        this.journal = null;  // Replayed records are already in the journal
+        journal.replay(this);
+        this.journal = journal;
+    }
+
+    /**
+     * Replays a push, undo, redo or clear record from a journal against the given canvas state
+     * instead of reading the canvas.
+     *
+     * @return The pixels of the canvas after the operation.
+     */
+    int[] replay(byte type, int[] current, int width, int height) {
+        sync(current.clone(), width, height);  // The stored pixels must not share the replay buffer
+        switch (type) {
+            case UndoJournal.PUSH -> push();
+            case UndoJournal.UNDO -> {
+                if (!undoStack.isEmpty()) {
+                    move(undoStack, redoStack, UndoJournal.UNDO);
+                }
+            }
+            case UndoJournal.REDO -> {
+                if (!redoStack.isEmpty()) {
+                    move(redoStack, undoStack, UndoJournal.REDO);
+                }
+            }
+            case UndoJournal.CLEAR -> {
+                clear(undoStack);
+                clear(redoStack);
+            }
+            default -> {
+                return current;
+            }
+        }
+        return pixels.clone();
+    }
+
+    /**
+     * Draws the last replayed state of the canvas once a journal has been replayed.
+     */
+    void finishReplay(int[] current, int width, int height) {
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        gc.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), current, 0, width);
+        DirtyTileTracker.of(canvas).markAll();
+        markChanged();  // The journal may end with changes made after the last push, undo or redo
+    }
+
+    int getPixelsWidth() {
+        return pixelsWidth;
+    }
+
+    int getPixelsHeight() {
+        return pixelsHeight;
+    }
+
+    /**
+     * Appends a record to the journal, if there is one.
+     */
+    private void journal(byte record) {
+        if (journal != null) {
+            journal.append(record);
+        }
+    }
+
+    /**
+     * Applies a delta to the stored pixels and writes the changed tiles to the canvas.
+     *
+     * @param delta The delta to apply; afterwards it holds the pixels it replaced.
+     */
+    private void restore(TileDelta delta) {
+        int width = delta.getWidth();
+        int height = delta.getHeight();
+        boolean resized = width != pixelsWidth || height != pixelsHeight;
+        int[] changed = delta.getTileIndices();
+
+        pixels = delta.apply(pixels, pixelsWidth, pixelsHeight);
+        pixelsWidth = width;
+        pixelsHeight = height;
+
+        if (resized) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+            gc.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            return;  // The tracker marks every tile when the canvas is resized
+        }
 
-            // Restore the last image from the redo stack
-            WritableImage redoImage = redoStack.pop();
-            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());  // Clear the canvas
-            gc.drawImage(redoImage, 0, 0);
-            logger.logEvent("Tab 0", "Redo last undo");
+        DirtyTileTracker.of(canvas).markTiles(changed);
+        for (int index : changed) {
+            int x = TileDelta.tileX(width, index);
+            int y = TileDelta.tileY(width, index);
+            gc.getPixelWriter().setPixels(x, y, TileDelta.tileWidth(width, index), TileDelta.tileHeight(width, height, index),
+                    PixelFormat.getIntArgbInstance(), pixels, y * width + x, width);
+        }
+    }
+
+    /**
+     * Reads the canvas pixels into a reusable buffer.
+     *
+     * @param width  The width of the canvas.
+     * @param height The height of the canvas.
+     * @return The packed ARGB pixels of the canvas.
+     */
+    int[] readCanvas(int width, int height) {
+        int[] buffer = (scratch != null && scratch.length == width * height) ? scratch : new int[width * height];
+        snapshot(0, 0, width, height).getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), buffer, 0, width);
+        return buffer;
+    }
+
+    /**
+     * Renders a rectangle of the canvas into the top-left corner of a reusable image.
+     *
+     * @return The image, which may be larger than the rectangle.
+     */
+    private WritableImage snapshot(int x, int y, int width, int height) {
+        if (readback == null || (int) readback.getWidth() < width || (int) readback.getHeight() < height) {
+            readback = new WritableImage(width, height);
+        }
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setViewport(new Rectangle2D(x, y, width, height));
+        PendingOrientation.of(canvas).snapshot(parameters, readback);  // The pixels as drawn, not as shown
+        return readback;
+    }
+
+    /**
+     * Queues the entry just below the top of each stack for background compression. The top
+     * entries stay uncompressed since they are the ones the next undo or redo will use.
+     */
+    private void compressOlderStates() {
+        for (Stack<TileDelta> stack : List.of(undoStack, redoStack)) {
+            if (stack.size() >= 2) {
+                budget.getCompressor().submit(stack.get(stack.size() - 2));
+            }
+        }
+    }
+
+    /**
+     * Removes every entry from a stack, releasing anything they hold in the spill store.
+     */
+    private void clear(Stack<TileDelta> stack) {
+        for (TileDelta delta : stack) {
+            delta.discard();
+        }
+        stack.clear();
+    }
+
+    /**
+     * Drops the whole history. Used when a spilled state can no longer be read back, since the
+     * states below it cannot be restored without it.
+     */
+    private void discardHistory() {
+        clear(undoStack);
+        clear(redoStack);
+        journal(UndoJournal.CLEAR);
+        if (commandHistory != null) {
+            commandHistory.clear();
+        }
+        logger.logEvent("Tab 0", "Undo history lost");
+    }
+
+    /**
+     * Returns the least recently used entry that still holds tiles in memory.
+     *
+     * @return The entry to spill first, or {@code null} if nothing is held in memory.
+     */
+    TileDelta getLeastRecentlyUsedDelta() {
+        if (commandHistory != null) {
+            return commandHistory.getLeastRecentlyUsedKeyframe();
+        }
+        TileDelta oldest = null;
+        for (Stack<TileDelta> stack : List.of(undoStack, redoStack)) {
+            for (TileDelta delta : stack) {
+                if (delta.getByteSize() > 0 && (oldest == null || delta.getLastUsed() < oldest.getLastUsed())) {
+                    oldest = delta;
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Drops the oldest entry, taken from the bottom of the undo stack or, if that is empty,
+     * the redo stack. Only the bottom entry can be dropped since every entry depends on the
+     * entries above it.
+     *
+     * @return The number of bytes of memory freed, or -1 if nothing can be dropped.
+     */
+    long dropOldest() {
+        if (commandHistory != null) {
+            return commandHistory.dropOldest();
+        }
+        Stack<TileDelta> stack = undoStack.isEmpty() ? redoStack : undoStack;
+        if (stack.isEmpty()) {
+            return -1;
+        }
+        TileDelta dropped = stack.remove(0);
+        long bytes = dropped.getByteSize();
+        dropped.discard();
+        journal(UndoJournal.DROP);
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes of undo and redo history held in memory. States spilled to
+     * disk and the working copy of the canvas pixels are not included.
+     *
+     * @return The memory used by this manager's history, in bytes.
+     */
+    public long getMemoryUsage() {
+        if (commandHistory != null) {
+            return commandHistory.getMemoryUsage();
+        }
+        long bytes = 0;
+        for (TileDelta delta : undoStack) {
+            bytes += delta.getByteSize();
+        }
+        for (TileDelta delta : redoStack) {
+            bytes += delta.getByteSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes of this manager's history spilled to disk.
+     *
+     * @return The spilled size of the history, in bytes.
+     */
+    public long getSpilledBytes() {
+        if (commandHistory != null) {
+            return commandHistory.getSpilledBytes();
+        }
+        long bytes = 0;
+        for (TileDelta delta : undoStack) {
+            bytes += delta.getSpilledSize();
+        }
+        for (TileDelta delta : redoStack) {
+            bytes += delta.getSpilledSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases the history and stops counting it against the budget. The journal, if any, is
+     * deleted. Called when the tab owning this manager is closed.
+     */
+    public void dispose() {
+        if (journal != null) {
+            journal.close(true);
+            journal = null;
+        }
+        clear(undoStack);
+        clear(redoStack);
+        if (commandHistory != null) {
+            commandHistory.clear();
         }
+        budget.unregister(this);
     }
 
     /**
@@ -94,7 +676,7 @@ public class UndoRedo {
      * @return {@code true} if there is an action to undo; {@code false} otherwise.
      */
     public boolean canUndo() {
-        return !undoStack.isEmpty();
+        return commandHistory != null ? commandHistory.canUndo() : !undoStack.isEmpty();
     }
 
     /**
@@ -103,24 +685,24 @@ public class UndoRedo {
      * @return {@code true} if there is an action to redo; {@code false} otherwise.
      */
     public boolean canRedo() {
-        return !redoStack.isEmpty();
+        return commandHistory != null ? commandHistory.canRedo() : !redoStack.isEmpty();
     }
 
     /**
      * Returns the undo stack for external reference.
      *
-     * @return The stack containing undoable canvas states.
+     * @return The stack containing the undoable canvas states as tile deltas.
      */
-    public Stack<WritableImage> getUndoStack() {
+    public Stack<TileDelta> getUndoStack() {
         return undoStack;
     }
 
     /**
      * Returns the redo stack for external reference.
      *
-     * @return The stack containing redoable canvas states.
+     * @return The stack containing the redoable canvas states as tile deltas.
      */
-    public Stack<WritableImage> getRedoStack() {
+    public Stack<TileDelta> getRedoStack() {
         return redoStack;
     }
 }
\ No newline at end of file
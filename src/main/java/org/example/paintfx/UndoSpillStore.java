@@ -0,0 +1,210 @@
+package org.example.paintfx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@code UndoSpillStore} class holds undo states that were moved out of memory by the
+ * {@link UndoMemoryBudget}. Records are written to a temporary file and read back by offset.
+ *
+ * <p>The space of released records is reused: a new record goes into the first released extent
+ * large enough to hold it, and is only appended when none is. Adjacent released extents are
+ * merged, and any at the end of the file are cut off, so the file never grows much past the size
+ * of the live records. Its length is kept within a maximum size, and the file is deleted when the
+ * store is closed.
+ */
+public class UndoSpillStore {
+
+    /** The temporary file backing the store. */
+    private final File file;
+
+    /** Channel used for positional reads and writes. */
+    private final FileChannel channel;
+
+    /** Current length of the file; records are appended here when no released extent fits. */
+    private long size;
+
+    /** The maximum length of the file. */
+    private long maxSize;
+
+    /** Number of bytes belonging to records that have not been released. */
+    private long liveBytes;
+
+    /** Extents of released records inside the file, by offset to length. None reaches the end of the file. */
+    private final TreeMap<Long, Long> freeExtents = new TreeMap<>();
+
+    /**
+     * Creates a store backed by a new temporary file.
+     *
+     * @param maxSize The maximum length of the file in bytes.
+     * @throws IOException If the temporary file cannot be created.
+     */
+    public UndoSpillStore(long maxSize) throws IOException {
+        this.maxSize = maxSize;
+        file = File.createTempFile("paintfx-undo", ".spill");
+        file.deleteOnExit();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes a record to the store, in the space of a released record if one is large enough.
+     *
+     * @param data The bytes to write, from the buffer's position to its limit.
+     * @return The offset of the record, used to read it back, or -1 if the file would grow past
+     *         its maximum size; nothing is written then.
+     * @throws IOException If the record cannot be written.
+     */
+    public synchronized long write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        long offset = allocate(length);
+        if (offset < 0) {
+            return -1;
+        }
+        try {
+            long position = offset;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        } catch (IOException e) {
+            free(offset, length);
+            throw e;
+        }
+        liveBytes += length;
+        return offset;
+    }
+
+    /**
+     * Finds room for a record: the first released extent that can hold it, or the end of the file.
+     *
+     * @return The offset for the record, or -1 if there is no room within the maximum size.
+     */
+    private long allocate(int length) {
+        for (Map.Entry<Long, Long> extent : freeExtents.entrySet()) {
+            long offset = extent.getKey();
+            long free = extent.getValue();
+            if (free >= length) {
+                freeExtents.remove(offset);
+                if (free > length) {
+                    freeExtents.put(offset + length, free - length);
+                }
+                return offset;
+            }
+        }
+        if (size + length > maxSize) {
+            return -1;
+        }
+        long offset = size;
+        size += length;
+        return offset;
+    }
+
+    /**
+     * Returns an extent to the free space, merging it with its neighbours, and truncates the file
+     * if the extent ends up at its end.
+     */
+    private void free(long offset, long length) {
+        Map.Entry<Long, Long> before = freeExtents.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            freeExtents.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Long after = freeExtents.get(offset + length);
+        if (after != null) {
+            freeExtents.remove(offset + length);
+            length += after;
+        }
+
+        if (offset + length < size) {
+            freeExtents.put(offset, length);
+            return;
+        }
+        size = offset;
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads a record back from the store. The record stays live until it is released.
+     *
+     * @param offset The offset returned by {@link #write(ByteBuffer)}.
+     * @param length The length of the record in bytes.
+     * @return A buffer holding the record, positioned at its start.
+     * @throws IOException If the record cannot be read.
+     */
+    public synchronized ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            if (channel.read(data, offset + data.position()) < 0) {
+                throw new IOException("Unexpected end of undo spill file");
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Marks a record as no longer needed, so that its space can be reused.
+     *
+     * @param offset The offset returned by {@link #write(ByteBuffer)}.
+     * @param length The length of the released record in bytes.
+     */
+    public synchronized void release(long offset, int length) {
+        liveBytes -= length;
+        free(offset, length);
+    }
+
+    /**
+     * Returns the number of bytes held by live records.
+     *
+     * @return The live size of the store in bytes.
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Returns the length of the file, including the space of released records not yet reused.
+     *
+     * @return The size of the file in bytes.
+     */
+    public synchronized long getFileSize() {
+        return size;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Changes the maximum length of the file. A file already longer is not shrunk, but no record
+     * is appended to it until it is back within the limit.
+     *
+     * @param maxSize The maximum length of the file in bytes.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Closes the store and deletes its file.
+     */
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!file.delete()) {
+            System.out.println("Could not delete undo spill file: " + file);
+        }
+    }
+}
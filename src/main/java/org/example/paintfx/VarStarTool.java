@@ -36,13 +36,26 @@ public class VarStarTool extends ShapeTool {
         }
 
         gc.drawImage(canvasSnapshot, 0, 0);
+        lastOperation = createOperation(event.getX(), event.getY(), fillColor, borderColor, borderWidth);
+        drawShape(gc, lastOperation);
+    }
 
-        double centerX = (startX + event.getX()) / 2;
-        double centerY = (startY + event.getY()) / 2;
-        double outerRadius = Math.min(Math.abs(event.getX() - startX), Math.abs(event.getY() - startY)) / 2;
+    @Override
+    public void drawShape(GraphicsContext gc, DrawOperation operation) {
+        double startX = operation.getStartX();
+        double startY = operation.getStartY();
+        double centerX = (startX + operation.getEndX()) / 2;
+        double centerY = (startY + operation.getEndY()) / 2;
+        double outerRadius = Math.min(Math.abs(operation.getEndX() - startX), Math.abs(operation.getEndY() - startY)) / 2;
         double innerRadius = outerRadius / 2; // Adjust inner radius for star points
 
-        drawStar(gc, centerX, centerY, outerRadius, innerRadius, fillColor, borderColor, borderWidth);
+        drawStar(gc, centerX, centerY, outerRadius, innerRadius, operation.getVertexCount(),
+                operation.getFillColor(), operation.getBorderColor(), operation.getBorderWidth());
+    }
+
+    @Override
+    protected int getVertexCount() {
+        return numberOfPoints;
     }
 
     private void promptForNumberOfPoints() {
@@ -65,10 +78,35 @@ public class VarStarTool extends ShapeTool {
     }
 
     private void drawStar(GraphicsContext gc, double centerX, double centerY, double outerRadius, double innerRadius,
-                          Color fillColor, Color borderColor, double borderWidth) {
+                          int numberOfPoints, Color fillColor, Color borderColor, double borderWidth) {
         double[] xPoints = new double[numberOfPoints * 2];
         double[] yPoints = new double[numberOfPoints * 2];
+        computeStarVertices(centerX, centerY, outerRadius, innerRadius, numberOfPoints, xPoints, yPoints);
+
+        // Draw the filled star
+        gc.setFill(fillColor);
+        gc.fillPolygon(xPoints, yPoints, numberOfPoints * 2);
+
+        // Draw the border of the star
+        gc.setStroke(borderColor);
+        gc.setLineWidth(borderWidth);
+        gc.strokePolygon(xPoints, yPoints, numberOfPoints * 2);
+    }
 
+    /**
+     * Calculates the vertices of a star, alternating between outer and inner points and starting
+     * at the top.
+     *
+     * @param centerX        The x-coordinate of the center.
+     * @param centerY        The y-coordinate of the center.
+     * @param outerRadius    The radius of the outer points.
+     * @param innerRadius    The radius of the inner points.
+     * @param numberOfPoints The number of outer points.
+     * @param xPoints        Receives the x-coordinates; at least {@code numberOfPoints * 2} long.
+     * @param yPoints        Receives the y-coordinates; at least {@code numberOfPoints * 2} long.
+     */
+    static void computeStarVertices(double centerX, double centerY, double outerRadius, double innerRadius,
+                                    int numberOfPoints, double[] xPoints, double[] yPoints) {
         double angleStep = Math.PI / numberOfPoints; // Angle between each vertex (outer and inner points)
 
         // Calculate the vertices of the star
@@ -78,15 +116,6 @@ public class VarStarTool extends ShapeTool {
             xPoints[i] = centerX + Math.cos(angle) * radius;
             yPoints[i] = centerY + Math.sin(angle) * radius;
         }
-
-        // Draw the filled star
-        gc.setFill(fillColor);
-        gc.fillPolygon(xPoints, yPoints, numberOfPoints * 2);
-
-        // Draw the border of the star
-        gc.setStroke(borderColor);
-        gc.setLineWidth(borderWidth);
-        gc.strokePolygon(xPoints, yPoints, numberOfPoints * 2);
     }
 
     @Override
@@ -5,42 +5,277 @@ import com.sun.net.httpserver.HttpHandler;
 import javafx.application.Platform;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
-import javafx.scene.image.PixelReader;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@code WebServer} class implements an HTTP server handler that responds
- * to GET requests by sending a PNG image of a JavaFX {@code Canvas}.
+ * to GET requests by sending an image of a JavaFX {@code Canvas}.
  * It converts the canvas to an image format and streams it to the client over HTTP.
+ *
+ * <p>The image is a full-size PNG unless the request asks for something else. The format is taken
+ * from the {@code format} query parameter ({@code png}, {@code jpeg}, {@code bmp} or {@code qoi})
+ * or else from the {@code Accept} header; {@code quality} (1 to 100) sets the JPEG quality; and
+ * {@code w} and {@code h} shrink the image with an area filter to fit within the given size,
+ * keeping its aspect ratio, which makes thumbnails far cheaper to encode than the full canvas.
+ *
+ * <p>When the server knows the canvas's {@link UndoRedo}, every response carries an ETag derived
+ * from the canvas version and the requested variant. A request whose {@code If-None-Match} header
+ * names the current version is answered with 304 (Not Modified) without touching the JavaFX
+ * thread. The pixels of the current version are kept, and each variant encoded from them is
+ * reused for every other request until the canvas changes.
+ *
+ * <p>An image that is not cached yet is streamed with chunked transfer encoding as it is encoded,
+ * so the client receives the first bytes before the encoder is done and the image is never held
+ * in one array. The bytes are kept for the cache in fixed-size segments as they pass, which
+ * neither grows nor copies a buffer; cached images are sent with their {@code Content-Length}.
+ *
+ * <p>Requests that need a new snapshot while one is being taken wait for that one instead of
+ * taking their own, so the JavaFX thread takes at most one snapshot at a time no matter how many
+ * clients are polling.
+ *
+ * <p>The snapshot runs on a thread of its own, and requests only wait for it until a deadline.
+ * When the JavaFX thread is too busy to take it in time, a request is answered from the most
+ * recent snapshot, marked stale with a {@code Warning} header and an
+ * {@code X-Canvas-Versions-Behind} header, or with 503 (Service Unavailable) and
+ * {@code Retry-After} if no snapshot was taken yet. The snapshot still completes in the background
+ * and is cached for the requests that follow.
  */
 public class WebServer implements HttpHandler {
 
+    /** Most variants encoded from one snapshot; further variants are encoded for every request. */
+    private static final int MAX_VARIANTS = 16;
+
+    /** Encodes the PNG variants in parallel stripes. */
+    private static final PngEncoder PNG_ENCODER = new PngEncoder();
+
+    /** JPEG quality used when the request does not give one. */
+    private static final int DEFAULT_QUALITY = 85;
+
+    /** Metrics shared by the servers of every canvas. */
+    private static final Metrics.Histogram SNAPSHOT_TIME = Metrics.timer("paintfx_canvas_snapshot_seconds",
+            "Time from asking the JavaFX thread for a snapshot of the canvas until it was taken.");
+    private static final Metrics.Histogram CONVERT_TIME = Metrics.timer("paintfx_canvas_convert_seconds",
+            "Time to read the pixels of a canvas snapshot.");
+    private static final Metrics.Counter SNAPSHOT_TIMEOUTS = Metrics.counter("paintfx_canvas_snapshot_timeouts_total",
+            "Requests that gave up waiting for a snapshot of the canvas.");
+    private static final Metrics.Counter STALE_RESPONSES = Metrics.counter("paintfx_canvas_stale_responses_total",
+            "Timed out requests answered with an outdated image.");
+
+    /** Number of requests currently waiting for a snapshot, across the servers of every canvas. */
+    private static final AtomicInteger WAITING_REQUESTS = new AtomicInteger();
+
+    /**
+     * The image formats the server can encode.
+     */
+    private enum ImageFormat {
+        PNG("png", "image/png"),
+        JPEG("jpeg", "image/jpeg"),
+        BMP("bmp", "image/bmp"),
+        QOI("qoi", "image/qoi");
+
+        final String name;
+        final String mimeType;
+        final Metrics.Histogram encodeTime;
+
+        ImageFormat(String name, String mimeType) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.encodeTime = Metrics.timer("paintfx_canvas_encode_seconds",
+                    "Time to scale and encode an image of the canvas, by format; includes sending it while it is streamed.", "format", name);
+        }
+    }
+
+    /**
+     * An image requested by a client.
+     *
+     * @param format  The format to encode.
+     * @param quality The JPEG quality from 1 to 100; ignored by the lossless formats.
+     * @param width   The maximum width, or 0 for no limit.
+     * @param height  The maximum height, or 0 for no limit.
+     */
+    private record Variant(ImageFormat format, int quality, int width, int height) {
+
+        @Override
+        public String toString() {
+            return format.name + (format == ImageFormat.JPEG ? "q" + quality : "") + "-" + width + "x" + height;
+        }
+    }
+
+    /**
+     * A snapshot of the canvas and the variants encoded from it.
+     */
+    private static final class Frame {
+        /** The canvas version the snapshot was taken at. */
+        final long version;
+
+        /** Packed ARGB pixels of the canvas. */
+        final int[] pixels;
+        final int width;
+        final int height;
+
+        final Map<Variant, EncodedImage> encoded = new ConcurrentHashMap<>();
+
+        Frame(long version, int[] pixels, int width, int height) {
+            this.version = version;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * An encoded image, kept in fixed-size segments as it is written, and optionally passed on to
+     * another stream at the same time.
+     */
+    private static final class EncodedImage extends OutputStream {
+        private static final int SEGMENT_SIZE = 64 * 1024;
+
+        private final OutputStream sink;
+        private final List<byte[]> segments = new ArrayList<>();
+        private byte[] segment;
+        private int position = SEGMENT_SIZE;  // Within the last segment; full until the first write
+        private long size;
+
+        /**
+         * @param sink The stream to pass the bytes on to as they are written, or {@code null}.
+         */
+        EncodedImage(OutputStream sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (sink != null) {
+                sink.write(b, off, len);
+            }
+            size += len;
+            while (len > 0) {
+                if (position == SEGMENT_SIZE) {
+                    segment = new byte[SEGMENT_SIZE];
+                    segments.add(segment);
+                    position = 0;
+                }
+                int n = Math.min(len, SEGMENT_SIZE - position);
+                System.arraycopy(b, off, segment, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (sink != null) {
+                sink.flush();
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        /** Writes the whole image to a stream, segment by segment. */
+        void writeTo(OutputStream out) throws IOException {
+            for (int i = 0; i < segments.size(); i++) {
+                out.write(segments.get(i), 0, i == segments.size() - 1 ? position : SEGMENT_SIZE);
+            }
+        }
+    }
+
     /** The JavaFX canvas that this server will take snapshots of. */
     private final Canvas canvas;
 
+    /** Supplies the canvas version, or {@code null} if changes to the canvas cannot be tracked. */
+    private final UndoRedo undoRedo;
+
+    /** Distinguishes this server's ETags from those of an earlier run, whose versions started over. */
+    private final String etagPrefix = Long.toHexString(System.currentTimeMillis());
+
+    /** The most recent snapshot, or {@code null}. */
+    private volatile Frame cachedFrame;
+
+    /** The snapshot in progress, shared by every request waiting for it, or {@code null}. */
+    private CompletableFuture<Frame> pendingFrame;
+
+    /** Time a request waits for a snapshot before giving up, in milliseconds. */
+    private final long snapshotTimeout;
+
+    /** Encodes the full-size PNG of each version, compressing only the stripes that changed since the last. */
+    private final IncrementalPngEncoder fullSizePng = new IncrementalPngEncoder(PNG_ENCODER);
+
     /**
      * Constructs a new {@code WebServer} instance that will capture snapshots of the given canvas.
      *
      * @param canvas The {@code Canvas} that will be captured and sent as an image.
      */
     public WebServer(Canvas canvas) {
+        this(canvas, null);
+    }
+
+    /**
+     * Constructs a new {@code WebServer} instance that captures snapshots of the given canvas and
+     * only encodes it again after it has changed.
+     *
+     * @param canvas   The {@code Canvas} that will be captured and sent as an image.
+     * @param undoRedo The undo manager of the canvas, whose version tells when the canvas changed.
+     */
+    public WebServer(Canvas canvas, UndoRedo undoRedo) {
+        this(canvas, undoRedo, Long.getLong("paintfx.snapshotTimeout", 2000));
+    }
+
+    /**
+     * Constructs a new {@code WebServer} instance that captures snapshots of the given canvas,
+     * waiting at most {@code snapshotTimeout} milliseconds for each.
+     *
+     * @param canvas          The {@code Canvas} that will be captured and sent as an image.
+     * @param undoRedo        The undo manager of the canvas, whose version tells when the canvas changed.
+     * @param snapshotTimeout The time a request waits for a snapshot, in milliseconds.
+     */
+    public WebServer(Canvas canvas, UndoRedo undoRedo, long snapshotTimeout) {
         this.canvas = canvas;
+        this.undoRedo = undoRedo;
+        this.snapshotTimeout = snapshotTimeout;
+        Metrics.gauge("paintfx_canvas_waiting_requests", "Requests currently waiting for a snapshot of the canvas.",
+                WAITING_REQUESTS::get);
     }
 
     /**
-     * Handles an incoming HTTP request, capturing a snapshot of the canvas and sending it as a PNG image.
+     * Handles an incoming HTTP request, capturing a snapshot of the canvas and sending it as an image.
      * Only GET requests are supported; all other methods return a 405 (Method Not Allowed) response.
+     * Invalid query parameters return 400 (Bad Request), and an {@code Accept} header naming no
+     * supported format 406 (Not Acceptable).
      *
      * <p>The image snapshot is taken on the JavaFX Application Thread using {@link Platform#runLater(Runnable)}
      * and a {@link CountDownLatch} is used to ensure the snapshot operation completes before sending the response.
+     * No snapshot is taken if the client already has the current version or it is cached.
      *
      * @param exchange The HTTP exchange containing the request and response objects.
      * @throws IOException If an I/O error occurs during handling the request.
@@ -53,78 +288,363 @@ public class WebServer implements HttpHandler {
                 return;
             }
 
-            // Use a CountDownLatch to ensure we wait for the snapshot to complete on the JavaFX thread
-            final WritableImage[] imageHolder = new WritableImage[1];
-            CountDownLatch latch = new CountDownLatch(1);
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            ImageFormat format = query.containsKey("format") ? formatNamed(query.get("format"))
+                    : negotiateFormat(exchange.getRequestHeaders().getFirst("Accept"));
+            if (format == null) {
+                exchange.sendResponseHeaders(query.containsKey("format") ? 400 : 406, -1);  // 406 Not Acceptable
+                return;
+            }
+            Variant variant;
+            try {
+                int quality = Integer.parseInt(query.getOrDefault("quality", Integer.toString(DEFAULT_QUALITY)));
+                int width = Integer.parseInt(query.getOrDefault("w", "0"));
+                int height = Integer.parseInt(query.getOrDefault("h", "0"));
+                if (quality < 1 || quality > 100 || width < 0 || height < 0) {
+                    throw new NumberFormatException();
+                }
+                variant = new Variant(format, quality, width, height);
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);  // 400 Bad Request
+                return;
+            }
 
-            // Take the snapshot on the JavaFX Application Thread
-            Platform.runLater(() -> {
+            Frame frame = null;
+            if (undoRedo != null) {
+                long version = undoRedo.getVersion();
+                if (matchesETag(exchange.getRequestHeaders().getFirst("If-None-Match"), version, variant)) {
+                    exchange.getResponseHeaders().set("ETag", etag(version, variant));
+                    exchange.sendResponseHeaders(304, -1);  // 304 Not Modified
+                    return;
+                }
+                Frame cached = cachedFrame;
+                if (cached != null && cached.version == version) {
+                    frame = cached;
+                }
+            }
+            if (frame == null) {
                 try {
-                    SnapshotParameters params = new SnapshotParameters();
-                    params.setFill(Color.WHITE);  // Optional: Set the background fill color
-                    imageHolder[0] = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
-                    canvas.snapshot(params, imageHolder[0]);
-                } finally {
-                    latch.countDown();  // Ensure latch is decremented when the operation completes
+                    frame = takeSnapshot();
+                } catch (TimeoutException e) {
+                    SNAPSHOT_TIMEOUTS.increment();
+                    frame = cachedFrame;
+                    if (frame == null) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                        exchange.sendResponseHeaders(503, -1);  // 503 Service Unavailable
+                        return;
+                    }
+                    STALE_RESPONSES.increment();
+                    exchange.getResponseHeaders().set("Warning", "110 - \"Response is Stale\"");
+                    exchange.getResponseHeaders().set("X-Canvas-Versions-Behind",
+                            Long.toString(undoRedo.getVersion() - frame.version));
                 }
-            });
-
-            // Wait for the snapshot to complete
-            latch.await();
-
-            // Convert WritableImage to BufferedImage
-            BufferedImage bufferedImage = convertWritableImageToBufferedImage(imageHolder[0]);
-
-            // Convert BufferedImage to PNG byte array
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ImageIO.write(bufferedImage, "png", os);
-            byte[] imageBytes = os.toByteArray();
+            }
 
             // Send HTTP response headers
-            exchange.getResponseHeaders().set("Content-Type", "image/png");
-            exchange.sendResponseHeaders(200, imageBytes.length);
+            exchange.getResponseHeaders().set("Content-Type", format.mimeType);
+            exchange.getResponseHeaders().set("Vary", "Accept");
+            if (undoRedo != null) {
+                exchange.getResponseHeaders().set("ETag", etag(frame.version, variant));
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");  // Revalidate with the ETag every time
+            }
 
-            // Write the image to the response
             OutputStream outputStream = exchange.getResponseBody();
-            outputStream.write(imageBytes);
+            EncodedImage cached = frame.encoded.get(variant);
+            if (cached != null) {
+                exchange.sendResponseHeaders(200, cached.size());
+                cached.writeTo(outputStream);
+            } else {
+                // Stream the image while it is encoded, with chunked transfer encoding
+                exchange.sendResponseHeaders(200, 0);
+                encode(frame, variant, outputStream);
+            }
             outputStream.flush();
         } catch (Exception e) {
             e.printStackTrace();
-            exchange.sendResponseHeaders(500, -1);  // 500 Internal Server Error
+            if (exchange.getResponseCode() == -1) {  // Too late for an error once the image is being streamed
+                exchange.sendResponseHeaders(500, -1);  // 500 Internal Server Error
+            }
         } finally {
             exchange.close();
         }
     }
 
     /**
-     * Converts a {@link WritableImage} (used by JavaFX) into a {@link BufferedImage} (used by AWT).
-     * This is necessary to allow image manipulation and saving using standard Java I/O libraries.
+     * Returns a new snapshot of the canvas. If another request is already taking one, waits for it
+     * and shares its result; otherwise starts one on a virtual thread.
+     *
+     * @return The snapshot with the version it was taken at.
+     * @throws TimeoutException If the snapshot is not ready within the snapshot timeout.
+     * @throws Exception        If the snapshot is interrupted or fails.
+     */
+    private Frame takeSnapshot() throws Exception {
+        CompletableFuture<Frame> pending;
+        boolean leader = false;
+        synchronized (this) {
+            if (pendingFrame == null) {
+                pendingFrame = new CompletableFuture<>();
+                leader = true;
+            }
+            pending = pendingFrame;
+        }
+
+        if (leader) {
+            // Not on the request's thread, so the snapshot outlives a request that stops waiting
+            Thread.ofVirtual().name("canvas-snapshot").start(() -> {
+                try {
+                    pending.complete(snapshot());
+                } catch (Throwable e) {
+                    pending.completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        pendingFrame = null;
+                    }
+                }
+            });
+        }
+
+        WAITING_REQUESTS.incrementAndGet();
+        try {
+            return pending.get(snapshotTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            WAITING_REQUESTS.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the canvas, caching it for its version.
      *
-     * @param writableImage The {@code WritableImage} to be converted.
-     * @return A {@code BufferedImage} containing the pixel data from the {@code WritableImage}.
+     * @return The snapshot with the version it was taken at.
+     * @throws Exception If the snapshot is interrupted.
      */
-    private BufferedImage convertWritableImageToBufferedImage(WritableImage writableImage) {
-        int width = (int) writableImage.getWidth();
-        int height = (int) writableImage.getHeight();
+    private Frame snapshot() throws Exception {
+        // Use a CountDownLatch to ensure we wait for the snapshot to complete on the JavaFX thread
+        final WritableImage[] imageHolder = new WritableImage[1];
+        final Orientation[] orientationHolder = new Orientation[1];
+        final long[] versionHolder = new long[1];
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
 
-        // Create a BufferedImage to hold the pixels from the WritableImage
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        // Take the snapshot on the JavaFX Application Thread, reading the version along with it
+        Platform.runLater(() -> {
+            try {
+                PendingOrientation pending = PendingOrientation.of(canvas);
+                versionHolder[0] = undoRedo != null ? undoRedo.getVersion() : 0;
+                orientationHolder[0] = pending.getOrientation();
+                SnapshotParameters params = new SnapshotParameters();
+                params.setFill(Color.WHITE);  // Optional: Set the background fill color
+                imageHolder[0] = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
+                pending.snapshot(params, imageHolder[0]);
+            } finally {
+                latch.countDown();  // Ensure latch is decremented when the operation completes
+            }
+        });
+
+        // Wait for the snapshot to complete
+        latch.await();
+        SNAPSHOT_TIME.observeSince(start);
+
+        start = System.nanoTime();
+        // Serve the canvas as it is shown, rotating a copy rather than the document
+        Orientation orientation = orientationHolder[0];
+        int drawnWidth = (int) imageHolder[0].getWidth();
+        int drawnHeight = (int) imageHolder[0].getHeight();
+        int[] pixels = orientation.apply(PixelConverter.toArgb(imageHolder[0]), drawnWidth, drawnHeight);
+        int width = orientation.swapsDimensions() ? drawnHeight : drawnWidth;
+        int height = orientation.swapsDimensions() ? drawnWidth : drawnHeight;
+        CONVERT_TIME.observeSince(start);
+        Frame frame = new Frame(versionHolder[0], pixels, width, height);
+
+        // Keep the newest snapshot; a slower request may finish after one that saw a later version
+        if (undoRedo != null) {
+            synchronized (this) {
+                if (cachedFrame == null || cachedFrame.version < frame.version) {
+                    cachedFrame = frame;
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Encodes a variant of a snapshot to a stream, and caches it in the snapshot unless enough
+     * variants are cached already.
+     *
+     * @param frame   The snapshot.
+     * @param variant The requested format and size.
+     * @param out     The stream to write the image to. It is not closed.
+     * @throws IOException If the image cannot be encoded or written.
+     */
+    private void encode(Frame frame, Variant variant, OutputStream out) throws IOException {
+        // Only snapshots of a known version are reused; bound the variants kept per snapshot, since clients choose the sizes
+        EncodedImage copy = undoRedo != null && frame.encoded.size() < MAX_VARIANTS ? new EncodedImage(out) : null;
+        OutputStream stream = new BufferedOutputStream(copy != null ? copy : out, 64 * 1024);
 
-        // Extract pixel data from WritableImage
-        PixelReader pixelReader = writableImage.getPixelReader();
+        // Fit within the requested box, keeping the aspect ratio and never enlarging
+        long start = System.nanoTime();
+        double scale = 1;
+        if (variant.width() > 0) {
+            scale = Math.min(scale, (double) variant.width() / frame.width);
+        }
+        if (variant.height() > 0) {
+            scale = Math.min(scale, (double) variant.height() / frame.height);
+        }
+        int width = Math.max(1, Math.min(frame.width, (int) Math.round(frame.width * scale)));
+        int height = Math.max(1, Math.min(frame.height, (int) Math.round(frame.height * scale)));
+        int[] pixels = width == frame.width && height == frame.height ? frame.pixels
+                : ImageScaler.downscale(frame.pixels, frame.width, frame.height, width, height);
 
-        // Write each pixel to the BufferedImage
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = pixelReader.getColor(x, y);
-                int argb = (int) (color.getOpacity() * 255) << 24 |
-                        (int) (color.getRed() * 255) << 16 |
-                        (int) (color.getGreen() * 255) << 8 |
-                        (int) (color.getBlue() * 255);
-                bufferedImage.setRGB(x, y, argb);
+        switch (variant.format()) {
+            case PNG -> {
+                if (pixels == frame.pixels) {
+                    fullSizePng.encode(pixels, width, height, stream);
+                } else {
+                    PNG_ENCODER.encode(pixels, width, height, stream);
+                }
             }
+            case JPEG -> write(pixels, width, height, BufferedImage.TYPE_INT_RGB, "jpeg", variant.quality() / 100f, stream);
+            case BMP -> write(pixels, width, height, BufferedImage.TYPE_INT_RGB, "bmp", null, stream);
+            case QOI -> stream.write(QoiEncoder.encode(pixels, width, height));
         }
+        stream.flush();
+        variant.format().encodeTime.observeSince(start);
 
-        return bufferedImage;
+        if (copy != null) {
+            frame.encoded.putIfAbsent(variant, copy);
+        }
+    }
+
+    /**
+     * Encodes packed ARGB pixels with ImageIO.
+     *
+     * @param type    The {@link BufferedImage} type to encode from; RGB for formats without alpha.
+     * @param format  The ImageIO format name.
+     * @param quality The compression quality from 0 to 1, or {@code null} for the writer's default.
+     * @param os      The stream to write the image to. It is not closed.
+     */
+    private static void write(int[] pixels, int width, int height, int type, String format, Float quality, OutputStream os) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        System.arraycopy(pixels, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, width * height);
+
+        if (quality == null) {
+            ImageIO.write(image, format, os);
+            return;
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ImageFormat formatNamed(String name) {
+        for (ImageFormat format : ImageFormat.values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return name.equalsIgnoreCase("jpg") ? ImageFormat.JPEG : null;
+    }
+
+    /**
+     * Picks the format the client prefers from an {@code Accept} header.
+     *
+     * @param accept The header value, or {@code null}.
+     * @return The supported format with the highest quality value, the first listed winning ties;
+     *         PNG for wildcards or no header; {@code null} if no supported format is acceptable.
+     */
+    private static ImageFormat negotiateFormat(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return ImageFormat.PNG;
+        }
+        ImageFormat best = null;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+            String[] params = range.split(";");
+            String type = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+
+            ImageFormat format;
+            if (type.equals("*/*") || type.equals("image/*")) {
+                format = ImageFormat.PNG;
+            } else if (type.equals("image/jpg")) {
+                format = ImageFormat.JPEG;
+            } else {
+                format = null;
+                for (ImageFormat candidate : ImageFormat.values()) {
+                    if (candidate.mimeType.equals(type)) {
+                        format = candidate;
+                    }
+                }
+            }
+            if (format != null && q > bestQuality) {
+                best = format;
+                bestQuality = q;
+            }
+        }
+        return best;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(pair.substring(0, equals), pair.substring(equals + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private String etag(long version, Variant variant) {
+        return "\"" + etagPrefix + "-" + version + "-" + variant + "\"";
+    }
+
+    /**
+     * Checks whether an {@code If-None-Match} header names the given version of a variant.
+     *
+     * @param header  The header value, a comma-separated list of ETags or {@code *}, or {@code null}.
+     * @param version The current canvas version.
+     * @param variant The requested variant.
+     * @return {@code true} if the client's copy is current.
+     */
+    private boolean matchesETag(String header, long version, Variant variant) {
+        if (header == null) {
+            return false;
+        }
+        String current = etag(version, variant);
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);  // Weak comparison is enough for a GET
+            }
+            if (tag.equals("*") || tag.equals(current)) {
+                return true;
+            }
+        }
+        return false;
     }
-}
\ No newline at end of file
+}